@@ -0,0 +1,73 @@
+/* Walker's alias table (built with Vose's method) for choosing a destination
+ * in constant time, regardless of how many destinations a queue has.
+ * The table has one column per outcome. A uniform number u in [0, 1) selects
+ * column (int)(u*n), and the fractional part of u*n decides between the column's
+ * own outcome and its alias, so each choice costs a single random number. */
+public class AliasTable {
+
+	private final double[] prob; //Probability of keeping the column's own outcome
+	private final int[] alias;
+	private final int[] outcomes;
+
+	/* outcomes[i] is chosen with probability weights[i]/sum(weights). */
+	public AliasTable(int[] outcomes, double[] weights) {
+		int n = weights.length;
+		if(n == 0 || outcomes.length != n) {
+			throw new IllegalArgumentException("Alias table needs one weight per outcome.");
+		}
+		this.outcomes = outcomes.clone();
+		prob = new double[n];
+		alias = new int[n];
+
+		double sum = 0;
+		for(double w : weights) {
+			sum += w;
+		}
+		double[] scaled = new double[n];
+		int[] small = new int[n];
+		int[] large = new int[n];
+		int smallCount = 0, largeCount = 0;
+		for(int i=0; i<n; i++) {
+			scaled[i] = weights[i] * n / sum;
+			if(scaled[i] < 1.0) {
+				small[smallCount++] = i;
+			} else {
+				large[largeCount++] = i;
+			}
+		}
+		while(smallCount > 0 && largeCount > 0) {
+			int s = small[--smallCount];
+			int l = large[--largeCount];
+			prob[s] = scaled[s];
+			alias[s] = l;
+			scaled[l] = (scaled[l] + scaled[s]) - 1.0;
+			if(scaled[l] < 1.0) {
+				small[smallCount++] = l;
+			} else {
+				large[largeCount++] = l;
+			}
+		}
+		//What's left is 1 up to rounding errors
+		while(largeCount > 0) {
+			int l = large[--largeCount];
+			prob[l] = 1.0;
+			alias[l] = l;
+		}
+		while(smallCount > 0) {
+			int s = small[--smallCount];
+			prob[s] = 1.0;
+			alias[s] = s;
+		}
+	}
+
+	/* Chooses an outcome with a uniform random number in [0, 1). */
+	public int next(double u) {
+		double x = u * prob.length;
+		int column = (int) x;
+		return outcomes[x - column < prob[column] ? column : alias[column]];
+	}
+
+	public int size() {
+		return prob.length;
+	}
+}
\ No newline at end of file
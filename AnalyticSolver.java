@@ -0,0 +1,464 @@
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+
+/* Exact results for networks that need no simulation ("solver" line of the input file):
+ * exponential times between external arrivals and exponential service times, as
+ * written with exp(<mean>) (see Distribution).
+ *
+ * Product form: if every queue reached by clients has infinite capacity (a Jackson
+ * network), or the network has no cycles and the queues with finite capacity only send
+ * clients out of the system, every queue receives a Poisson stream of clients. Its state
+ * probabilities are then those of an M/M/c/K queue with the arrival rate given by the
+ * traffic equations, lambda = gamma + lambda * routing.
+ * Markov chain: otherwise, if every queue reached has finite capacity, the states of the
+ * whole network (the number of clients of every queue) are few enough, up to MAX_STATES,
+ * and the balance equations of the chain are solved by Gauss-Seidel iteration.
+ *
+ * The result is a SimulationReport for the time a simulation of the model would be
+ * expected to last with its randoms (the rate at which randoms are used follows from the
+ * rates of arrivals, services and routing choices), so it reads like a simulation of one
+ * seed and can be compared with one, see compare. */
+class AnalyticSolver {
+
+	//Largest number of states of the network solved as a Markov chain
+	static final int MAX_STATES = 1 << 18;
+	//States of a queue with infinite capacity are listed until the probability left is below this
+	private static final double TAIL = 1e-15;
+	//The Gauss-Seidel iteration stops when a sweep changes the probabilities by less than this in total
+	private static final double TOLERANCE = 1e-12;
+	private static final int MAX_SWEEPS = 100000;
+
+	private final List<QueueStructure> qs;
+	private final int randoms;
+	private final int overflowState;
+	private final double[] external; //Rate of arrivals from outside the system of each queue
+	private String method;
+
+	AnalyticSolver(List<QueueStructure> qs, List<ScheduleEntry> firstArrivals, int randoms, int overflowState) {
+		this.qs = qs;
+		this.randoms = randoms;
+		this.overflowState = overflowState;
+		external = new double[qs.size()];
+		//Each first arrival starts a stream of arrivals of its own
+		for(ScheduleEntry e : firstArrivals) {
+			QueueStructure q = e.destination;
+			if(!(q.arrival instanceof ExponentialDistribution)) {
+				throw new IllegalStateException(String.format(
+						"Queue %s: times between arrivals must be exponential to be solved exactly.", q.id));
+			}
+			external[q.index] += 1 / q.arrival.mean();
+		}
+	}
+
+	/* Method used by the last solve, to be shown with its results. */
+	String method() {
+		return method;
+	}
+
+	/* Throws IllegalStateException, with the reason, if the network can't be solved exactly. */
+	SimulationReport solve() {
+		int n = qs.size();
+		boolean[] reached = reachedQueues();
+		boolean infinite = true;
+		for(QueueStructure q : qs) {
+			if(!reached[q.index]) {
+				continue;
+			}
+			if(!(q.service instanceof ExponentialDistribution)) {
+				throw new IllegalStateException(String.format(
+						"Queue %s: service times must be exponential to be solved exactly.", q.id));
+			}
+			infinite &= q.capacity == Integer.MAX_VALUE;
+		}
+
+		double[][] probabilities = new double[n][];
+		double[] lossRate = new double[n];
+		double[] throughput = new double[n]; //Rate of clients served by each queue
+		if(infinite || (!hasCycle(reached) && finiteQueuesOnlyExit(reached))) {
+			method = infinite ? "Jackson network" : "M/M/c/K queues";
+			productForm(reached, probabilities, lossRate, throughput);
+		} else {
+			markovChain(reached, probabilities, lossRate, throughput);
+		}
+
+		//Randoms used per time unit: one per external arrival, one per service and one per routing choice
+		double randomRate = 0;
+		for(QueueStructure q : qs) {
+			randomRate += external[q.index] + throughput[q.index] * (q.destinations.size() > 1 ? 2 : 1);
+		}
+		if(!(randomRate > 0)) {
+			throw new IllegalStateException("No clients ever arrive.");
+		}
+		double time = randoms / randomRate;
+
+		String[] queueIDs = new String[n];
+		StateHistogram[] stateTimes = new StateHistogram[n];
+		double[] clientsLost = new double[n];
+		for(int i=0; i<n; i++) {
+			queueIDs[i] = qs.get(i).id;
+			stateTimes[i] = new StateHistogram(overflowState);
+			double[] p = probabilities[i] != null ? probabilities[i] : new double[] {1.0};
+			for(int s=0; s<p.length; s++) {
+				stateTimes[i].addState(s);
+				stateTimes[i].add(s, p[s] * time);
+			}
+			clientsLost[i] = lossRate[i] * time;
+		}
+		SimulationReport r = new SimulationReport(queueIDs, time, stateTimes, clientsLost);
+		r.recordReplication();
+		return r;
+	}
+
+	/* Queues clients can reach from outside the system. */
+	private boolean[] reachedQueues() {
+		boolean[] reached = new boolean[qs.size()];
+		ArrayDeque<QueueStructure> pending = new ArrayDeque<>();
+		for(QueueStructure q : qs) {
+			if(external[q.index] > 0) {
+				reached[q.index] = true;
+				pending.add(q);
+			}
+		}
+		while(!pending.isEmpty()) {
+			for(QueueStructure d : pending.poll().destinations) {
+				if(d != QueueStructure.EXIT && !reached[d.index]) {
+					reached[d.index] = true;
+					pending.add(d);
+				}
+			}
+		}
+		return reached;
+	}
+
+	/* Depth-first search for a route that leads a client back to a queue it has been in. */
+	private boolean hasCycle(boolean[] reached) {
+		byte[] mark = new byte[qs.size()]; //0 unvisited, 1 on the current path, 2 done
+		for(QueueStructure q : qs) {
+			if(reached[q.index] && mark[q.index] == 0 && cycleFrom(q, mark)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean cycleFrom(QueueStructure start, byte[] mark) {
+		//Explicit stack of (queue, next destination to look at), as networks may be deep
+		ArrayDeque<int[]> stack = new ArrayDeque<>();
+		mark[start.index] = 1;
+		stack.push(new int[] {start.index, 0});
+		while(!stack.isEmpty()) {
+			int[] top = stack.peek();
+			List<QueueStructure> destinations = qs.get(top[0]).destinations;
+			if(top[1] == destinations.size()) {
+				mark[top[0]] = 2;
+				stack.pop();
+				continue;
+			}
+			QueueStructure d = destinations.get(top[1]++);
+			if(d == QueueStructure.EXIT) {
+				continue;
+			}
+			if(mark[d.index] == 1) {
+				return true;
+			}
+			if(mark[d.index] == 0) {
+				mark[d.index] = 1;
+				stack.push(new int[] {d.index, 0});
+			}
+		}
+		return false;
+	}
+
+	private boolean finiteQueuesOnlyExit(boolean[] reached) {
+		for(QueueStructure q : qs) {
+			if(reached[q.index] && q.capacity != Integer.MAX_VALUE) {
+				for(QueueStructure d : q.destinations) {
+					if(d != QueueStructure.EXIT) {
+						return false;
+					}
+				}
+			}
+		}
+		return true;
+	}
+
+	private void productForm(boolean[] reached, double[][] probabilities, double[] lossRate, double[] throughput) {
+		double[] lambda = trafficEquations(reached);
+		for(QueueStructure q : qs) {
+			int i = q.index;
+			if(!reached[i]) {
+				continue;
+			}
+			double[] p = mmck(q, lambda[i], 1 / q.service.mean());
+			probabilities[i] = p;
+			double blocked = q.capacity != Integer.MAX_VALUE ? p[p.length-1] : 0;
+			lossRate[i] = lambda[i] * blocked;
+			throughput[i] = lambda[i] * (1 - blocked);
+		}
+	}
+
+	/* Solves lambda = gamma + lambda * routing by Gauss-Seidel iteration. In the product form
+	 * cases no client routed between queues is ever lost, so the rates are those offered. */
+	private double[] trafficEquations(boolean[] reached) {
+		double[] lambda = external.clone();
+		for(int sweep=0; sweep<MAX_SWEEPS; sweep++) {
+			double change = 0, total = 0;
+			double[] next = external.clone();
+			for(QueueStructure q : qs) {
+				if(!reached[q.index] || lambda[q.index] == 0) {
+					continue;
+				}
+				for(int k=0; k<q.destinations.size(); k++) {
+					QueueStructure d = q.destinations.get(k);
+					if(d != QueueStructure.EXIT) {
+						next[d.index] += lambda[q.index] * q.destinationProbs.get(k);
+					}
+				}
+			}
+			for(int i=0; i<next.length; i++) {
+				change += Math.abs(next[i] - lambda[i]);
+				total += next[i];
+			}
+			lambda = next;
+			if(change <= 1e-14 * total) {
+				return lambda;
+			}
+		}
+		throw new IllegalStateException("The traffic equations have no solution: some clients never leave the system.");
+	}
+
+	/* State probabilities of an M/M/c/K queue (K the capacity, possibly infinite). */
+	private static double[] mmck(QueueStructure q, double lambda, double mu) {
+		int c = Math.max(1, Math.min(q.servers, q.capacity));
+		boolean infinite = q.capacity == Integer.MAX_VALUE;
+		if(infinite && lambda >= c * mu) {
+			throw new IllegalStateException(String.format("Queue %s is unstable (utilization %.3f): "
+					+ "its number of clients grows without limit.", q.id, lambda / (c * mu)));
+		}
+		double[] p = new double[16];
+		p[0] = 1;
+		double sum = 1;
+		int n = 0;
+		while(infinite ? (n < c || p[n] > TAIL * sum) : n < q.capacity) {
+			n++;
+			if(n == p.length) {
+				p = Arrays.copyOf(p, 2*n);
+			}
+			p[n] = p[n-1] * lambda / (mu * Math.min(n, c));
+			sum += p[n];
+		}
+		p = Arrays.copyOf(p, n+1);
+		for(int s=0; s<=n; s++) {
+			p[s] /= sum;
+		}
+		return p;
+	}
+
+	/* The network as a Markov chain whose state is the number of clients of every queue reached. */
+	private void markovChain(boolean[] reached, double[][] probabilities, double[] lossRate, double[] throughput) {
+		int m = 0;
+		int[] position = new int[qs.size()]; //Digit of each queue in the state number, -1 if not reached
+		for(QueueStructure q : qs) {
+			position[q.index] = reached[q.index] ? m++ : -1;
+		}
+		QueueStructure[] queues = new QueueStructure[m];
+		int[] stride = new int[m];
+		long states = 1;
+		for(QueueStructure q : qs) {
+			int k = position[q.index];
+			if(k < 0) {
+				continue;
+			}
+			if(q.capacity == Integer.MAX_VALUE) {
+				throw new IllegalStateException(String.format("Queue %s has infinite capacity and the network isn't "
+						+ "product form (it has finite queues that send clients to other queues, or cycles), "
+						+ "so it can't be solved exactly.", q.id));
+			}
+			queues[k] = q;
+			stride[k] = (int) states;
+			states *= q.capacity + 1L;
+			if(states > MAX_STATES) {
+				throw new IllegalStateException(String.format(
+						"The network has more than %d states, too many to be solved exactly.", MAX_STATES));
+			}
+		}
+		method = String.format("Markov chain of %d states", states);
+		Chain chain = new Chain(queues, position, stride, (int) states);
+		double[] pi = chain.solve();
+
+		for(int k=0; k<m; k++) {
+			probabilities[queues[k].index] = new double[queues[k].capacity + 1];
+		}
+		for(int s=0; s<pi.length; s++) {
+			for(int k=0; k<m; k++) {
+				int clients = s / stride[k] % (queues[k].capacity + 1);
+				probabilities[queues[k].index][clients] += pi[s];
+				throughput[queues[k].index] += pi[s] * Math.min(clients, queues[k].servers) / queues[k].service.mean();
+			}
+			int t = chain.transitions(s);
+			for(int j=0; j<t; j++) {
+				if(chain.lostAt[j] >= 0) {
+					lossRate[queues[chain.lostAt[j]].index] += pi[s] * chain.rates[j];
+				}
+			}
+		}
+	}
+
+	/* Transitions of the network's Markov chain and the solution of its balance equations. */
+	private final class Chain {
+		final QueueStructure[] queues;
+		final int[] position;
+		final int[] stride;
+		final int states;
+		//Transitions out of the state last given to transitions(s)
+		final int[] targets;
+		final double[] rates;
+		final int[] lostAt; //Digit of the queue that loses the client, -1 if none
+
+		Chain(QueueStructure[] queues, int[] position, int[] stride, int states) {
+			this.queues = queues;
+			this.position = position;
+			this.stride = stride;
+			this.states = states;
+			int most = 0;
+			for(QueueStructure q : queues) {
+				most += 1 + q.destinations.size();
+			}
+			targets = new int[most];
+			rates = new double[most];
+			lostAt = new int[most];
+		}
+
+		/* Fills targets, rates and lostAt with the transitions out of state s and returns
+		 * their number. Arrivals at a full queue are self-loops that lose a client. */
+		int transitions(int s) {
+			int t = 0;
+			for(int k=0; k<queues.length; k++) {
+				QueueStructure q = queues[k];
+				int clients = s / stride[k] % (q.capacity + 1);
+				double gamma = external[q.index];
+				if(gamma > 0) {
+					boolean full = clients == q.capacity;
+					targets[t] = full ? s : s + stride[k];
+					rates[t] = gamma;
+					lostAt[t++] = full ? k : -1;
+				}
+				if(clients == 0) {
+					continue;
+				}
+				double service = Math.min(clients, q.servers) / q.service.mean();
+				for(int d=0; d<q.destinations.size(); d++) {
+					QueueStructure dest = q.destinations.get(d);
+					double rate = service * q.destinationProbs.get(d);
+					int left = s - stride[k];
+					if(dest == QueueStructure.EXIT) {
+						targets[t] = left;
+						rates[t] = rate;
+						lostAt[t++] = -1;
+						continue;
+					}
+					int j = position[dest.index];
+					boolean full = left / stride[j] % (dest.capacity + 1) == dest.capacity;
+					targets[t] = full ? left : left + stride[j];
+					rates[t] = rate;
+					lostAt[t++] = full ? j : -1;
+				}
+			}
+			return t;
+		}
+
+		/* Stationary probabilities, from the balance equations pi(s) * out(s) = sum of pi(r) * rate(r -> s),
+		 * solved for one state at a time (Gauss-Seidel) over the transitions into each state. */
+		double[] solve() {
+			int[] firstIn = new int[states+1];
+			double[] out = new double[states];
+			for(int s=0; s<states; s++) {
+				int t = transitions(s);
+				for(int j=0; j<t; j++) {
+					if(targets[j] != s) {
+						firstIn[targets[j]+1]++;
+						out[s] += rates[j];
+					}
+				}
+			}
+			for(int s=0; s<states; s++) {
+				firstIn[s+1] += firstIn[s];
+			}
+			int[] from = new int[firstIn[states]];
+			double[] inRate = new double[firstIn[states]];
+			int[] filled = firstIn.clone();
+			for(int s=0; s<states; s++) {
+				int t = transitions(s);
+				for(int j=0; j<t; j++) {
+					if(targets[j] != s) {
+						int e = filled[targets[j]]++;
+						from[e] = s;
+						inRate[e] = rates[j];
+					}
+				}
+			}
+
+			double[] pi = new double[states];
+			Arrays.fill(pi, 1.0 / states);
+			for(int sweep=0; sweep<MAX_SWEEPS; sweep++) {
+				double change = 0, sum = 0;
+				for(int s=0; s<states; s++) {
+					if(out[s] == 0) {
+						continue;
+					}
+					double in = 0;
+					for(int e=firstIn[s]; e<firstIn[s+1]; e++) {
+						in += pi[from[e]] * inRate[e];
+					}
+					double p = in / out[s];
+					change += Math.abs(p - pi[s]);
+					pi[s] = p;
+				}
+				for(double p : pi) {
+					sum += p;
+				}
+				for(int s=0; s<states; s++) {
+					pi[s] /= sum;
+				}
+				if(change <= TOLERANCE * sum) {
+					return pi;
+				}
+			}
+			throw new IllegalStateException(String.format(
+					"The Markov chain didn't converge in %d iterations.", MAX_SWEEPS));
+		}
+	}
+
+	/* Mean number of clients and clients lost per time unit of every queue, simulated and
+	 * exact, with the difference relative to the exact value. */
+	static String compare(SimulationReport simulated, SimulationReport exact) {
+		StringBuilder res = new StringBuilder("Simulated against exact results:\n");
+		for(int i=0; i<exact.stateTimes.length; i++) {
+			double clients = meanClients(simulated, i), exactClients = meanClients(exact, i);
+			double lost = simulated.clientsLost[i] / simulated.totalSimulationTime;
+			double exactLost = exact.clientsLost[i] / exact.totalSimulationTime;
+			res.append(String.format("Queue %s: mean clients %.4f (exact %.4f, %s), clients lost per time unit %.5g "
+					+ "(exact %.5g, %s)\n", exact.queueIDs[i], clients, exactClients, difference(clients, exactClients),
+					lost, exactLost, difference(lost, exactLost)));
+		}
+		return res.toString();
+	}
+
+	/* Time-average number of clients. Clients of an overflow bucket count as the bucket's lowest state. */
+	private static double meanClients(SimulationReport r, int queue) {
+		StateHistogram h = r.stateTimes[queue];
+		double sum = 0;
+		for(int s=0; s<h.size(); s++) {
+			sum += s * h.get(s);
+		}
+		return sum / r.totalSimulationTime;
+	}
+
+	private static String difference(double value, double exact) {
+		if(exact == 0) {
+			return value == 0 ? "same" : "n/a";
+		}
+		return String.format("%+.2f%%", 100 * (value - exact) / exact);
+	}
+}
\ No newline at end of file
@@ -0,0 +1,30 @@
+/* Mirror of a RandomSource: returns 1-u for every number u of the source, the
+ * antithetic variate of u. A run driven by the mirror of a run's source tends to
+ * err in the opposite direction, so the average of the two has less variance. */
+public class AntitheticSource implements RandomSource {
+	//Largest double below 1, returned instead of 1 (when u is 0) to stay in [0, 1)
+	private static final double BELOW_ONE = Math.nextDown(1.0);
+
+	private final RandomSource source;
+
+	public AntitheticSource(RandomSource source) {
+		this.source = source;
+	}
+
+	public double nextDouble() {
+		double u = 1 - source.nextDouble();
+		return u < 1 ? u : BELOW_ONE;
+	}
+
+	public RandomSource stream(int k) {
+		return new AntitheticSource(source.stream(k));
+	}
+
+	public long[] getState() {
+		return source.getState();
+	}
+
+	public void setState(long[] state) {
+		source.setState(state);
+	}
+}
\ No newline at end of file
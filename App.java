@@ -1,7 +1,26 @@
+import java.util.Arrays;
+
 public class App {
 
 	public static void main(String[] args) throws Exception {
 		
+		if(args.length == 2 && args[0].equals("-worker")) { //Simulate seeds for a coordinator, see Worker
+			Worker.run(Integer.parseInt(args[1]));
+			return;
+		}
+		if(args.length == 2 && args[0].equals("-resume")) { //Continue a run from a checkpoint, see Snapshot
+			QueueSim.resume(args[1]);
+			return;
+		}
+		if(args.length > 2 && args[0].equals("-fork")) { //Run variants from a checkpoint, see Snapshot
+			QueueSim.fork(args[1], Arrays.copyOfRange(args, 2, args.length));
+			return;
+		}
+		if(args.length == 3 && args[0].equals("-compile")) { //Write the model in binary form, see CompiledModel
+			new QueueSim(args[1]).compile(args[2]);
+			return;
+		}
+		
 		String fileString;
 		if(args.length > 0) {
 			fileString = args[0];
@@ -10,7 +29,11 @@ public class App {
 		}
 		
 		QueueSim sim = new QueueSim(fileString);
-		sim.runSimulation();
+		if(args.length > 1) { //Compare two variants of a network
+			new VariantComparison(sim, new QueueSim(args[1])).run();
+		} else {
+			sim.runSimulation();
+		}
 		
 	}
 
@@ -0,0 +1,252 @@
+import java.util.Arrays;
+
+/* Event calendar implemented as a calendar queue (R. Brown, 1988).
+ * Events are hashed by time into buckets of fixed width, like days in a year, and each
+ * bucket keeps its events sorted. With a bucket width close to the average separation
+ * of events, offer and poll take constant expected time regardless of how many events
+ * are pending, which pays off over the heap for very large event populations.
+ * The number of buckets doubles or halves with the number of events, and the bucket
+ * width is re-estimated from the earliest pending events every time it does.
+ *
+ * Events live in a pool of nodes kept in parallel primitive arrays and linked through
+ * next[], so no objects are allocated per event. Event times must not be negative. */
+public class CalendarQueue implements EventCalendar {
+
+	private static final int MIN_BUCKETS = 16;
+	//Number of earliest events used to estimate the bucket width on a resize
+	private static final int WIDTH_SAMPLE = 25;
+
+	//Node pool
+	private double[] times;
+	private long[] seqs; //Insertion sequence, used to break ties
+	private int[] events;
+	private int[] origins;
+	private int[] destinations;
+	private int[] next;
+	private int freeList = -1;
+	private int poolUsed;
+
+	//Buckets: head node of each bucket's sorted list, -1 when empty
+	private int[] heads;
+	private int mask;
+	private double width = 1.0;
+	//Virtual bucket (time/width, before wrapping around the year) of the last polled event
+	private long currentBucket;
+
+	private int size;
+	private long nextSeq;
+
+	//Fields of the last polled event
+	private double lastTime;
+	private int lastEvent;
+	private int lastOrigin;
+	private int lastDestination;
+
+	public CalendarQueue() {
+		int capacity = 4*MIN_BUCKETS;
+		times = new double[capacity];
+		seqs = new long[capacity];
+		events = new int[capacity];
+		origins = new int[capacity];
+		destinations = new int[capacity];
+		next = new int[capacity];
+		heads = new int[MIN_BUCKETS];
+		Arrays.fill(heads, -1);
+		mask = MIN_BUCKETS-1;
+	}
+
+	public void offer(double time, int event, int origin, int destination) {
+		int node = allocateNode();
+		times[node] = time;
+		seqs[node] = nextSeq++;
+		events[node] = event;
+		origins[node] = origin;
+		destinations[node] = destination;
+		insert(node);
+		size++;
+		if(size > 2*heads.length) {
+			resize(2*heads.length);
+		}
+	}
+
+	public void poll() {
+		if(size == 0) {
+			throw new IllegalStateException("Event calendar is empty.");
+		}
+		int bucket = findEarliestBucket();
+		int node = heads[bucket];
+		heads[bucket] = next[node];
+		lastTime = times[node];
+		lastEvent = events[node];
+		lastOrigin = origins[node];
+		lastDestination = destinations[node];
+		next[node] = freeList;
+		freeList = node;
+		size--;
+		if(size < heads.length/2 && heads.length > MIN_BUCKETS) {
+			resize(heads.length/2);
+		}
+	}
+
+	public double time() {
+		return lastTime;
+	}
+
+	public int event() {
+		return lastEvent;
+	}
+
+	public int origin() {
+		return lastOrigin;
+	}
+
+	public int destination() {
+		return lastDestination;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public double peekTime() {
+		return size > 0 ? times[heads[findEarliestBucket()]] : Double.POSITIVE_INFINITY;
+	}
+
+	public void copyPending(double[] times, int[] events, int[] origins, int[] destinations) {
+		int[] nodes = new int[size];
+		int n = 0;
+		for(int b=0; b<heads.length; b++) {
+			for(int cur = heads[b]; cur != -1; cur = next[cur]) {
+				nodes[n++] = cur;
+			}
+		}
+		Integer[] sorted = EventCalendar.sortByTime(nodes, this.times, seqs);
+		for(int i=0; i<n; i++) {
+			int node = sorted[i];
+			times[i] = this.times[node];
+			events[i] = this.events[node];
+			origins[i] = this.origins[node];
+			destinations[i] = this.destinations[node];
+		}
+	}
+
+	/* Scans the year starting at the current bucket for an event that belongs to the
+	 * bucket's current day. If a whole year is scanned without finding one, the events
+	 * are sparse compared to the bucket width and the earliest bucket head is searched directly. */
+	private int findEarliestBucket() {
+		long vb = currentBucket;
+		for(int i=0; i<heads.length; i++, vb++) {
+			int b = (int)(vb & mask);
+			int h = heads[b];
+			if(h != -1 && virtualBucket(times[h]) <= vb) {
+				currentBucket = vb;
+				return b;
+			}
+		}
+		int earliest = -1;
+		int bucket = -1;
+		for(int b=0; b<heads.length; b++) {
+			int h = heads[b];
+			if(h != -1 && (earliest == -1 || before(h, earliest))) {
+				earliest = h;
+				bucket = b;
+			}
+		}
+		currentBucket = virtualBucket(times[earliest]);
+		return bucket;
+	}
+
+	/* Inserts the node in its bucket, keeping the bucket sorted by time and insertion order. */
+	private void insert(int node) {
+		long vb = virtualBucket(times[node]);
+		if(vb < currentBucket) {
+			currentBucket = vb;
+		}
+		int b = (int)(vb & mask);
+		int prev = -1;
+		int cur = heads[b];
+		while(cur != -1 && !before(node, cur)) {
+			prev = cur;
+			cur = next[cur];
+		}
+		next[node] = cur;
+		if(prev == -1) {
+			heads[b] = node;
+		} else {
+			next[prev] = node;
+		}
+	}
+
+	private void resize(int buckets) {
+		//Collect every pending node
+		int[] nodes = new int[size];
+		int n = 0;
+		for(int b=0; b<heads.length; b++) {
+			for(int cur = heads[b]; cur != -1; cur = next[cur]) {
+				nodes[n++] = cur;
+			}
+		}
+		estimateWidth(nodes, n);
+
+		heads = new int[buckets];
+		Arrays.fill(heads, -1);
+		mask = buckets-1;
+		currentBucket = Long.MAX_VALUE;
+		for(int i=0; i<n; i++) {
+			insert(nodes[i]);
+		}
+	}
+
+	/* Sets the bucket width to three times the average separation of the earliest events,
+	 * ignoring separations much larger than average, as suggested by Brown. */
+	private void estimateWidth(int[] nodes, int n) {
+		if(n < 2) {
+			return;
+		}
+		double[] sorted = new double[n];
+		for(int i=0; i<n; i++) {
+			sorted[i] = times[nodes[i]];
+		}
+		Arrays.sort(sorted);
+		int samples = Math.min(n, WIDTH_SAMPLE);
+		double average = (sorted[samples-1] - sorted[0]) / (samples-1);
+		double sum = 0;
+		int count = 0;
+		for(int i=1; i<samples; i++) {
+			double separation = sorted[i] - sorted[i-1];
+			if(separation <= 2*average) {
+				sum += separation;
+				count++;
+			}
+		}
+		if(count > 0 && sum > 0) {
+			width = 3*sum/count;
+		}
+	}
+
+	private long virtualBucket(double time) {
+		return (long)(time/width);
+	}
+
+	private boolean before(int node1, int node2) {
+		return times[node1] < times[node2] || (times[node1] == times[node2] && seqs[node1] < seqs[node2]);
+	}
+
+	private int allocateNode() {
+		if(freeList != -1) {
+			int node = freeList;
+			freeList = next[node];
+			return node;
+		}
+		if(poolUsed == times.length) {
+			int capacity = times.length*2;
+			times = Arrays.copyOf(times, capacity);
+			seqs = Arrays.copyOf(seqs, capacity);
+			events = Arrays.copyOf(events, capacity);
+			origins = Arrays.copyOf(origins, capacity);
+			destinations = Arrays.copyOf(destinations, capacity);
+			next = Arrays.copyOf(next, capacity);
+		}
+		return poolUsed++;
+	}
+}
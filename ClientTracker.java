@@ -0,0 +1,160 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/* Follows the clients of one run through the queues to measure their waiting and
+ * response times (see ResponseTimes), without an object per client.
+ * Events don't say which client they move, but queues serve their clients in order of
+ * arrival: each queue keeps the arrival times of its waiting clients in a ring of
+ * primitive arrays, and the client at its head is the next one served. A client in
+ * service is known by the time of its departure, which is fixed when the service starts
+ * and is the time of the event that later moves it. Each client also carries the time it
+ * entered the network, for the response time in the network. */
+class ClientTracker {
+
+	private static final int INITIAL_CAPACITY = 4;
+
+	final ResponseTimes times;
+
+	//Waiting clients of each queue: arrival at the queue and in the network, from head[q], waiting[q] of them
+	private final double[][] queueArrival;
+	private final double[][] networkArrival;
+	private final int[] head;
+	private final int[] waiting;
+
+	//Clients in service of each queue, busy[q] of them, in no particular order
+	private final double[][] serviceEnd;
+	private final double[][] serviceQueueArrival;
+	private final double[][] serviceNetworkArrival;
+	private final int[] busy;
+
+	ClientTracker(int queues) {
+		times = new ResponseTimes(queues);
+		queueArrival = new double[queues][INITIAL_CAPACITY];
+		networkArrival = new double[queues][INITIAL_CAPACITY];
+		head = new int[queues];
+		waiting = new int[queues];
+		serviceEnd = new double[queues][INITIAL_CAPACITY];
+		serviceQueueArrival = new double[queues][INITIAL_CAPACITY];
+		serviceNetworkArrival = new double[queues][INITIAL_CAPACITY];
+		busy = new int[queues];
+	}
+
+	/* A client that entered the network at entry arrives at queue q, which had room for it. */
+	void arrive(int q, double time, double entry) {
+		int capacity = queueArrival[q].length;
+		if(waiting[q] == capacity) { //Full ring: unroll it into arrays twice as large
+			queueArrival[q] = unroll(queueArrival[q], head[q]);
+			networkArrival[q] = unroll(networkArrival[q], head[q]);
+			head[q] = 0;
+			capacity *= 2;
+		}
+		int tail = (head[q] + waiting[q]) & (capacity-1);
+		queueArrival[q][tail] = time;
+		networkArrival[q][tail] = entry;
+		waiting[q]++;
+	}
+
+	/* The first waiting client of queue q starts its service, which ends at departure. */
+	void startService(int q, double time, double departure) {
+		int h = head[q];
+		double arrival = queueArrival[q][h];
+		double entry = networkArrival[q][h];
+		head[q] = (h+1) & (queueArrival[q].length-1);
+		waiting[q]--;
+		times.waiting[q].record(time - arrival);
+
+		int n = busy[q];
+		if(n == serviceEnd[q].length) {
+			serviceEnd[q] = Arrays.copyOf(serviceEnd[q], 2*n);
+			serviceQueueArrival[q] = Arrays.copyOf(serviceQueueArrival[q], 2*n);
+			serviceNetworkArrival[q] = Arrays.copyOf(serviceNetworkArrival[q], 2*n);
+		}
+		serviceEnd[q][n] = departure;
+		serviceQueueArrival[q][n] = arrival;
+		serviceNetworkArrival[q][n] = entry;
+		busy[q] = n+1;
+	}
+
+	/* The client of queue q whose service ends now leaves it. Returns the time it entered
+	 * the network. Clients with the same departure time are interchangeable. */
+	double depart(int q, double time) {
+		double[] ends = serviceEnd[q];
+		int n = busy[q];
+		int i = 0;
+		while(i < n && ends[i] != time) {
+			i++;
+		}
+		if(i == n) {
+			throw new IllegalStateException("No client of queue " + q + " finishes its service at " + time);
+		}
+		times.response[q].record(time - serviceQueueArrival[q][i]);
+		double entry = serviceNetworkArrival[q][i];
+		//The last client in service takes its place
+		n--;
+		ends[i] = ends[n];
+		serviceQueueArrival[q][i] = serviceQueueArrival[q][n];
+		serviceNetworkArrival[q][i] = serviceNetworkArrival[q][n];
+		busy[q] = n;
+		return entry;
+	}
+
+	/* A client that entered the network at entry leaves the system. */
+	void exit(double time, double entry) {
+		times.network.record(time - entry);
+	}
+
+	/* Writes the clients of every queue and the times gathered so far (see Snapshot). */
+	void write(DataOutput out) throws IOException {
+		for(int q=0; q<head.length; q++) {
+			int mask = queueArrival[q].length-1;
+			out.writeInt(waiting[q]);
+			for(int i=0; i<waiting[q]; i++) {
+				out.writeDouble(queueArrival[q][(head[q]+i) & mask]);
+				out.writeDouble(networkArrival[q][(head[q]+i) & mask]);
+			}
+			out.writeInt(busy[q]);
+			for(int i=0; i<busy[q]; i++) {
+				out.writeDouble(serviceEnd[q][i]);
+				out.writeDouble(serviceQueueArrival[q][i]);
+				out.writeDouble(serviceNetworkArrival[q][i]);
+			}
+		}
+		times.write(out);
+	}
+
+	/* Puts back what write wrote, on a tracker of as many queues that hasn't been used yet. */
+	void read(DataInput in) throws IOException {
+		for(int q=0; q<head.length; q++) {
+			int n = in.readInt();
+			int capacity = Math.max(INITIAL_CAPACITY, Integer.highestOneBit(Math.max(n, 1)-1) << 1);
+			queueArrival[q] = new double[capacity];
+			networkArrival[q] = new double[capacity];
+			for(int i=0; i<n; i++) {
+				queueArrival[q][i] = in.readDouble();
+				networkArrival[q][i] = in.readDouble();
+			}
+			waiting[q] = n;
+			n = in.readInt();
+			capacity = Math.max(INITIAL_CAPACITY, n);
+			serviceEnd[q] = new double[capacity];
+			serviceQueueArrival[q] = new double[capacity];
+			serviceNetworkArrival[q] = new double[capacity];
+			for(int i=0; i<n; i++) {
+				serviceEnd[q][i] = in.readDouble();
+				serviceQueueArrival[q][i] = in.readDouble();
+				serviceNetworkArrival[q][i] = in.readDouble();
+			}
+			busy[q] = n;
+		}
+		times.merge(ResponseTimes.read(in, head.length));
+	}
+
+	private static double[] unroll(double[] ring, int head) {
+		double[] larger = new double[2*ring.length];
+		System.arraycopy(ring, head, larger, 0, ring.length - head);
+		System.arraycopy(ring, 0, larger, ring.length - head, head);
+		return larger;
+	}
+}
\ No newline at end of file
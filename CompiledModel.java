@@ -0,0 +1,187 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/* Binary form of a parsed input file (see QueueSim.compile), which loads without any
+ * text parsing or queue lookups: the file is memory-mapped and read front to back.
+ * Queues refer to each other by index. Simulation options are kept as the original
+ * text lines and parsed again when loading, as they are few and cheap to parse.
+ *
+ * Layout (big-endian; strings are an int length followed by UTF-8 bytes):
+ *   int MAGIC, int VERSION
+ *   int number of queues, then per queue:
+ *       string id, int servers, int capacity (Integer.MAX_VALUE if infinite),
+ *       arrival distribution, service distribution (see Distribution.write;
+ *       version 1 had double arrivalMin, arrivalMax, serviceMin, serviceMax instead)
+ *   per queue: int number of destinations, then per destination:
+ *       int destination index (-1 for the system exit), double probability
+ *   int number of seeds, long seeds
+ *   int randoms
+ *   int number of first arrivals, then per arrival: int queue index, double time
+ *   int number of option lines, string lines */
+class CompiledModel {
+
+	static final int MAGIC = 0x51534D42; //"QSMB"
+	static final int VERSION = 2;
+
+	final ArrayList<QueueStructure> queues;
+	final ArrayList<Long> seeds;
+	final int randoms;
+	final ArrayList<ScheduleEntry> firstArrivals;
+	final ArrayList<String> options;
+
+	private CompiledModel(ArrayList<QueueStructure> queues, ArrayList<Long> seeds, int randoms,
+			ArrayList<ScheduleEntry> firstArrivals, ArrayList<String> options) {
+		this.queues = queues;
+		this.seeds = seeds;
+		this.randoms = randoms;
+		this.firstArrivals = firstArrivals;
+		this.options = options;
+	}
+
+	/* True if the file starts with the header of a compiled model. */
+	static boolean isCompiled(String file) throws IOException {
+		try(InputStream in = Files.newInputStream(Paths.get(file))) {
+			byte[] header = in.readNBytes(4);
+			return header.length == 4 && ByteBuffer.wrap(header).getInt() == MAGIC;
+		}
+	}
+
+	static void write(String file, List<QueueStructure> queues, List<Long> seeds, int randoms,
+			List<ScheduleEntry> firstArrivals, List<String> options) throws IOException {
+		try(OutputStream out = Files.newOutputStream(Paths.get(file))) {
+			write(out, queues, seeds, randoms, firstArrivals, options);
+		}
+	}
+
+	/* Writes to the stream, which is flushed but not closed. */
+	static void write(OutputStream stream, List<QueueStructure> queues, List<Long> seeds, int randoms,
+			List<ScheduleEntry> firstArrivals, List<String> options) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(queues.size());
+		for(QueueStructure q : queues) {
+			writeString(out, q.id);
+			out.writeInt(q.servers);
+			out.writeInt(q.capacity);
+			q.arrival.write(out);
+			q.service.write(out);
+		}
+		for(QueueStructure q : queues) {
+			out.writeInt(q.destinations.size());
+			for(int i=0; i<q.destinations.size(); i++) {
+				out.writeInt(q.destinations.get(i).index);
+				out.writeDouble(q.destinationProbs.get(i));
+			}
+		}
+		out.writeInt(seeds.size());
+		for(long seed : seeds) {
+			out.writeLong(seed);
+		}
+		out.writeInt(randoms);
+		out.writeInt(firstArrivals.size());
+		for(ScheduleEntry e : firstArrivals) {
+			out.writeInt(e.destination.index);
+			out.writeDouble(e.time);
+		}
+		if(options == null) {
+			out.writeInt(0);
+		} else {
+			out.writeInt(options.size());
+			for(String s : options) {
+				writeString(out, s);
+			}
+		}
+		out.flush();
+	}
+
+	static CompiledModel read(String file) throws IOException {
+		Path path = Paths.get(file);
+		MappedByteBuffer in;
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		return read(in, file);
+	}
+
+	/* Reads a model from a buffer holding a whole compiled file. name is used in errors. */
+	static CompiledModel read(ByteBuffer in, String name) throws IOException {
+		if(in.getInt() != MAGIC) {
+			throw new IOException(name + " is not a compiled model.");
+		}
+		int version = in.getInt();
+		if(version != VERSION && version != 1) {
+			throw new IOException(String.format("%s: unsupported compiled model version %d.", name, version));
+		}
+		int n = in.getInt();
+		ArrayList<QueueStructure> queues = new ArrayList<>(n);
+		for(int i=0; i<n; i++) {
+			QueueStructure q;
+			if(version == 1) {
+				q = new QueueStructure(readString(in), in.getInt(), in.getInt(),
+						in.getDouble(), in.getDouble(), in.getDouble(), in.getDouble(), null);
+			} else {
+				q = new QueueStructure(readString(in), in.getInt(), in.getInt(),
+						Distribution.read(in), Distribution.read(in), null);
+			}
+			q.index = i;
+			queues.add(q);
+		}
+		for(QueueStructure q : queues) {
+			int destinations = in.getInt();
+			q.destinations.ensureCapacity(destinations);
+			q.destinationProbs.ensureCapacity(destinations);
+			for(int i=0; i<destinations; i++) {
+				int dest = in.getInt();
+				q.destinations.add(dest < 0 ? QueueStructure.EXIT : queues.get(dest));
+				q.destinationProbs.add(in.getDouble());
+			}
+			if(destinations > 0) {
+				q.buildRoutingTable();
+			}
+		}
+		int seedCount = in.getInt();
+		ArrayList<Long> seeds = new ArrayList<>(seedCount);
+		for(int i=0; i<seedCount; i++) {
+			seeds.add(in.getLong());
+		}
+		int randoms = in.getInt();
+		int arrivals = in.getInt();
+		ArrayList<ScheduleEntry> firstArrivals = new ArrayList<>(arrivals);
+		for(int i=0; i<arrivals; i++) {
+			QueueStructure q = queues.get(in.getInt());
+			firstArrivals.add(ScheduleEntry.newArrival(in.getDouble(), q));
+		}
+		int optionCount = in.getInt();
+		ArrayList<String> options = new ArrayList<>(optionCount);
+		for(int i=0; i<optionCount; i++) {
+			options.add(readString(in));
+		}
+		return new CompiledModel(queues, seeds, randoms, firstArrivals, options);
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(ByteBuffer in) {
+		byte[] bytes = new byte[in.getInt()];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
\ No newline at end of file
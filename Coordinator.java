@@ -0,0 +1,200 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/* Runs the seeds of a simulation on worker processes (see Worker and the "workers" line
+ * of the input file), connected to this process through loopback sockets.
+ * Workers are started by the coordinator or by hand with "java App -worker <port>".
+ * Each worker receives the compiled model (see CompiledModel), then ranges of seeds,
+ * and sends back the report of each seed (see SimulationReport.write) as soon as it's
+ * done. The seeds are handed out in small ranges, so faster workers take more of them.
+ * If a worker's connection is lost, the seeds it hadn't reported yet are handed to the
+ * others. Reports are merged in seed order as they arrive, so the results are the same
+ * as those of the sequential mode, however many workers there are.
+ *
+ * Protocol (big-endian, see DataOutputStream):
+ *   coordinator: int model length, model bytes
+ *   then, until every seed is done:
+ *     coordinator: int index of the first seed, int number of seeds, long seeds
+ *     worker, per seed: int seed index, report
+ *   coordinator: int DONE */
+class Coordinator {
+
+	static final int DONE = -1;
+	//Ranges handed out per worker, on average
+	private static final int RANGES_PER_WORKER = 8;
+
+	private final QueueSim sim;
+	private final int localWorkers;
+	private final int port;
+	private final ArrayList<Long> seeds;
+	private final String[] queueIDs;
+	private final ArrayList<Process> processes = new ArrayList<>();
+
+	//Guarded by this
+	private final ArrayDeque<int[]> pending = new ArrayDeque<>(); //Ranges of seed indexes not handed out, [first, end)
+	private final SimulationReport[] results; //Received and not merged yet
+	private int received;
+	private int connected;
+
+	/* localWorkers: worker processes started by the coordinator.
+	 * port: port listened to on the loopback interface, 0 for any free port. */
+	Coordinator(QueueSim sim, int localWorkers, int port) {
+		this.sim = sim;
+		this.localWorkers = localWorkers;
+		this.port = port;
+		seeds = sim.getSeeds();
+		results = new SimulationReport[seeds.size()];
+		queueIDs = sim.emptyReport().queueIDs;
+	}
+
+	/* Runs every seed on the workers, merging the reports into res. */
+	void run(SimulationReport res) throws IOException, InterruptedException {
+		int range = Math.max(1, seeds.size() / (RANGES_PER_WORKER * Math.max(1, localWorkers)));
+		for(int first=0; first<seeds.size(); first+=range) {
+			pending.add(new int[] {first, Math.min(seeds.size(), first+range)});
+		}
+		ByteArrayOutputStream model = new ByteArrayOutputStream();
+		sim.compile(model);
+		byte[] modelBytes = model.toByteArray();
+
+		try(ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+			Thread acceptor = new Thread(() -> accept(server, modelBytes), "coordinator");
+			acceptor.setDaemon(true);
+			acceptor.start();
+			if(localWorkers == 0) {
+				System.out.printf("Waiting for workers: java App -worker %d\n", server.getLocalPort());
+			}
+			for(int w=0; w<localWorkers; w++) {
+				processes.add(startWorker(server.getLocalPort()));
+			}
+
+			for(int next=0; next<results.length; next++) {
+				SimulationReport r;
+				synchronized(this) {
+					while(results[next] == null) {
+						if(localWorkers > 0 && connected == 0 && !anyAlive()) {
+							throw new IllegalStateException("Every worker stopped before the simulation ended.");
+						}
+						wait(1000);
+					}
+					r = results[next];
+					results[next] = null;
+				}
+				res.sumSimulation(r);
+			}
+		} finally {
+			for(Process p : processes) {
+				p.destroy();
+			}
+		}
+	}
+
+	private Process startWorker(int port) throws IOException {
+		String java = ProcessHandle.current().info().command()
+				.orElse(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		List<String> command = List.of(java, "-cp", System.getProperty("java.class.path"),
+				"App", "-worker", String.valueOf(port));
+		return new ProcessBuilder(command).inheritIO().start();
+	}
+
+	private boolean anyAlive() {
+		for(Process p : processes) {
+			if(p.isAlive()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void accept(ServerSocket server, byte[] model) {
+		try {
+			while(true) {
+				Socket socket = server.accept();
+				Thread handler = new Thread(() -> serve(socket, model), "coordinator " + socket.getPort());
+				handler.setDaemon(true);
+				handler.start();
+			}
+		} catch(IOException e) {
+			//The server socket was closed at the end of the run
+		}
+	}
+
+	/* Hands out ranges of seeds to one worker until every seed is done. */
+	private void serve(Socket socket, byte[] model) {
+		int[] range = null;
+		int done = 0;
+		try(Socket s = socket) {
+			s.setTcpNoDelay(true);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream(), 1 << 16));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream(), 1 << 16));
+			out.writeInt(model.length);
+			out.write(model);
+			out.flush();
+			synchronized(this) {
+				connected++;
+			}
+			while((range = take()) != null) {
+				done = 0;
+				out.writeInt(range[0]);
+				out.writeInt(range[1] - range[0]);
+				for(int i=range[0]; i<range[1]; i++) {
+					out.writeLong(seeds.get(i));
+				}
+				out.flush();
+				for(int i=range[0]; i<range[1]; i++) {
+					int index = in.readInt();
+					if(index != i) {
+						throw new IOException(String.format("Expected the report of seed %d, got %d.", i, index));
+					}
+					SimulationReport r = SimulationReport.read(in, queueIDs);
+					synchronized(this) {
+						results[i] = r;
+						received++;
+						notifyAll();
+					}
+					done++;
+				}
+				range = null;
+			}
+			out.writeInt(DONE);
+			out.flush();
+		} catch(IOException e) {
+			if(range != null) {
+				System.err.printf("Lost worker %s: %s\n", socket.getRemoteSocketAddress(), e);
+			}
+		} finally {
+			synchronized(this) {
+				if(range != null && range[0] + done < range[1]) { //Hand the unfinished seeds to another worker
+					pending.addFirst(new int[] {range[0] + done, range[1]});
+				}
+				connected--;
+				notifyAll();
+			}
+		}
+	}
+
+	/* Next range to hand out, waiting while others might be returned by lost workers.
+	 * Null once every seed is done. */
+	private synchronized int[] take() throws IOException {
+		while(pending.isEmpty() && received < results.length) {
+			try {
+				wait();
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted.", e);
+			}
+		}
+		return pending.poll();
+	}
+}
\ No newline at end of file
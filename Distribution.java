@@ -0,0 +1,118 @@
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/* Distribution of the times between arrivals or of the service times of a queue
+ * (see QueueStructure). Times are drawn by inversion: sample(u) is the inverse of the CDF
+ * at a uniform number u in [0, 1). Every time then uses exactly one random number, as the
+ * uniform times always did, and the antithetic variate 1-u gives a time from the other
+ * end of the distribution.
+ * Implementations: UniformDistribution, ExponentialDistribution, ErlangDistribution,
+ * HyperexponentialDistribution and EmpiricalDistribution. */
+public interface Distribution {
+
+	//Type tags of the binary form, see write
+	int UNIFORM = 0;
+	int EXPONENTIAL = 1;
+	int ERLANG = 2;
+	int HYPEREXPONENTIAL = 3;
+	int EMPIRICAL = 4;
+
+	/* Time for the uniform number u in [0, 1). */
+	double sample(double u);
+
+	/* Time of an event that happens sample(u) after the given time. */
+	default double after(double time, double u) {
+		return time + sample(u);
+	}
+
+	double min();
+
+	//May be infinite
+	double max();
+
+	double mean();
+
+	/* The same distribution with every time multiplied by factor. */
+	Distribution scaled(double factor);
+
+	/* Writes the type tag and the parameters, read back by read (see CompiledModel). */
+	void write(DataOutput out) throws IOException;
+
+	static Distribution read(ByteBuffer in) throws IOException {
+		int type = in.get();
+		switch(type) {
+		case UNIFORM:
+			return new UniformDistribution(in.getDouble(), in.getDouble());
+		case EXPONENTIAL:
+			return new ExponentialDistribution(in.getDouble());
+		case ERLANG:
+			return new ErlangDistribution(in.getInt(), in.getDouble());
+		case HYPEREXPONENTIAL:
+		case EMPIRICAL:
+			double[] values = new double[in.getInt()];
+			for(int i=0; i<values.length; i++) {
+				values[i] = in.getDouble();
+			}
+			if(type == EMPIRICAL) {
+				return new EmpiricalDistribution(values, null);
+			}
+			return HyperexponentialDistribution.fromPairs(values);
+		default:
+			throw new IOException(String.format("Unknown distribution type %d.", type));
+		}
+	}
+
+	/* Parses a distribution as written in the queue lines of the input file, without whitespace:
+	 * <time> (always the same time), uniform(<min>,<max>), exp(<mean>), erlang(<phases>,<mean>),
+	 * hyperexp(<probability>,<mean>[,<probability>,<mean>]*) or empirical(<file>), where the file
+	 * holds measured times, one per line. */
+	static Distribution parse(String spec) throws IOException {
+		int open = spec.indexOf('(');
+		if(open < 0) {
+			double time = Double.parseDouble(spec);
+			return new UniformDistribution(time, time);
+		}
+		if(!spec.endsWith(")")) {
+			throw new IllegalArgumentException(String.format("Missing ) in distribution \"%s\".", spec));
+		}
+		String name = spec.substring(0, open);
+		String args = spec.substring(open+1, spec.length()-1);
+		if(name.equals("empirical")) {
+			return EmpiricalDistribution.load(args);
+		}
+		String[] fields = args.split(",");
+		double[] values = new double[fields.length];
+		for(int i=0; i<fields.length; i++) {
+			values[i] = Double.parseDouble(fields[i]);
+		}
+		switch(name) {
+		case "uniform":
+			requireArguments(name, values, 2);
+			return new UniformDistribution(values[0], values[1]);
+		case "exp":
+			requireArguments(name, values, 1);
+			return new ExponentialDistribution(values[0]);
+		case "erlang":
+			requireArguments(name, values, 2);
+			if(values[0] != Math.rint(values[0])) {
+				throw new IllegalArgumentException("The phases of an Erlang distribution must be a whole number.");
+			}
+			return new ErlangDistribution((int) values[0], values[1]);
+		case "hyperexp":
+			if(values.length % 2 != 0) {
+				throw new IllegalArgumentException("A hyperexponential distribution takes pairs of probability and mean.");
+			}
+			return HyperexponentialDistribution.fromPairs(values);
+		default:
+			throw new IllegalArgumentException(String.format(
+					"Unknown distribution \"%s\". Use uniform, exp, erlang, hyperexp or empirical.", name));
+		}
+	}
+
+	private static void requireArguments(String name, double[] values, int n) {
+		if(values.length != n) {
+			throw new IllegalArgumentException(String.format("Distribution %s takes %d arguments.", name, n));
+		}
+	}
+}
\ No newline at end of file
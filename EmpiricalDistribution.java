@@ -0,0 +1,102 @@
+import java.io.BufferedReader;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/* Times measured on a real system, read from a file. The sorted times are themselves
+ * the table of the inverse CDF: u picks a position between the first and the last one,
+ * interpolating linearly between neighbours, so times between the ones measured are
+ * drawn as well and the distribution ranges from the smallest to the largest. */
+public class EmpiricalDistribution implements Distribution {
+
+	private final double[] times; //Sorted
+	private final String file; //Where the times were read from, null if unknown
+	private final double mean;
+
+	/* times must be sorted. */
+	EmpiricalDistribution(double[] times, String file) {
+		if(times.length == 0) {
+			throw new IllegalArgumentException("An empirical distribution needs at least one time.");
+		}
+		this.times = times;
+		this.file = file;
+		//Mean of the interpolated distribution: every interval between neighbours is equally likely
+		double sum = 0;
+		for(int i=0; i+1<times.length; i++) {
+			sum += (times[i] + times[i+1]) / 2;
+		}
+		mean = times.length > 1 ? sum / (times.length-1) : times[0];
+	}
+
+	/* Reads the times of a file with one time per line. Empty lines and lines starting with # are skipped. */
+	static EmpiricalDistribution load(String file) throws IOException {
+		double[] times = new double[64];
+		int n = 0;
+		try(BufferedReader reader = Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+			String s;
+			while((s = reader.readLine()) != null) {
+				s = s.trim();
+				if(s.isEmpty() || s.charAt(0) == '#') {
+					continue;
+				}
+				double t = Double.parseDouble(s);
+				if(!(t >= 0)) {
+					throw new IllegalArgumentException(String.format("Negative time %s in %s.", s, file));
+				}
+				if(n == times.length) {
+					times = Arrays.copyOf(times, 2*n);
+				}
+				times[n++] = t;
+			}
+		}
+		times = Arrays.copyOf(times, n);
+		Arrays.sort(times);
+		return new EmpiricalDistribution(times, file);
+	}
+
+	public double sample(double u) {
+		double position = u * (times.length-1);
+		int i = (int) position;
+		if(i+1 >= times.length) {
+			return times[times.length-1];
+		}
+		return times[i] + (position - i) * (times[i+1] - times[i]);
+	}
+
+	public double min() {
+		return times[0];
+	}
+
+	public double max() {
+		return times[times.length-1];
+	}
+
+	public double mean() {
+		return mean;
+	}
+
+	public Distribution scaled(double factor) {
+		double[] scaled = new double[times.length];
+		for(int i=0; i<times.length; i++) {
+			scaled[i] = times[i] * factor;
+		}
+		return new EmpiricalDistribution(scaled, null);
+	}
+
+	/* The times themselves are written, so compiled models don't need the file. */
+	public void write(DataOutput out) throws IOException {
+		out.writeByte(EMPIRICAL);
+		out.writeInt(times.length);
+		for(double t : times) {
+			out.writeDouble(t);
+		}
+	}
+
+	public String toString() {
+		return file != null ? String.format("empirical(%s)", file)
+				: String.format("empirical(%d times from %s to %s)", times.length, min(), max());
+	}
+}
\ No newline at end of file
@@ -0,0 +1,87 @@
+import java.io.DataOutput;
+import java.io.IOException;
+
+/* Sum of a number of exponential phases with the same rate: less variable than the
+ * exponential with the same mean, the more so the more phases. Drawn from an
+ * InverseCdfTable, which takes one random number instead of one per phase. */
+public class ErlangDistribution implements Distribution {
+
+	private final int phases;
+	private final double mean;
+	private final double logFactorial; //log(phases!)
+	private final InverseCdfTable table;
+
+	public ErlangDistribution(int phases, double mean) {
+		if(phases < 1) {
+			throw new IllegalArgumentException("An Erlang distribution has at least 1 phase.");
+		}
+		if(!(mean > 0)) {
+			throw new IllegalArgumentException("The mean of an Erlang distribution must be greater than 0.");
+		}
+		this.phases = phases;
+		this.mean = mean;
+		double logFactorial = 0;
+		for(int n=2; n<=phases; n++) {
+			logFactorial += Math.log(n);
+		}
+		this.logFactorial = logFactorial;
+		table = new InverseCdfTable(this::cdf, mean);
+	}
+
+	/* P(N >= phases) for N Poisson with mean rx, where r = phases / mean. The terms
+	 * e^(-rx) (rx)^n / n! are computed from the logarithm of the one at n = phases, since
+	 * e^(-rx) and (rx)^n alone underflow and overflow with many phases. Below the mean
+	 * (rx < phases) the terms from phases up are summed, which keeps the small probabilities
+	 * accurate; above it, 1 minus the terms below phases. Either way the terms shrink
+	 * geometrically away from phases, so the sums stop after a few standard deviations. */
+	private double cdf(double x) {
+		if(x <= 0) {
+			return 0.0;
+		}
+		double rx = phases / mean * x;
+		double term = Math.exp(-rx + phases * Math.log(rx) - logFactorial); //Of n = phases
+		double sum = 0;
+		if(rx < phases) {
+			for(int n=phases+1; term > sum * 1e-17; n++) {
+				sum += term;
+				term *= rx / n;
+			}
+			return Math.min(1.0, sum);
+		}
+		for(int n=phases; n > 0 && term > sum * 1e-17; n--) {
+			term *= n / rx;
+			sum += term;
+		}
+		return Math.max(0.0, 1 - sum);
+	}
+
+	public double sample(double u) {
+		return table.quantile(u);
+	}
+
+	public double min() {
+		return 0.0;
+	}
+
+	public double max() {
+		return Double.POSITIVE_INFINITY;
+	}
+
+	public double mean() {
+		return mean;
+	}
+
+	public Distribution scaled(double factor) {
+		return new ErlangDistribution(phases, mean*factor);
+	}
+
+	public void write(DataOutput out) throws IOException {
+		out.writeByte(ERLANG);
+		out.writeInt(phases);
+		out.writeDouble(mean);
+	}
+
+	public String toString() {
+		return String.format("erlang(%d,%s)", phases, mean);
+	}
+}
\ No newline at end of file
@@ -0,0 +1,58 @@
+import java.util.Arrays;
+
+/* Pending event set used by the simulator.
+ * Events are stored as primitives: the event is the ordinal of an EventEnum and the
+ * origin and destination are queue indices (QueueStructure.index, -1 for none/EXIT).
+ * Implementations must not allocate objects per event and must return events in
+ * order of time, breaking ties by insertion order, so that every run is deterministic. */
+public interface EventCalendar {
+
+	void offer(double time, int event, int origin, int destination);
+
+	/* Removes the earliest event. Its fields can then be read through
+	 * time(), event(), origin() and destination(). */
+	void poll();
+
+	double time();
+	int event();
+	int origin();
+	int destination();
+
+	int size();
+
+	/* Time of the earliest event, without removing it. Infinity if there is none. */
+	double peekTime();
+
+	default boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/* Copies the pending events to the arrays, which must hold size() events, in the order
+	 * they would be polled, without removing them (see Snapshot). */
+	void copyPending(double[] times, int[] events, int[] origins, int[] destinations);
+
+	/* Orders the given positions of the arrays of an implementation by time and insertion
+	 * sequence, the order of poll(), for copyPending. */
+	static Integer[] sortByTime(int[] positions, double[] times, long[] seqs) {
+		Integer[] sorted = new Integer[positions.length];
+		for(int i=0; i<sorted.length; i++) {
+			sorted[i] = positions[i];
+		}
+		Arrays.sort(sorted, (a, b) -> times[a] != times[b] ?
+				Double.compare(times[a], times[b]) : Long.compare(seqs[a], seqs[b]));
+		return sorted;
+	}
+
+	/* Creates a calendar by the name used in the input file ("calendar:" line). */
+	static EventCalendar create(String name) {
+		switch(name) {
+		case "heap":
+			return new HeapCalendar();
+		case "calendarqueue":
+			return new CalendarQueue();
+		default:
+			throw new IllegalArgumentException(String.format(
+					"Unknown event calendar \"%s\". Use heap or calendarqueue.", name));
+		}
+	}
+}
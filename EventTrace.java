@@ -0,0 +1,232 @@
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+/* Binary trace of every event processed by the simulation runs (see the "trace" line
+ * of the input file), read with TraceReader.
+ * Each run writes its events to its own ring buffer (see Ring) and a background thread
+ * copies them to a memory-mapped file, so a run only pays for a few array stores per event.
+ * When a ring is full its run waits for the writer: no event is ever dropped.
+ *
+ * File layout (big-endian):
+ *   int MAGIC, int VERSION, int RECORD_SIZE, int number of queues,
+ *   long number of records, long offset of the first record,
+ *   queue ids (int length followed by UTF-8 bytes), padding up to a multiple of 8,
+ *   records of RECORD_SIZE bytes:
+ *     double time, long seed, int event (EventEnum ordinal), int flags (LOST, MIRROR),
+ *     int origin, int destination (queue indexes, -1 for outside the system),
+ *     int origin size, int destination size (clients after the event, -1 if no queue)
+ * The records of different runs are interleaved, those of one run are in time order. */
+class EventTrace implements AutoCloseable {
+
+	static final int MAGIC = 0x51535452; //"QSTR"
+	static final int VERSION = 1;
+	static final int RECORD_SIZE = 40;
+	static final int HEADER_RECORDS = 16; //Offset of the number of records in the header
+	//Flags of a record
+	static final int LOST = 1; //The client was lost, its destination was full
+	static final int MIRROR = 2; //Event of the antithetic run of the seed
+
+	private static final int LONGS_PER_RECORD = RECORD_SIZE / 8;
+	//Bytes of the file mapped at a time
+	private static final int CHUNK = 64 << 20;
+
+	private final FileChannel channel;
+	private final MappedByteBuffer header;
+	private MappedByteBuffer chunk;
+	private long position; //Offset of the next record in the file
+	private long records;
+	private final int ringCapacity;
+	private final List<Ring> rings = new CopyOnWriteArrayList<>();
+	private final Thread writer;
+	private volatile boolean closing;
+	private volatile IOException failure;
+
+	/* ringCapacity: records buffered per run, rounded up to a power of 2. */
+	EventTrace(String file, List<QueueStructure> qs, int ringCapacity) throws IOException {
+		this.ringCapacity = Integer.highestOneBit(Math.max(ringCapacity, 2) - 1) << 1;
+		channel = FileChannel.open(Paths.get(file), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		byte[][] ids = new byte[qs.size()][];
+		long headerSize = 32;
+		for(int i=0; i<ids.length; i++) {
+			ids[i] = qs.get(i).id.getBytes(StandardCharsets.UTF_8);
+			headerSize += 4 + ids[i].length;
+		}
+		headerSize = (headerSize + 7) & ~7L;
+		if(headerSize > CHUNK) {
+			throw new IOException("Too many queues for the trace header.");
+		}
+		header = channel.map(FileChannel.MapMode.READ_WRITE, 0, headerSize);
+		header.putInt(MAGIC).putInt(VERSION).putInt(RECORD_SIZE).putInt(ids.length);
+		header.putLong(0).putLong(headerSize);
+		for(byte[] id : ids) {
+			header.putInt(id.length).put(id);
+		}
+		position = headerSize;
+		writer = new Thread(this::write, "event trace writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/* New ring buffer for a run, to be passed to release when the run finishes. */
+	Ring ring() {
+		Ring ring = new Ring(ringCapacity);
+		rings.add(ring);
+		return ring;
+	}
+
+	void release(Ring ring) {
+		ring.finished = true;
+	}
+
+	/* Waits for every record to be written, then completes the header and closes the file. */
+	@Override
+	public void close() throws IOException {
+		closing = true;
+		LockSupport.unpark(writer);
+		try {
+			writer.join();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while writing the event trace.", e);
+		}
+		try {
+			if(failure != null) {
+				throw failure;
+			}
+			header.putLong(HEADER_RECORDS, records);
+			header.force();
+			if(chunk != null) {
+				chunk.force();
+			}
+			channel.truncate(position);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/* Background thread: drains the rings until the trace is closed and every ring is empty. */
+	private void write() {
+		while(true) {
+			boolean last = closing; //Read before draining, so nothing offered before close is missed
+			long written = 0;
+			for(Ring ring : rings) {
+				written += drain(ring);
+				if(ring.finished && ring.isEmpty()) {
+					rings.remove(ring);
+				}
+			}
+			if(written == 0) {
+				if(last) {
+					return;
+				}
+				LockSupport.parkNanos(100_000);
+			}
+		}
+	}
+
+	private long drain(Ring ring) {
+		long head = ring.head;
+		long tail = (long) Ring.TAIL.getAcquire(ring);
+		for(long r=head; r<tail; r++) {
+			if(failure == null) {
+				try {
+					put(ring.buffer, (int)(r & ring.mask) * LONGS_PER_RECORD);
+				} catch(IOException e) {
+					//Keep emptying the rings, so that the runs finish, and report the error on close
+					failure = e;
+				}
+			}
+		}
+		Ring.HEAD.setRelease(ring, tail);
+		return tail - head;
+	}
+
+	private void put(long[] buffer, int offset) throws IOException {
+		if(chunk == null || chunk.remaining() < RECORD_SIZE) {
+			chunk = channel.map(FileChannel.MapMode.READ_WRITE, position, CHUNK);
+		}
+		for(int i=0; i<LONGS_PER_RECORD; i++) {
+			chunk.putLong(buffer[offset + i]);
+		}
+		position += RECORD_SIZE;
+		records++;
+	}
+
+	/* Single-producer, single-consumer ring of records, filled by one run and emptied
+	 * by the writer thread. Each record is kept as the five longs written to the file. */
+	static final class Ring {
+		static final VarHandle HEAD;
+		static final VarHandle TAIL;
+		static {
+			try {
+				MethodHandles.Lookup lookup = MethodHandles.lookup();
+				HEAD = lookup.findVarHandle(Ring.class, "head", long.class);
+				TAIL = lookup.findVarHandle(Ring.class, "tail", long.class);
+			} catch(ReflectiveOperationException e) {
+				throw new ExceptionInInitializerError(e);
+			}
+		}
+
+		final long[] buffer;
+		final int mask;
+		volatile long head; //Next record to be written to the file
+		volatile long tail; //Next record to be filled
+		private long cachedHead; //Last head seen by the producer
+		volatile boolean finished;
+
+		private Ring(int capacity) {
+			buffer = new long[capacity * LONGS_PER_RECORD];
+			mask = capacity - 1;
+		}
+
+		boolean isEmpty() {
+			return head == tail;
+		}
+
+		void record(double time, long seed, int event, int flags, int origin, int destination,
+				int originSize, int destinationSize) {
+			long t = tail;
+			if(t - cachedHead > mask) { //Full, as far as the producer knows
+				cachedHead = (long) HEAD.getAcquire(this);
+				while(t - cachedHead > mask) {
+					LockSupport.parkNanos(10_000);
+					cachedHead = (long) HEAD.getAcquire(this);
+				}
+			}
+			int i = (int)(t & mask) * LONGS_PER_RECORD;
+			buffer[i] = Double.doubleToRawLongBits(time);
+			buffer[i+1] = seed;
+			buffer[i+2] = pack(event, flags);
+			buffer[i+3] = pack(origin, destination);
+			buffer[i+4] = pack(originSize, destinationSize);
+			TAIL.setRelease(this, t + 1);
+		}
+
+		private static long pack(int high, int low) {
+			return ((long) high << 32) | (low & 0xFFFFFFFFL);
+		}
+	}
+
+	/* Reads the queue ids of a trace file header. */
+	static String[] readQueueIds(ByteBuffer header) {
+		String[] ids = new String[header.getInt(12)];
+		header.position(32);
+		for(int i=0; i<ids.length; i++) {
+			byte[] bytes = new byte[header.getInt()];
+			header.get(bytes);
+			ids[i] = new String(bytes, StandardCharsets.UTF_8);
+		}
+		return ids;
+	}
+}
\ No newline at end of file
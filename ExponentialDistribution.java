@@ -0,0 +1,44 @@
+import java.io.DataOutput;
+import java.io.IOException;
+
+/* Exponential times (Poisson arrivals, memoryless service), inverted in closed form. */
+public class ExponentialDistribution implements Distribution {
+
+	private final double mean;
+
+	public ExponentialDistribution(double mean) {
+		if(!(mean > 0)) {
+			throw new IllegalArgumentException("The mean of an exponential distribution must be greater than 0.");
+		}
+		this.mean = mean;
+	}
+
+	public double sample(double u) {
+		return -mean * Math.log(1.0 - u);
+	}
+
+	public double min() {
+		return 0.0;
+	}
+
+	public double max() {
+		return Double.POSITIVE_INFINITY;
+	}
+
+	public double mean() {
+		return mean;
+	}
+
+	public Distribution scaled(double factor) {
+		return new ExponentialDistribution(mean*factor);
+	}
+
+	public void write(DataOutput out) throws IOException {
+		out.writeByte(EXPONENTIAL);
+		out.writeDouble(mean);
+	}
+
+	public String toString() {
+		return String.format("exp(%s)", mean);
+	}
+}
\ No newline at end of file
@@ -0,0 +1,518 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/* Derivatives of the results with respect to parameters of the queues (see the "gradient"
+ * line of the input file), estimated from the same runs as the results instead of simulating
+ * the model again with every parameter changed. Two estimators are used:
+ *
+ * Infinitesimal perturbation analysis (IPA), for the bounds of uniform times (arrivalMin,
+ * arrivalMax, serviceMin, serviceMax) and the means of times that aren't exponential. A time
+ * drawn as min + (max-min)*u moves by 1-u when min moves and by u when max does, and a time
+ * of a scaled distribution moves by time/mean when the mean does. Every pending event carries
+ * the derivative of its time: the one of the event that scheduled it plus the one of the time
+ * drawn. The time a queue spends in a state is a difference of event times, so its derivative
+ * is the difference of theirs. IPA has little variance, but it sees the events move, never
+ * change order: a client lost to a full queue stays lost. So it gives no derivative of the
+ * clients lost, and its other derivatives are biased in networks that lose many clients.
+ *
+ * The likelihood ratio (score function) method, for the means of exponential times and for
+ * routing probabilities (from a queue to one destination, the probabilities of its other
+ * destinations going down in proportion). The derivative of a metric is the mean of the
+ * metric times the score of the run, the sum of the derivatives of the log-likelihood of every
+ * time and destination drawn. It is unbiased for every metric, clients lost included, but its
+ * variance grows with the length of the runs, so it needs many short runs (seeds) rather than
+ * a few long ones. The score has mean 0, so the metric is centered on its mean over the other
+ * seeds, which lowers the variance and keeps the estimate unbiased.
+ *
+ * Every run must be simulated by QueueSim's event loop, which calls the Run of its seed.
+ * The CSV has one row per parameter, queue, metric and state, with the columns:
+ * parameter, estimator, queue, metric, state, value, derivative, derivative_hw
+ * where metric is probability (of the state), clients (mean number of clients), throughput
+ * (services completed per time unit) or clients_lost, value is the metric's mean, and
+ * derivative_hw the confidence interval half-width over the seeds. The queue "network" has
+ * the sums of clients and clients_lost over every queue. */
+class GradientEstimator {
+
+	private static final int ARRIVAL = EventEnum.ARRIVAL.ordinal();
+	//Derived metrics of a queue, after the probabilities of its states
+	private static final String[] METRICS = {"clients", "throughput", "clients_lost"};
+	private static final int DERIVED = METRICS.length;
+	private static final int LOST = 2;
+
+	/* A parameter the results are derived with respect to. */
+	static final class Parameter {
+		final String name; //As written in the input file
+		final QueueStructure queue;
+		final String kind; //arrivalMin, ..., serviceMean or routing
+		final int destination; //Index of the destination of a routing probability
+		final double probability;
+		final boolean ipa; //IPA or likelihood ratio
+		final int slot; //Among the parameters of its estimator
+
+		private Parameter(String name, QueueStructure queue, String kind, int destination, double probability,
+				boolean ipa, int slot) {
+			this.name = name;
+			this.queue = queue;
+			this.kind = kind;
+			this.destination = destination;
+			this.probability = probability;
+			this.ipa = ipa;
+			this.slot = slot;
+		}
+
+		boolean ofArrival() {
+			return kind.startsWith("arrival");
+		}
+	}
+
+	/* Outcome of one run. Metrics of queue q: values[q] holds the probability of every state
+	 * and then the DERIVED metrics, ipa[p][q] their derivatives with respect to IPA parameter p. */
+	private static final class Result {
+		double[][] values;
+		double[][][] ipa;
+		double[] score;
+	}
+
+	private final List<QueueStructure> qs;
+	private final ArrayList<Parameter> parameters = new ArrayList<>();
+	private int ipaCount;
+	private int lrCount;
+	//Parameters of the arrivals, services and routing of every queue
+	private final ArrayList<ArrayList<Parameter>> arrivalParameters = new ArrayList<>();
+	private final ArrayList<ArrayList<Parameter>> serviceParameters = new ArrayList<>();
+	private final ArrayList<ArrayList<Parameter>> routingParameters = new ArrayList<>();
+	//Results of the runs of every seed, [0] plain and [1] antithetic
+	private final HashMap<Long, Result[]> results = new HashMap<>();
+
+	/* Syntax of the parameters: all, or <parameter> [, <parameter>]* where a parameter is
+	 * <queue>.<arrivalMin | arrivalMax | arrivalMean | serviceMin | serviceMax | serviceMean>
+	 * or <queue> -> <destination> (S for the exit), a routing probability. "all" takes every
+	 * parameter of every queue: the arrivals of the queues with first arrivals, the services,
+	 * and the routing of the queues with more than one destination. */
+	GradientEstimator(List<QueueStructure> qs, List<ScheduleEntry> firstArrivals, String spec) {
+		this.qs = qs;
+		for(int i=0; i<qs.size(); i++) {
+			arrivalParameters.add(new ArrayList<>());
+			serviceParameters.add(new ArrayList<>());
+			routingParameters.add(new ArrayList<>());
+		}
+		spec = spec.replaceAll("\\s", "");
+		if(spec.equals("all")) {
+			boolean[] external = new boolean[qs.size()];
+			for(ScheduleEntry se : firstArrivals) {
+				external[se.destination.index] = true;
+			}
+			for(QueueStructure q : qs) {
+				if(external[q.index]) {
+					addTimes(q, "arrival", q.arrival);
+				}
+				addTimes(q, "service", q.service);
+				if(q.destinations.size() > 1) {
+					for(QueueStructure d : q.destinations) {
+						add(q.id + "->" + (d == QueueStructure.EXIT ? "S" : d.id));
+					}
+				}
+			}
+		} else {
+			for(String p : spec.split(",")) {
+				add(p);
+			}
+		}
+		if(parameters.isEmpty()) {
+			throw new IllegalArgumentException("No parameter to derive the results with respect to.");
+		}
+	}
+
+	private void addTimes(QueueStructure q, String times, Distribution d) {
+		if(d instanceof UniformDistribution) {
+			add(q.id + "." + times + "Min");
+			add(q.id + "." + times + "Max");
+		}
+		if(d.mean() > 0) {
+			add(q.id + "." + times + "Mean");
+		}
+	}
+
+	private void add(String name) {
+		Parameter p;
+		int arrow = name.indexOf("->");
+		if(arrow >= 0) {
+			QueueStructure q = queue(name.substring(0, arrow));
+			String destName = name.substring(arrow+2);
+			int k = -1;
+			for(int j=0; j<q.destinations.size(); j++) {
+				QueueStructure d = q.destinations.get(j);
+				if(d == QueueStructure.EXIT ? destName.equals("S") || destName.equals("s") : d.id.equals(destName)) {
+					k = j;
+				}
+			}
+			if(k < 0) {
+				throw new IllegalArgumentException(String.format("Queue %s doesn't route to %s.", q.id, destName));
+			}
+			double probability = q.destinationProbs.get(k);
+			if(!(probability > 0 && probability < 1)) {
+				throw new IllegalArgumentException(String.format(
+						"The probability of going from %s to %s must be between 0 and 1, not included.", q.id, destName));
+			}
+			p = new Parameter(name, q, "routing", q.destinations.get(k).index, probability, false, lrCount++);
+			routingParameters.get(q.index).add(p);
+		} else {
+			String[] target = name.split("\\.");
+			if(target.length != 2) {
+				throw new IllegalArgumentException(String.format(
+						"Parameter \"%s\" must be written as <queue>.<parameter> or <queue> -> <destination>.", name));
+			}
+			QueueStructure q = queue(target[0]);
+			String kind = target[1];
+			Distribution d;
+			switch(kind) {
+			case "arrivalMin": case "arrivalMax": case "arrivalMean":
+				d = q.arrival;
+				break;
+			case "serviceMin": case "serviceMax": case "serviceMean":
+				d = q.service;
+				break;
+			default:
+				throw new IllegalArgumentException(String.format("Unknown queue parameter \"%s\".", kind));
+			}
+			if(kind.endsWith("Mean")) {
+				if(!(d.mean() > 0)) {
+					throw new IllegalArgumentException(String.format("Parameter %s needs times with a mean greater than 0.", name));
+				}
+			} else if(!(d instanceof UniformDistribution)) {
+				throw new IllegalArgumentException(String.format("Parameter %s only applies to uniform times.", name));
+			}
+			boolean ipa = !(kind.endsWith("Mean") && d instanceof ExponentialDistribution);
+			p = new Parameter(name, q, kind, -1, 0, ipa, ipa ? ipaCount++ : lrCount++);
+			(p.ofArrival() ? arrivalParameters : serviceParameters).get(q.index).add(p);
+		}
+		parameters.add(p);
+	}
+
+	private QueueStructure queue(String id) {
+		for(QueueStructure q : qs) {
+			if(q.id.equals(id)) {
+				return q;
+			}
+		}
+		throw new IllegalArgumentException(String.format(
+				"Queue \"%s\" does not exist or wasn't previously defined in input file.", id));
+	}
+
+	Run run(long seed, boolean mirror, QueueState[] states) {
+		return new Run(seed, mirror, states);
+	}
+
+	private synchronized void finished(long seed, boolean mirror, Result r) {
+		results.computeIfAbsent(seed, s -> new Result[2])[mirror ? 1 : 0] = r;
+	}
+
+	/* Derivative of a time drawn from d with the uniform number u with respect to an IPA parameter. */
+	private static double derivative(Parameter p, Distribution d, double u) {
+		if(p.kind.endsWith("Min")) {
+			return 1.0 - u;
+		}
+		if(p.kind.endsWith("Max")) {
+			return u;
+		}
+		return d.sample(u) / d.mean();
+	}
+
+	/* Derivative of the log-likelihood of an exponential time x with respect to its mean. */
+	private static double score(Distribution d, double x) {
+		double mean = d.mean();
+		return (x - mean) / (mean*mean);
+	}
+
+	/* Pending services of a queue, with the derivatives of their end times. */
+	private static final class Pending {
+		private final int n;
+		private double[] times = new double[4];
+		private double[] derivatives;
+		private int size;
+
+		Pending(int n) {
+			this.n = n;
+			derivatives = new double[4*n];
+		}
+
+		/* Adds a service ending at time, whose end moves like clock plus shift. */
+		void add(double time, double[] clock, double[] shift) {
+			if(size == times.length) {
+				times = Arrays.copyOf(times, 2*size);
+				derivatives = Arrays.copyOf(derivatives, 2*size*n);
+			}
+			times[size] = time;
+			for(int p=0; p<n; p++) {
+				derivatives[size*n + p] = clock[p] + shift[p];
+			}
+			size++;
+		}
+
+		/* Removes the service ending at time, copying its derivatives to clock. */
+		void take(double time, double[] clock) {
+			for(int k=0; k<size; k++) {
+				if(times[k] == time) {
+					System.arraycopy(derivatives, k*n, clock, 0, n);
+					size--;
+					times[k] = times[size];
+					System.arraycopy(derivatives, size*n, derivatives, k*n, n);
+					return;
+				}
+			}
+			throw new IllegalStateException("No service of the queue ends at " + time);
+		}
+	}
+
+	/* Derivatives of one run, used by the thread running it. */
+	final class Run {
+		private final long seed;
+		private final boolean mirror;
+		private final QueueState[] states;
+		private final int n = ipaCount;
+		private final double[] clock = new double[n]; //Derivatives of the time of the current event
+		private final double[] shift = new double[n]; //Of the time drawn
+		private final double[] lastChange; //Of the last change of state of every queue, [queue*n + p]
+		private final double[] nextArrival; //Of the pending arrival of every queue
+		private final Pending[] services;
+		private final double[][] stateTimes; //[queue][state*n + p]
+		private final long[] completions;
+		private final double[] score = new double[lrCount];
+
+		private Run(long seed, boolean mirror, QueueState[] states) {
+			this.seed = seed;
+			this.mirror = mirror;
+			this.states = states;
+			lastChange = new double[states.length*n];
+			nextArrival = new double[states.length*n];
+			services = new Pending[states.length];
+			stateTimes = new double[states.length][];
+			for(int q=0; q<states.length; q++) {
+				services[q] = new Pending(n);
+				stateTimes[q] = new double[8*n];
+			}
+			completions = new long[states.length];
+		}
+
+		/* An event at the given time is about to change the queues (-1 for outside). */
+		void event(double time, int event, int origin, int destination) {
+			if(n > 0) {
+				if(event == ARRIVAL) {
+					System.arraycopy(nextArrival, destination*n, clock, 0, n);
+				} else {
+					services[origin].take(time, clock);
+				}
+				if(origin >= 0) {
+					change(origin);
+				}
+				if(destination >= 0) {
+					change(destination);
+				}
+			}
+			if(origin >= 0) {
+				completions[origin]++;
+			}
+		}
+
+		/* Adds the derivatives of the time the queue spent in its state since its last change. */
+		private void change(int q) {
+			int b = Math.min(states[q].size(), states[q].stateTimes.getOverflowState());
+			double[] times = stateTimes[q];
+			if((b+1)*n > times.length) {
+				times = stateTimes[q] = Arrays.copyOf(times, Math.max(2*times.length, (b+1)*n));
+			}
+			for(int p=0; p<n; p++) {
+				times[b*n + p] += clock[p] - lastChange[q*n + p];
+				lastChange[q*n + p] = clock[p];
+			}
+		}
+
+		/* The next arrival at the queue was drawn with u, for the given time. */
+		void arrival(int q, double u, double time) {
+			Distribution d = qs.get(q).arrival;
+			System.arraycopy(clock, 0, nextArrival, q*n, n);
+			for(Parameter p : arrivalParameters.get(q)) {
+				if(p.ipa) {
+					nextArrival[q*n + p.slot] += derivative(p, d, u);
+				} else {
+					score[p.slot] += score(d, d.sample(u));
+				}
+			}
+		}
+
+		/* A service drawn with u, ending at the given time, started at the queue, whose client
+		 * then goes to destination. */
+		void service(int q, double u, double time, int destination) {
+			Distribution d = qs.get(q).service;
+			if(n > 0) {
+				Arrays.fill(shift, 0.0);
+			}
+			for(Parameter p : serviceParameters.get(q)) {
+				if(p.ipa) {
+					shift[p.slot] = derivative(p, d, u);
+				} else {
+					score[p.slot] += score(d, d.sample(u));
+				}
+			}
+			if(n > 0) {
+				services[q].add(time, clock, shift);
+			}
+			for(Parameter p : routingParameters.get(q)) {
+				score[p.slot] += destination == p.destination ? 1.0/p.probability : -1.0/(1.0-p.probability);
+			}
+		}
+
+		/* The run ended at the given time, after the last event, and the queues were flushed. */
+		void finish(double time) {
+			for(int q=0; q<states.length; q++) {
+				change(q);
+			}
+			Result r = new Result();
+			r.values = new double[states.length][];
+			r.ipa = new double[n][states.length][];
+			r.score = score;
+			for(int q=0; q<states.length; q++) {
+				StateHistogram h = states[q].stateTimes;
+				int m = h.size();
+				double[] v = r.values[q] = new double[m + DERIVED];
+				for(int s=0; s<m; s++) {
+					v[s] = h.get(s) / time;
+					v[m] += s * v[s];
+				}
+				v[m+1] = completions[q] / time;
+				v[m+2] = states[q].clientsLost;
+				for(int p=0; p<n; p++) {
+					//Derivatives of a ratio of times and of a count over the time
+					double[] d = r.ipa[p][q] = new double[m + DERIVED];
+					for(int s=0; s<m; s++) {
+						double ds = s*n + p < stateTimes[q].length ? stateTimes[q][s*n + p] : 0.0;
+						d[s] = (ds - v[s] * clock[p]) / time;
+						d[m] += s * d[s];
+					}
+					d[m+1] = -v[m+1] * clock[p] / time;
+					d[m+2] = Double.NaN;
+				}
+			}
+			finished(seed, mirror, r);
+		}
+	}
+
+	/* Number of states of queue q over every run. */
+	private int states(int q) {
+		int m = 0;
+		for(Result[] runs : results.values()) {
+			for(Result r : runs) {
+				if(r != null) {
+					m = Math.max(m, r.values[q].length - DERIVED);
+				}
+			}
+		}
+		return m;
+	}
+
+	/* Metric j of queue q (the network for q == qs.size()) in a run, from values or derivatives
+	 * laid out like Result.values (see above). States the run never reached have 0. */
+	private double metric(double[][] values, int q, int j, int states) {
+		if(q == qs.size()) { //Network: clients or clients lost
+			double sum = 0;
+			for(double[] v : values) {
+				sum += v[v.length - DERIVED + (j == 0 ? 0 : LOST)];
+			}
+			return sum;
+		}
+		double[] v = values[q];
+		int m = v.length - DERIVED;
+		if(j < states) {
+			return j < m ? v[j] : 0.0;
+		}
+		return v[m + j - states];
+	}
+
+	/* Writes every derivative to the given file and returns the ones of the network totals,
+	 * one line per parameter, to be printed. The runs of the given seeds must have finished. */
+	String write(List<Long> seeds, String file) throws IOException {
+		ArrayList<Result[]> observations = new ArrayList<>();
+		for(long seed : seeds) {
+			observations.add(results.get(seed));
+		}
+		try(BufferedWriter out = Files.newBufferedWriter(Paths.get(file), StandardCharsets.UTF_8)) {
+			out.write("parameter,estimator,queue,metric,state,value,derivative,derivative_hw\n");
+			for(int q=0; q<=qs.size(); q++) {
+				int states = q < qs.size() ? states(q) : 0;
+				int metrics = q < qs.size() ? states + DERIVED : 2;
+				String name = q < qs.size() ? qs.get(q).id : "network";
+				for(int j=0; j<metrics; j++) {
+					String metric = q < qs.size() ? (j < states ? "probability" : METRICS[j - states])
+							: (j == 0 ? "clients" : "clients_lost");
+					for(Parameter p : parameters) {
+						if(p.ipa && metric.equals("clients_lost")) {
+							continue;
+						}
+						double[] e = estimate(p, q, j, states, observations);
+						out.write(String.format("%s,%s,%s,%s,%s,%s,%s,%s\n", p.name, p.ipa ? "ipa" : "lr", name, metric,
+								j < states ? String.valueOf(j) : "", e[0], e[1], e[2]));
+					}
+				}
+			}
+		}
+		StringBuilder sb = new StringBuilder("Derivatives of the clients in the network and of the clients lost:\n");
+		for(Parameter p : parameters) {
+			double[] clients = estimate(p, qs.size(), 0, 0, observations);
+			sb.append(String.format("d/d %s (%s): %.5g +- %.5g", p.name, p.ipa ? "ipa" : "lr", clients[1], clients[2]));
+			if(p.ipa) {
+				sb.append(", clients lost: n/a\n");
+			} else {
+				double[] lost = estimate(p, qs.size(), 1, 0, observations);
+				sb.append(String.format(", clients lost: %.5g +- %.5g\n", lost[1], lost[2]));
+			}
+		}
+		sb.append(String.format("(+- : half-width of the %.0f%% confidence interval over %d seeds; all derivatives written to %s)",
+				100*SimulationReport.CONFIDENCE, observations.size(), file));
+		return sb.toString();
+	}
+
+	/* Mean of metric j of queue q over the runs, and the derivative with respect to p and its
+	 * half-width over the seeds. */
+	private double[] estimate(Parameter p, int q, int j, int states, List<Result[]> observations) {
+		//Sum of the metric over the runs of each seed
+		double[] sums = new double[observations.size()];
+		double total = 0;
+		int runs = 0;
+		for(int o=0; o<observations.size(); o++) {
+			for(Result r : observations.get(o)) {
+				if(r != null) {
+					sums[o] += metric(r.values, q, j, states);
+					runs++;
+				}
+			}
+			total += sums[o];
+		}
+		RunningStat stat = new RunningStat();
+		for(int o=0; o<observations.size(); o++) {
+			Result[] pair = observations.get(o);
+			int k = pair[1] != null ? 2 : 1;
+			//Mean of the metric over the other seeds, independent of this seed's score
+			double center = runs > k ? (total - sums[o]) / (runs - k) : 0.0;
+			double sum = 0;
+			for(Result r : pair) {
+				if(r == null) {
+					continue;
+				}
+				if(p.ipa) {
+					sum += metric(r.ipa[p.slot], q, j, states);
+				} else {
+					sum += (metric(r.values, q, j, states) - center) * r.score[p.slot];
+				}
+			}
+			stat.add(sum / k);
+		}
+		return new double[] {total / runs, stat.mean(), stat.halfWidth(SimulationReport.CONFIDENCE)};
+	}
+}
\ No newline at end of file
@@ -0,0 +1,164 @@
+import java.util.Arrays;
+
+/* Event calendar implemented as a 4-ary heap over parallel primitive arrays.
+ * A 4-ary heap is shallower than a binary one and its children are adjacent in memory,
+ * which makes poll() cheaper for the event populations usually found in queue networks. */
+public class HeapCalendar implements EventCalendar {
+
+	private double[] times;
+	private long[] seqs; //Insertion sequence, used to break ties
+	private int[] events;
+	private int[] origins;
+	private int[] destinations;
+	private int size;
+	private long nextSeq;
+
+	//Fields of the last polled event
+	private double lastTime;
+	private int lastEvent;
+	private int lastOrigin;
+	private int lastDestination;
+
+	public HeapCalendar() {
+		this(64);
+	}
+
+	public HeapCalendar(int initialCapacity) {
+		initialCapacity = Math.max(initialCapacity, 4);
+		times = new double[initialCapacity];
+		seqs = new long[initialCapacity];
+		events = new int[initialCapacity];
+		origins = new int[initialCapacity];
+		destinations = new int[initialCapacity];
+	}
+
+	public void offer(double time, int event, int origin, int destination) {
+		if(size == times.length) {
+			grow();
+		}
+		siftUp(size++, time, nextSeq++, event, origin, destination);
+	}
+
+	public void poll() {
+		if(size == 0) {
+			throw new IllegalStateException("Event calendar is empty.");
+		}
+		lastTime = times[0];
+		lastEvent = events[0];
+		lastOrigin = origins[0];
+		lastDestination = destinations[0];
+		size--;
+		if(size > 0) {
+			siftDown(0, times[size], seqs[size], events[size], origins[size], destinations[size]);
+		}
+	}
+
+	public double time() {
+		return lastTime;
+	}
+
+	public int event() {
+		return lastEvent;
+	}
+
+	public int origin() {
+		return lastOrigin;
+	}
+
+	public int destination() {
+		return lastDestination;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public double peekTime() {
+		return size > 0 ? times[0] : Double.POSITIVE_INFINITY;
+	}
+
+	public void copyPending(double[] times, int[] events, int[] origins, int[] destinations) {
+		int[] positions = new int[size];
+		for(int i=0; i<size; i++) {
+			positions[i] = i;
+		}
+		Integer[] sorted = EventCalendar.sortByTime(positions, this.times, seqs);
+		for(int i=0; i<size; i++) {
+			int k = sorted[i];
+			times[i] = this.times[k];
+			events[i] = this.events[k];
+			origins[i] = this.origins[k];
+			destinations[i] = this.destinations[k];
+		}
+	}
+
+	/* Moves the hole at position k up until the given event can be placed there. */
+	private void siftUp(int k, double time, long seq, int event, int origin, int destination) {
+		while(k > 0) {
+			int parent = (k-1) >>> 2;
+			if(!before(time, seq, parent)) {
+				break;
+			}
+			move(parent, k);
+			k = parent;
+		}
+		set(k, time, seq, event, origin, destination);
+	}
+
+	/* Moves the hole at position k down until the given event can be placed there. */
+	private void siftDown(int k, double time, long seq, int event, int origin, int destination) {
+		while(true) {
+			int child = (k << 2) + 1;
+			if(child >= size) {
+				break;
+			}
+			//Find the earliest of the (up to) four children
+			int last = Math.min(child + 4, size);
+			int min = child;
+			for(int c = child+1; c < last; c++) {
+				if(before(times[c], seqs[c], min)) {
+					min = c;
+				}
+			}
+			if(!before(times[min], seqs[min], time, seq)) {
+				break;
+			}
+			move(min, k);
+			k = min;
+		}
+		set(k, time, seq, event, origin, destination);
+	}
+
+	private boolean before(double time, long seq, int i) {
+		return before(time, seq, times[i], seqs[i]);
+	}
+
+	private static boolean before(double time1, long seq1, double time2, long seq2) {
+		return time1 < time2 || (time1 == time2 && seq1 < seq2);
+	}
+
+	private void move(int from, int to) {
+		times[to] = times[from];
+		seqs[to] = seqs[from];
+		events[to] = events[from];
+		origins[to] = origins[from];
+		destinations[to] = destinations[from];
+	}
+
+	private void set(int i, double time, long seq, int event, int origin, int destination) {
+		times[i] = time;
+		seqs[i] = seq;
+		events[i] = event;
+		origins[i] = origin;
+		destinations[i] = destination;
+	}
+
+	private void grow() {
+		int capacity = times.length*2;
+		times = Arrays.copyOf(times, capacity);
+		seqs = Arrays.copyOf(seqs, capacity);
+		events = Arrays.copyOf(events, capacity);
+		origins = Arrays.copyOf(origins, capacity);
+		destinations = Arrays.copyOf(destinations, capacity);
+	}
+}
@@ -0,0 +1,100 @@
+import java.io.DataOutput;
+import java.io.IOException;
+
+/* Exponential times whose mean is chosen at random among a few, each with its own
+ * probability: more variable than the exponential with the same mean, as traffic made of
+ * short and long requests. Drawn from an InverseCdfTable, with one random number instead
+ * of one for the choice and one for the time. */
+public class HyperexponentialDistribution implements Distribution {
+
+	//Largest difference from 1 accepted for the sum of the probabilities
+	private static final double PROBABILITY_TOLERANCE = 1e-9;
+
+	private final double[] probabilities;
+	private final double[] means;
+	private final double mean;
+	private final InverseCdfTable table;
+
+	public HyperexponentialDistribution(double[] probabilities, double[] means) {
+		if(probabilities.length == 0 || probabilities.length != means.length) {
+			throw new IllegalArgumentException("A hyperexponential distribution needs a mean for each probability.");
+		}
+		double sum = 0, mean = 0;
+		for(int i=0; i<means.length; i++) {
+			if(!(probabilities[i] >= 0) || !(means[i] > 0)) {
+				throw new IllegalArgumentException(
+						"Hyperexponential probabilities can't be negative and means must be greater than 0.");
+			}
+			sum += probabilities[i];
+			mean += probabilities[i] * means[i];
+		}
+		if(Math.abs(sum - 1.0) > PROBABILITY_TOLERANCE) {
+			throw new IllegalArgumentException("The probabilities of a hyperexponential distribution must sum to 1.");
+		}
+		this.probabilities = probabilities;
+		this.means = means;
+		this.mean = mean;
+		table = new InverseCdfTable(this::cdf, mean);
+	}
+
+	/* From probability, mean pairs, as written in the input file. */
+	static HyperexponentialDistribution fromPairs(double[] pairs) {
+		double[] probabilities = new double[pairs.length/2];
+		double[] means = new double[pairs.length/2];
+		for(int i=0; i<means.length; i++) {
+			probabilities[i] = pairs[2*i];
+			means[i] = pairs[2*i+1];
+		}
+		return new HyperexponentialDistribution(probabilities, means);
+	}
+
+	private double cdf(double x) {
+		double survival = 0;
+		for(int i=0; i<means.length; i++) {
+			survival += probabilities[i] * Math.exp(-x / means[i]);
+		}
+		return 1 - survival;
+	}
+
+	public double sample(double u) {
+		return table.quantile(u);
+	}
+
+	public double min() {
+		return 0.0;
+	}
+
+	public double max() {
+		return Double.POSITIVE_INFINITY;
+	}
+
+	public double mean() {
+		return mean;
+	}
+
+	public Distribution scaled(double factor) {
+		double[] scaled = new double[means.length];
+		for(int i=0; i<means.length; i++) {
+			scaled[i] = means[i] * factor;
+		}
+		return new HyperexponentialDistribution(probabilities, scaled);
+	}
+
+	/* Written as the pairs of the input file, see Distribution.read. */
+	public void write(DataOutput out) throws IOException {
+		out.writeByte(HYPEREXPONENTIAL);
+		out.writeInt(2*means.length);
+		for(int i=0; i<means.length; i++) {
+			out.writeDouble(probabilities[i]);
+			out.writeDouble(means[i]);
+		}
+	}
+
+	public String toString() {
+		StringBuilder sb = new StringBuilder("hyperexp(");
+		for(int i=0; i<means.length; i++) {
+			sb.append(i > 0 ? "," : "").append(probabilities[i]).append(',').append(means[i]);
+		}
+		return sb.append(')').toString();
+	}
+}
\ No newline at end of file
@@ -0,0 +1,82 @@
+import java.util.function.DoubleUnaryOperator;
+
+/* Inverse of the CDF of a continuous distribution of times (x >= 0) that has no closed
+ * form, tabulated once so that drawing a time costs a comparison, a multiplication and
+ * a linear interpolation between two entries.
+ * The inverse grows steeply as u approaches 1 (the tail), where equally spaced entries
+ * would interpolate badly. The table is therefore split into levels: level 0 covers
+ * u in [0, 1-1/BASE), level k covers [1-BASE^-k, 1-BASE^-(k+1)), each with POINTS equal
+ * cells, so each level sees as much of the tail as the one before. The few numbers beyond
+ * the last level (about one in 2^24) are inverted exactly by bisection, and so are those in
+ * the first cell, whose entries are 0 and the 1/POINTS quantile: a narrow distribution far
+ * from 0 (an Erlang with many phases) would otherwise draw spread out times between them. */
+final class InverseCdfTable {
+
+	private static final int BASE = 64;
+	private static final int LEVELS = 4;
+	private static final int POINTS = 512;
+
+	private final DoubleUnaryOperator cdf;
+	private final double scale; //Typical time, where the searches start
+	private final double[][] quantiles = new double[LEVELS][POINTS+1];
+	//Start of each level and POINTS divided by its width
+	private final double[] start = new double[LEVELS];
+	private final double[] cellsPerUnit = new double[LEVELS];
+	private final double end; //End of the last level
+
+	InverseCdfTable(DoubleUnaryOperator cdf, double scale) {
+		this.cdf = cdf;
+		this.scale = scale;
+		double levelStart = 0, tail = 1;
+		for(int k=0; k<LEVELS; k++) {
+			double next = tail / BASE;
+			double width = tail - next;
+			start[k] = levelStart;
+			cellsPerUnit[k] = POINTS / width;
+			for(int i=0; i<=POINTS; i++) {
+				quantiles[k][i] = invert(levelStart + width * i / POINTS);
+			}
+			tail = next;
+			levelStart = 1 - tail;
+		}
+		end = levelStart;
+	}
+
+	double quantile(double u) {
+		int k = 0;
+		if(u >= end || u < 1.0 / POINTS) {
+			return invert(u);
+		}
+		while(k < LEVELS-1 && u >= start[k+1]) {
+			k++;
+		}
+		double position = (u - start[k]) * cellsPerUnit[k];
+		int i = Math.min((int) position, POINTS-1);
+		double[] q = quantiles[k];
+		return q[i] + (position - i) * (q[i+1] - q[i]);
+	}
+
+	/* Smallest x with cdf(x) >= u, by bisection. */
+	private double invert(double u) {
+		if(u <= 0) {
+			return 0.0;
+		}
+		double low = 0, high = scale;
+		while(cdf.applyAsDouble(high) < u && high < Double.MAX_VALUE) {
+			low = high;
+			high *= 2;
+		}
+		for(int i=0; i<200; i++) {
+			double middle = (low + high) / 2;
+			if(middle <= low || middle >= high) {
+				break;
+			}
+			if(cdf.applyAsDouble(middle) < u) {
+				low = middle;
+			} else {
+				high = middle;
+			}
+		}
+		return high;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,176 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/* Counts of durations (waiting and response times of clients) in logarithmic buckets,
+ * in the manner of HdrHistogram: each power of 2 is split into SUB_BUCKETS buckets of
+ * equal width, so any value is known to within 1/SUB_BUCKETS of itself however large it is.
+ * The buckets of a power of 2 are only allocated once a value falls in it, and recording
+ * a value allocates nothing after that. Durations below MIN_VALUE (including the common 0
+ * wait) share one bucket and are reported as 0.
+ * Histograms of different runs are merged by summing their counts (see merge). */
+public class LatencyHistogram {
+
+	private static final int SUB_BITS = 7;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	private static final int MIN_EXPONENT = -20;
+	public static final double MIN_VALUE = Math.scalb(1.0, MIN_EXPONENT);
+
+	//counts[e][s]: values in [2^(e+MIN_EXPONENT) * (1 + s/SUB_BUCKETS), ...) of width 2^(e+MIN_EXPONENT)/SUB_BUCKETS
+	private long[][] counts = new long[0][];
+	private long belowMin; //Values below MIN_VALUE
+	private long count;
+	private double sum;
+	private double max;
+
+	public void record(double value) {
+		count++;
+		sum += value;
+		if(value > max) {
+			max = value;
+		}
+		if(value < MIN_VALUE) {
+			belowMin++;
+			return;
+		}
+		long bits = Double.doubleToRawLongBits(value);
+		int e = (int)(bits >>> 52) - 1023 - MIN_EXPONENT;
+		if(e >= counts.length) {
+			counts = Arrays.copyOf(counts, e+1);
+		}
+		if(counts[e] == null) {
+			counts[e] = new long[SUB_BUCKETS];
+		}
+		counts[e][(int)(bits >>> (52 - SUB_BITS)) & (SUB_BUCKETS-1)]++;
+	}
+
+	public long count() {
+		return count;
+	}
+
+	public double mean() {
+		return count > 0 ? sum / count : 0.0;
+	}
+
+	public double max() {
+		return max;
+	}
+
+	/* Smallest value such that a fraction p of the values recorded are at most it,
+	 * up to the width of its bucket: the upper end of the bucket is returned (or the
+	 * largest value recorded, if smaller), as HdrHistogram does. */
+	public double percentile(double p) {
+		if(count == 0) {
+			return 0.0;
+		}
+		long rank = Math.max(1, (long)Math.ceil(p * count));
+		long seen = belowMin;
+		if(seen >= rank) {
+			return 0.0;
+		}
+		for(int e=0; e<counts.length; e++) {
+			if(counts[e] == null) {
+				continue;
+			}
+			for(int s=0; s<SUB_BUCKETS; s++) {
+				seen += counts[e][s];
+				if(seen >= rank) {
+					double upper = Math.scalb(1.0 + (s+1) / (double)SUB_BUCKETS, e + MIN_EXPONENT);
+					return Math.min(upper, max);
+				}
+			}
+		}
+		return max;
+	}
+
+	/* Sums the counts of the second histogram on this one. */
+	public void merge(LatencyHistogram h) {
+		if(h.counts.length > counts.length) {
+			counts = Arrays.copyOf(counts, h.counts.length);
+		}
+		for(int e=0; e<h.counts.length; e++) {
+			if(h.counts[e] == null) {
+				continue;
+			}
+			if(counts[e] == null) {
+				counts[e] = h.counts[e].clone();
+			} else {
+				for(int s=0; s<SUB_BUCKETS; s++) {
+					counts[e][s] += h.counts[e][s];
+				}
+			}
+		}
+		belowMin += h.belowMin;
+		count += h.count;
+		sum += h.sum;
+		max = Math.max(max, h.max);
+	}
+
+	/* Sets every count to 0, keeping the buckets. */
+	public void clear() {
+		for(long[] c : counts) {
+			if(c != null) {
+				Arrays.fill(c, 0);
+			}
+		}
+		belowMin = 0;
+		count = 0;
+		sum = 0;
+		max = 0;
+	}
+
+	public LatencyHistogram copy() {
+		LatencyHistogram h = new LatencyHistogram();
+		h.merge(this);
+		return h;
+	}
+
+	/* Writes the totals and the buckets with a count, as (index, count) pairs. */
+	public void write(DataOutput out) throws IOException {
+		out.writeLong(count);
+		out.writeDouble(sum);
+		out.writeDouble(max);
+		out.writeLong(belowMin);
+		int used = 0;
+		for(long[] c : counts) {
+			if(c != null) {
+				for(long n : c) {
+					used += n != 0 ? 1 : 0;
+				}
+			}
+		}
+		out.writeInt(used);
+		for(int e=0; e<counts.length; e++) {
+			if(counts[e] != null) {
+				for(int s=0; s<SUB_BUCKETS; s++) {
+					if(counts[e][s] != 0) {
+						out.writeInt(e*SUB_BUCKETS + s);
+						out.writeLong(counts[e][s]);
+					}
+				}
+			}
+		}
+	}
+
+	public static LatencyHistogram read(DataInput in) throws IOException {
+		LatencyHistogram h = new LatencyHistogram();
+		h.count = in.readLong();
+		h.sum = in.readDouble();
+		h.max = in.readDouble();
+		h.belowMin = in.readLong();
+		int used = in.readInt();
+		for(int i=0; i<used; i++) {
+			int index = in.readInt();
+			int e = index / SUB_BUCKETS;
+			if(e >= h.counts.length) {
+				h.counts = Arrays.copyOf(h.counts, e+1);
+			}
+			if(h.counts[e] == null) {
+				h.counts[e] = new long[SUB_BUCKETS];
+			}
+			h.counts[e][index % SUB_BUCKETS] = in.readLong();
+		}
+		return h;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,53 @@
+/* 48 bit linear congruential generator, the simulator's original generator.
+ * Parameters based on java implementation according to wikipedia. */
+public class Lcg48 implements RandomSource {
+	private static final long A = 25214903917L;
+	private static final long C = 11L;
+	private static final long M = 1L<<48;
+	private static final long MASK = M-1;
+	//Numbers per stream(k): the period is split into 2^16 streams of 2^32 numbers
+	private static final long STREAM_LENGTH = 1L<<32;
+
+	private long x;
+
+	public Lcg48(long seed) {
+		x = seed;
+	}
+
+	public double nextDouble() {
+		//Same as Long.remainderUnsigned(A*x+C, M), since M is a power of two
+		x = (A*x+C) & MASK;
+		return x/(double)M;
+	}
+
+	public RandomSource stream(int k) {
+		Lcg48 s = new Lcg48(x);
+		s.jump(k * STREAM_LENGTH);
+		return s;
+	}
+
+	public long[] getState() {
+		return new long[] {x};
+	}
+
+	public void setState(long[] state) {
+		x = state[0];
+	}
+
+	/* Advances the generator by n steps in O(log n), by composing the affine step
+	 * x -> A*x+C with itself (Brown, "Random number generation with arbitrary strides"). */
+	public void jump(long n) {
+		long a = A, c = C;
+		long accA = 1, accC = 0;
+		while(n > 0) {
+			if((n & 1) != 0) {
+				accA = (accA*a) & MASK;
+				accC = (accC*a + c) & MASK;
+			}
+			c = ((a+1)*c) & MASK;
+			a = (a*a) & MASK;
+			n >>>= 1;
+		}
+		x = (accA*x + accC) & MASK;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,4 @@
+/* Enum defining the metrics of a SimulationReport that can be used as precision targets. */
+enum MetricEnum {
+    PROBABILITY, CLIENTS_LOST, TIME
+}
\ No newline at end of file
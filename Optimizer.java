@@ -0,0 +1,347 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/* Finds the cheapest configuration of the sweep ("vary:" lines) that meets every constraint
+ * (see the "optimize" line of the input file), simulating as few replications as it can.
+ * The cost of a configuration is a weighted sum of the servers and capacities of its queues,
+ * known without simulating it; the constraints are upper limits on the clients lost per time
+ * unit or on the mean number of clients of queues, which only simulation estimates.
+ *
+ * Candidates are taken in increasing order of cost, ACTIVE at a time, and simulated in
+ * rounds: every candidate gets its first replications, and after each round its constraints
+ * are checked with confidence intervals, Bonferroni-corrected for all the candidates and
+ * constraints (with the exact t quantile, see RunningStat.tQuantile, since the corrected
+ * levels are far in the tail). The correction doesn't cover the checks being repeated after
+ * every round, each a new chance for an interval to miss, so the search as a whole errs
+ * somewhat more often than the confidence level of the reports. A candidate is eliminated as
+ * soon as some constraint is surely violated (the interval is entirely above the limit), and
+ * it is feasible once every constraint is surely met. The first feasible candidate found is
+ * cheaper than every candidate not started yet, so these are never simulated, and the ones in
+ * progress that cost as much or more are dropped too (KN-style elimination, with feasibility
+ * instead of a mean to compare). Candidates still undecided get more replications, as many as
+ * their intervals seem to need to move off the limit (the variance over the squared distance
+ * to the limit, as OCBA allocates), at most doubling each round, so close contenders get the
+ * replications and clear cases few. A candidate that reaches the maximum replications
+ * undecided is left as such, and reported.
+ *
+ * Every candidate uses the same seeds (those of the input file, then QueueSim.seedFor), so
+ * their comparison has common random numbers, and the replications of a round run on the
+ * pool of threads. Decisions only depend on the results, so they don't depend on the number
+ * of threads. */
+class Optimizer {
+
+	//Candidates simulated at the same time
+	private static final int ACTIVE = 8;
+	//First replications of a candidate, at least
+	private static final int FIRST_REPLICATIONS = 5;
+
+	private enum Status {
+		UNDECIDED, FEASIBLE, INFEASIBLE, DOMINATED, NOT_SIMULATED
+	}
+
+	/* A limit on a metric of a queue: lost (clients lost per time unit) or clients (mean number of clients). */
+	private static final class Constraint {
+		final String text;
+		final int queue;
+		final boolean lost;
+		final double limit;
+
+		Constraint(String text, int queue, boolean lost, double limit) {
+			this.text = text;
+			this.queue = queue;
+			this.lost = lost;
+			this.limit = limit;
+		}
+
+		double value(SimulationReport r) {
+			if(lost) {
+				return r.clientsLost[queue] / r.totalSimulationTime;
+			}
+			StateHistogram h = r.stateTimes[queue];
+			double sum = 0;
+			for(int s=0; s<h.size(); s++) {
+				sum += s * h.get(s);
+			}
+			return sum / r.totalSimulationTime;
+		}
+	}
+
+	private final class Candidate {
+		final int number;
+		final double[] values;
+		final QueueSim sim;
+		final double cost;
+		final RunningStat[] stats = new RunningStat[constraints.size()];
+		int replications; //Run so far
+		int target; //Replications to have by the end of the round
+		Status status = Status.NOT_SIMULATED;
+
+		Candidate(int number) {
+			this.number = number;
+			values = new double[dimensions.size()];
+			sim = ParameterSweep.configuration(base, dimensions, number, values);
+			cost = cost(sim);
+			for(int k=0; k<stats.length; k++) {
+				stats[k] = new RunningStat();
+			}
+		}
+	}
+
+	private final QueueSim base;
+	private final ArrayList<ParameterSweep.Dimension> dimensions;
+	private final String costText;
+	private final double[] serverCosts; //Per queue
+	private final double[] capacityCosts;
+	private final ArrayList<Constraint> constraints = new ArrayList<>();
+	private final int maxReplications;
+
+	/* Syntax: <cost> / <constraint> [, <constraint>]* [/ <replications>]
+	 * where cost is <term> [+ <term>]*, a term being [<weight> *] <queue>.<servers | capacity>,
+	 * a constraint is <queue>.<lost | clients> <= <limit>, and replications is the maximum number
+	 * of replications of a candidate (100 by default). */
+	Optimizer(QueueSim base, ArrayList<ParameterSweep.Dimension> dimensions, String spec) {
+		this.base = base;
+		this.dimensions = dimensions;
+		String[] params = spec.replaceAll("\\s", "").split("/");
+		if(params.length < 2 || params.length > 3) {
+			throw new IllegalArgumentException(
+					"Optimization must be written as <cost> / <constraints> [/ <replications>].");
+		}
+		ArrayList<QueueStructure> qs = base.getQueues();
+		costText = params[0];
+		serverCosts = new double[qs.size()];
+		capacityCosts = new double[qs.size()];
+		for(String term : params[0].split("\\+")) {
+			String[] factors = term.split("\\*");
+			double weight = factors.length > 1 ? Double.parseDouble(factors[0]) : 1;
+			String[] target = factors[factors.length-1].split("\\.");
+			if(target.length != 2 || weight < 0) {
+				throw new IllegalArgumentException(String.format(
+						"Cost term \"%s\" must be written as [<weight> *] <queue>.<servers | capacity>, with a weight of at least 0.", term));
+			}
+			int q = queue(qs, target[0]);
+			if(target[1].equals("servers")) {
+				serverCosts[q] += weight;
+			} else if(target[1].equals("capacity")) {
+				capacityCosts[q] += weight;
+			} else {
+				throw new IllegalArgumentException(String.format("The cost can't depend on %s, only on servers and capacity.", target[1]));
+			}
+		}
+		for(String c : params[1].split(",")) {
+			String[] sides = c.split("<=");
+			String[] target = sides[0].split("\\.");
+			if(sides.length != 2 || target.length != 2 || !(target[1].equals("lost") || target[1].equals("clients"))) {
+				throw new IllegalArgumentException(String.format(
+						"Constraint \"%s\" must be written as <queue>.<lost | clients> <= <limit>.", c));
+			}
+			constraints.add(new Constraint(c, queue(qs, target[0]), target[1].equals("lost"), Double.parseDouble(sides[1])));
+		}
+		maxReplications = params.length > 2 ? Integer.parseInt(params[2]) : 100;
+		if(maxReplications < FIRST_REPLICATIONS) {
+			throw new IllegalArgumentException(String.format(
+					"The maximum replications of a candidate must be at least %d.", FIRST_REPLICATIONS));
+		}
+	}
+
+	private static int queue(ArrayList<QueueStructure> qs, String id) {
+		for(QueueStructure q : qs) {
+			if(q.id.equals(id)) {
+				return q.index;
+			}
+		}
+		throw new IllegalArgumentException(String.format(
+				"Queue \"%s\" does not exist or wasn't previously defined in input file.", id));
+	}
+
+	private double cost(QueueSim sim) {
+		double cost = 0;
+		for(QueueStructure q : sim.getQueues()) {
+			//Weights of 0 leave infinite capacities out of the cost
+			if(serverCosts[q.index] > 0) {
+				cost += serverCosts[q.index] * q.servers;
+			}
+			if(capacityCosts[q.index] > 0) {
+				cost += capacityCosts[q.index] * (q.capacity == Integer.MAX_VALUE ? Double.POSITIVE_INFINITY : q.capacity);
+			}
+		}
+		return cost;
+	}
+
+	void run() throws InterruptedException, ExecutionException {
+		int configurations = ParameterSweep.configurations(dimensions);
+		ArrayList<Candidate> candidates = new ArrayList<>();
+		for(int c=0; c<configurations; c++) {
+			candidates.add(new Candidate(c));
+		}
+		//Stable sort: equal costs keep the order of the sweep
+		ArrayList<Candidate> byCost = new ArrayList<>(candidates);
+		byCost.sort(Comparator.comparingDouble(c -> c.cost));
+		//Every interval of one round holds at once with the confidence of the reports
+		double confidence = 1 - (1 - SimulationReport.CONFIDENCE) / ((double) configurations * constraints.size());
+		int first = Math.min(maxReplications, Math.max(FIRST_REPLICATIONS, base.getSeeds().size()));
+
+		ExecutorService pool = Executors.newFixedThreadPool(base.getThreads());
+		Candidate best = null;
+		int next = 0; //Next candidate by cost to start
+		int rounds = 0;
+		long replications = 0;
+		try {
+			ArrayList<Candidate> active = new ArrayList<>();
+			while(true) {
+				while(active.size() < ACTIVE && next < byCost.size() && (best == null || byCost.get(next).cost < best.cost)) {
+					Candidate c = byCost.get(next++);
+					c.status = Status.UNDECIDED;
+					c.target = first;
+					active.add(c);
+				}
+				if(active.isEmpty()) {
+					break;
+				}
+				replications += simulate(pool, active);
+				rounds++;
+				for(Candidate c : active) {
+					decide(c, confidence);
+					if(c.status == Status.FEASIBLE && (best == null || c.cost < best.cost)) {
+						best = c;
+					}
+				}
+				ArrayList<Candidate> still = new ArrayList<>();
+				for(Candidate c : active) {
+					if(c.status == Status.UNDECIDED && best != null && c.cost >= best.cost) {
+						c.status = Status.DOMINATED;
+					}
+					if(c.status == Status.UNDECIDED && c.replications < maxReplications) {
+						c.target = allocate(c, confidence);
+						still.add(c);
+					}
+				}
+				active = still;
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		print(candidates, best, rounds, replications);
+	}
+
+	/* Runs the replications every candidate lacks to reach its target. Results are merged in seed
+	 * order. Returns the number of replications run. */
+	private int simulate(ExecutorService pool, ArrayList<Candidate> active) throws InterruptedException, ExecutionException {
+		ArrayList<ArrayList<Future<SimulationReport>>> runs = new ArrayList<>();
+		int n = 0;
+		for(Candidate c : active) {
+			ArrayList<Future<SimulationReport>> own = new ArrayList<>();
+			for(int i=c.replications; i<c.target; i++) {
+				long seed = base.seedFor(i);
+				own.add(pool.submit(() -> c.sim.runReplication(seed)));
+				n++;
+			}
+			runs.add(own);
+		}
+		for(int k=0; k<active.size(); k++) {
+			Candidate c = active.get(k);
+			for(Future<SimulationReport> f : runs.get(k)) {
+				SimulationReport r = f.get();
+				for(int j=0; j<constraints.size(); j++) {
+					c.stats[j].add(constraints.get(j).value(r));
+				}
+				c.replications++;
+			}
+		}
+		return n;
+	}
+
+	private void decide(Candidate c, double confidence) {
+		boolean met = true;
+		for(int j=0; j<constraints.size(); j++) {
+			RunningStat s = c.stats[j];
+			double limit = constraints.get(j).limit;
+			double hw = s.halfWidth(confidence);
+			if(s.mean() - hw > limit) {
+				c.status = Status.INFEASIBLE;
+				return;
+			}
+			if(!(s.mean() + hw <= limit)) {
+				met = false;
+			}
+		}
+		if(met) {
+			c.status = Status.FEASIBLE;
+		}
+	}
+
+	/* Replications an undecided candidate should have next: enough for the interval of every
+	 * constraint not decided yet to shrink to its distance from the limit (the half-width goes
+	 * down with the square root of the replications), at most twice as many as now. */
+	private int allocate(Candidate c, double confidence) {
+		int n = c.replications;
+		double needed = n + 1;
+		for(int j=0; j<constraints.size(); j++) {
+			RunningStat s = c.stats[j];
+			double limit = constraints.get(j).limit;
+			double hw = s.halfWidth(confidence);
+			if(!(s.mean() + hw <= limit)) {
+				double gap = Math.abs(s.mean() - limit);
+				needed = Math.max(needed, gap > 0 ? n * (hw/gap) * (hw/gap) : Double.POSITIVE_INFINITY);
+			}
+		}
+		return (int) Math.min(Math.min(maxReplications, 2L*n), Math.ceil(needed));
+	}
+
+	private void print(ArrayList<Candidate> candidates, Candidate best, int rounds, long replications) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("Optimization of %d configurations, cost %s, in %d rounds and %d replications:\n",
+				candidates.size(), costText, rounds, replications));
+		sb.append("config");
+		for(ParameterSweep.Dimension d : dimensions) {
+			sb.append('\t').append(d.queueId).append('.').append(d.parameter);
+		}
+		sb.append("\tcost\tstatus\treplications");
+		for(Constraint c : constraints) {
+			sb.append('\t').append(c.text);
+		}
+		sb.append('\n');
+		for(Candidate c : candidates) {
+			sb.append(c.number);
+			for(double v : c.values) {
+				sb.append('\t').append(ParameterSweep.formatValue(v));
+			}
+			sb.append('\t').append(ParameterSweep.formatValue(c.cost)).append('\t')
+			.append(c.status.name().toLowerCase().replace('_', ' ')).append('\t').append(c.replications);
+			for(RunningStat s : c.stats) {
+				sb.append('\t');
+				if(s.count() > 0) {
+					sb.append(String.format("%.5g +- %.3g", s.mean(), s.halfWidth(SimulationReport.CONFIDENCE)));
+				}
+			}
+			sb.append('\n');
+		}
+		if(best == null) {
+			sb.append("No configuration was shown to meet every constraint.");
+		} else {
+			sb.append(String.format("Cheapest configuration shown to meet every constraint: %d (", best.number));
+			for(int d=0; d<dimensions.size(); d++) {
+				ParameterSweep.Dimension dim = dimensions.get(d);
+				sb.append(d > 0 ? ", " : "").append(dim.queueId).append('.').append(dim.parameter).append(" = ")
+				.append(ParameterSweep.formatValue(best.values[d]));
+			}
+			sb.append(String.format("), cost %s", ParameterSweep.formatValue(best.cost)));
+		}
+		//Undecided at the maximum replications, so possibly feasible, and cheaper than the one shown feasible
+		StringBuilder undecided = new StringBuilder();
+		for(Candidate c : candidates) {
+			if(c.status == Status.UNDECIDED && (best == null || c.cost < best.cost)) {
+				undecided.append(undecided.length() > 0 ? ", " : "").append(c.number);
+			}
+		}
+		if(undecided.length() > 0) {
+			sb.append(String.format("\n%s left undecided at %d replications, which may meet every constraint: %s",
+					best == null ? "Configurations" : "Cheaper configurations", maxReplications, undecided));
+		}
+		System.out.println(sb.toString());
+	}
+}
\ No newline at end of file
@@ -0,0 +1,406 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+/* Conservative parallel engine for a single long run of a large network (see the
+ * "engine" line of the input file).
+ * The queues are split into logical processes (LPs) of consecutive indexes, each with its
+ * own event calendar and run by its own thread. A client routed to a queue of another LP
+ * leaves its queue through a local departure and reaches the other LP as a timestamped
+ * message. Its destination is chosen when its service starts, so the message is sent at
+ * least serviceMin before its time: the smallest serviceMin among the queues routing to
+ * other LPs is the lookahead. The LPs advance in synchronous time windows. No message
+ * still to be sent can arrive before the earliest pending event plus the lookahead, so
+ * every LP processes the events before that time in parallel, then the messages are
+ * exchanged at a barrier.
+ *
+ * Like the sequential engine, the run ends with the event that uses up the randoms.
+ * Randoms are counted at the barriers, so the window in which they run out is completed
+ * by every LP, and its events that come after the end of the sequential run are then
+ * undone from a log of the queue states they changed.
+ * Every queue draws from its own random streams (see RandomStreams), so each queue gets the
+ * same numbers in the same order as in the sequential engine with "generator: ... / perqueue"
+ * and the results are the same, except when events of different queues happen at exactly
+ * the same time, which the sequential engine orders by when they were scheduled. */
+class ParallelEngine {
+
+	private static final int ARRIVAL = EventEnum.ARRIVAL.ordinal();
+	private static final int DEPARTURE = EventEnum.DEPARTURE.ordinal();
+	private static final int PASSAGE = EventEnum.PASSAGE.ordinal();
+
+	private final List<QueueStructure> qs;
+	private final List<ScheduleEntry> firstArrivals;
+	private final String calendar;
+	private final int processes;
+	private final int[] lpOf; //LP of each queue index
+	private final double lookahead;
+
+	ParallelEngine(List<QueueStructure> qs, List<ScheduleEntry> firstArrivals, int processes, String calendar) {
+		this.qs = qs;
+		this.firstArrivals = firstArrivals;
+		this.calendar = calendar;
+		this.processes = Math.max(1, Math.min(processes, qs.size()));
+		lpOf = new int[qs.size()];
+		for(int i=0; i<lpOf.length; i++) {
+			lpOf[i] = (int)((long) i * this.processes / lpOf.length);
+		}
+		double l = Double.POSITIVE_INFINITY;
+		double longest = 0;
+		for(QueueStructure q : qs) {
+			for(QueueStructure d : q.destinations) {
+				if(d != QueueStructure.EXIT && lpOf[d.index] != lpOf[q.index]) {
+					if(q.serviceMin <= 0) {
+						throw new IllegalArgumentException(String.format("Queue %s routes clients to another logical "
+								+ "process and its service time can be 0, which leaves no lookahead.", q.id));
+					}
+					l = Math.min(l, q.serviceMin);
+				}
+			}
+			longest = Math.max(longest, Math.max(longestTime(q.service), longestTime(q.arrival)));
+		}
+		/* LPs that never exchange clients could run to the end on their own, but the windows
+		 * are also where the randoms are counted, so they are kept about one event long. */
+		lookahead = l < Double.POSITIVE_INFINITY ? l : (longest > 0 ? longest : 1.0);
+	}
+
+	/* Largest time of a distribution, or its mean if it has none. */
+	private static double longestTime(Distribution d) {
+		return d.max() < Double.POSITIVE_INFINITY ? d.max() : d.mean();
+	}
+
+	/* Runs the simulation on the given queue states, which start empty, and returns the
+	 * time of the last event. The states are left as at that event, not flushed. */
+	double run(QueueState[] states, RandomStreams rng, int totalRandoms) {
+		if(totalRandoms <= 0) {
+			return 0;
+		}
+		return new Run(states, rng, totalRandoms).run();
+	}
+
+	/* Messages sent by one LP to another: arrivals of clients at queues of the other LP. */
+	private static final class Messages {
+		double[] times = new double[64];
+		int[] destinations = new int[64];
+		int size;
+		double minTime = Double.POSITIVE_INFINITY;
+
+		void add(double time, int destination) {
+			if(size == times.length) {
+				times = Arrays.copyOf(times, 2*size);
+				destinations = Arrays.copyOf(destinations, 2*size);
+			}
+			times[size] = time;
+			destinations[size++] = destination;
+			minTime = Math.min(minTime, time);
+		}
+
+		void clear() {
+			size = 0;
+			minTime = Double.POSITIVE_INFINITY;
+		}
+	}
+
+	/* State of one run, shared by the threads of its LPs. */
+	private final class Run {
+		final QueueState[] states;
+		final RandomStreams rng;
+		final int totalRandoms;
+		final LogicalProcess[] lps = new LogicalProcess[processes];
+		final CyclicBarrier barrier;
+		//Written by the barrier action, read by the LPs after the barrier
+		double windowEnd;
+		boolean finished;
+		double endTime;
+		long randomsUsed;
+		int windows;
+		volatile Throwable failure;
+
+		Run(QueueState[] states, RandomStreams rng, int totalRandoms) {
+			this.states = states;
+			this.rng = rng;
+			this.totalRandoms = totalRandoms;
+			for(int p=0; p<processes; p++) {
+				lps[p] = new LogicalProcess(this, p);
+			}
+			for(ScheduleEntry se : firstArrivals) {
+				lps[lpOf[se.destination.index]].calendar.offer(se.time, se.event.ordinal(), -1, se.destination.index);
+			}
+			barrier = new CyclicBarrier(processes, this::betweenWindows);
+		}
+
+		double run() {
+			Thread[] threads = new Thread[processes];
+			for(int p=0; p<processes; p++) {
+				threads[p] = new Thread(lps[p], "logical process " + p);
+				threads[p].start();
+			}
+			try {
+				for(Thread t : threads) {
+					t.join();
+				}
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while running the logical processes.", e);
+			} finally {
+				for(Thread t : threads) {
+					t.interrupt();
+				}
+			}
+			if(failure instanceof RuntimeException) {
+				throw (RuntimeException) failure;
+			} else if(failure instanceof Error) {
+				throw (Error) failure;
+			} else if(failure != null) {
+				throw new IllegalStateException(failure);
+			}
+			return endTime;
+		}
+
+		/* Barrier action, run by one thread while the LPs wait: counts the randoms of the
+		 * window, then either ends the run or hands the messages over and sets the next window. */
+		private void betweenWindows() {
+			long before = randomsUsed;
+			for(LogicalProcess lp : lps) {
+				randomsUsed += lp.windowRandoms;
+			}
+			if(windows > 0 && randomsUsed >= totalRandoms) {
+				endTime = cut(before);
+				finished = true;
+				return;
+			}
+			double gvt = Double.POSITIVE_INFINITY;
+			for(LogicalProcess lp : lps) {
+				Messages[] swap = lp.inbox;
+				lp.inbox = lp.sending;
+				lp.sending = swap;
+				gvt = Math.min(gvt, lp.calendar.peekTime());
+			}
+			for(LogicalProcess lp : lps) {
+				for(Messages m : lp.inbox) {
+					gvt = Math.min(gvt, m.minTime);
+				}
+			}
+			if(gvt == Double.POSITIVE_INFINITY) {
+				throw new IllegalStateException("Event calendar is empty.");
+			}
+			windowEnd = gvt + lookahead;
+			windows++;
+		}
+
+		/* Finds the event of the last window at which the randoms ran out, merging the
+		 * events of every LP by time, undoes the later events and returns its time. */
+		private double cut(long randomsBefore) {
+			int[] next = new int[processes];
+			long used = randomsBefore;
+			double time = 0;
+			while(used < totalRandoms) {
+				int best = -1;
+				for(int p=0; p<processes; p++) {
+					if(next[p] < lps[p].events && (best == -1 || lps[p].eventTimes[next[p]] < lps[best].eventTimes[next[best]])) {
+						best = p;
+					}
+				}
+				time = lps[best].eventTimes[next[best]];
+				used += lps[best].eventRandoms[next[best]];
+				next[best]++;
+			}
+			for(LogicalProcess lp : lps) {
+				lp.undoAfter(time);
+			}
+			return time;
+		}
+	}
+
+	private final class LogicalProcess implements Runnable {
+		final Run run;
+		final int id;
+		final QueueState[] states;
+		final EventCalendar calendar;
+		//Messages to each LP: the ones being sent in this window and the ones received from it
+		Messages[] sending = new Messages[processes];
+		Messages[] inbox = new Messages[processes];
+		long windowRandoms;
+
+		//Events of the current window: time, randoms used and first entry in the undo log
+		int events;
+		double[] eventTimes = new double[256];
+		int[] eventRandoms = new int[256];
+		int[] eventUndo = new int[256];
+
+		//Undo log: state of a queue right before each change in the current window
+		int undos;
+		int[] undoQueue = new int[256];
+		int[] undoSize = new int[256];
+		int[] undoLost = new int[256];
+		int[] undoBuckets = new int[256];
+		double[] undoLastChange = new double[256];
+		double[] undoBucketTime = new double[256];
+
+		LogicalProcess(Run run, int id) {
+			this.run = run;
+			this.id = id;
+			states = run.states;
+			calendar = EventCalendar.create(ParallelEngine.this.calendar);
+			for(int p=0; p<processes; p++) {
+				sending[p] = new Messages();
+				inbox[p] = new Messages();
+			}
+		}
+
+		public void run() {
+			try {
+				while(true) {
+					run.barrier.await();
+					if(run.finished) {
+						return;
+					}
+					processWindow(run.windowEnd);
+				}
+			} catch(BrokenBarrierException e) {
+				//Another LP failed and reports its exception
+			} catch(Throwable t) {
+				if(run.failure == null) {
+					run.failure = t;
+				}
+				run.barrier.reset();
+			}
+		}
+
+		private void processWindow(double end) {
+			//Clients arriving from other LPs, in a fixed order so that runs are repeatable
+			for(LogicalProcess lp : run.lps) {
+				Messages m = lp.inbox[id];
+				for(int i=0; i<m.size; i++) {
+					calendar.offer(m.times[i], PASSAGE, -1, m.destinations[i]);
+				}
+				m.clear();
+			}
+			events = 0;
+			undos = 0;
+			windowRandoms = 0;
+			while(calendar.peekTime() < end) {
+				calendar.poll();
+				double time = calendar.time();
+				int event = calendar.event();
+				if(events == eventTimes.length) {
+					eventTimes = Arrays.copyOf(eventTimes, 2*events);
+					eventRandoms = Arrays.copyOf(eventRandoms, 2*events);
+					eventUndo = Arrays.copyOf(eventUndo, 2*events);
+				}
+				eventUndo[events] = undos;
+				int used = 0;
+
+				if(event == ARRIVAL) {
+					QueueState dest = save(calendar.destination());
+					if(!dest.isFull()) {
+						dest.addClient(time);
+						if(dest.canServeOnArrival()) {
+							used += scheduleDeparture(dest.queue, time);
+						}
+					} else {
+						dest.clientsLost++;
+					}
+					scheduleArrival(dest.queue, time);
+					used++;
+
+				} else if(event == PASSAGE) {
+					//The origin is -1 for clients coming from another LP, which has already let them go
+					int origin = calendar.origin();
+					int destination = calendar.destination();
+					if(origin >= 0) {
+						used += leave(origin, time);
+					}
+					QueueState dest = save(destination);
+					if(!dest.isFull()) {
+						dest.addClient(time);
+						if(dest.canServeOnArrival()) {
+							used += scheduleDeparture(dest.queue, time);
+						}
+					} else {
+						dest.clientsLost++;
+					}
+
+				} else { //Departure, from the system or towards another LP
+					used += leave(calendar.origin(), time);
+				}
+
+				eventTimes[events] = time;
+				eventRandoms[events] = used;
+				events++;
+				windowRandoms += used;
+			}
+		}
+
+		/* A client leaves the queue. Returns the randoms used. */
+		private int leave(int queue, double time) {
+			QueueState ori = save(queue);
+			ori.removeClient(time);
+			return ori.canServeOnDeparture() ? scheduleDeparture(ori.queue, time) : 0;
+		}
+
+		private void scheduleArrival(QueueStructure destination, double time) {
+			double randomNumber = run.rng.arrival(destination.index).next();
+			double eventTime = destination.arrival.after(time, randomNumber);
+			calendar.offer(eventTime, ARRIVAL, -1, destination.index);
+		}
+
+		/* Same as QueueSim.scheduleDeparture, except that clients going to another LP leave
+		 * through a local departure and are sent to it. Returns the randoms used. */
+		private int scheduleDeparture(QueueStructure origin, double time) {
+			double randomNumber = run.rng.service(origin.index).next();
+			int randomsUsed = 1;
+			double eventTime = origin.service.after(time, randomNumber);
+			int dest;
+			if(origin.destinations.size()>1) {
+				dest = origin.routing.next(run.rng.routing(origin.index).next());
+				randomsUsed++;
+			} else {
+				dest = origin.destinations.get(0).index;
+			}
+			if(dest == QueueStructure.EXIT.index) {
+				calendar.offer(eventTime, DEPARTURE, origin.index, QueueStructure.EXIT.index);
+			} else if(lpOf[dest] == id) {
+				calendar.offer(eventTime, PASSAGE, origin.index, dest);
+			} else {
+				calendar.offer(eventTime, DEPARTURE, origin.index, QueueStructure.EXIT.index);
+				sending[lpOf[dest]].add(eventTime, dest);
+			}
+			return randomsUsed;
+		}
+
+		/* Logs the state of a queue about to change and returns it. */
+		private QueueState save(int queue) {
+			QueueState q = states[queue];
+			if(undos == undoQueue.length) {
+				int n = 2*undos;
+				undoQueue = Arrays.copyOf(undoQueue, n);
+				undoSize = Arrays.copyOf(undoSize, n);
+				undoLost = Arrays.copyOf(undoLost, n);
+				undoBuckets = Arrays.copyOf(undoBuckets, n);
+				undoLastChange = Arrays.copyOf(undoLastChange, n);
+				undoBucketTime = Arrays.copyOf(undoBucketTime, n);
+			}
+			undoQueue[undos] = queue;
+			undoSize[undos] = q.size();
+			undoLost[undos] = q.clientsLost;
+			undoBuckets[undos] = q.stateTimes.size();
+			undoLastChange[undos] = q.getLastChangeTime();
+			undoBucketTime[undos] = q.stateTimes.getState(q.size());
+			undos++;
+			return q;
+		}
+
+		/* Undoes the events of the window later than the given time, latest first. */
+		void undoAfter(double time) {
+			int first = 0;
+			while(first < events && eventTimes[first] <= time) {
+				first++;
+			}
+			int stop = first < events ? eventUndo[first] : undos;
+			for(int u=undos-1; u>=stop; u--) {
+				states[undoQueue[u]].restore(undoSize[u], undoLastChange[u], undoLost[u], undoBuckets[u], undoBucketTime[u]);
+			}
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,268 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/* Simulates every combination of values of some queue parameters ("vary:" lines of
+ * the input file), each one with every seed, reusing the model parsed once.
+ * All (configuration, seed) runs share one pool of worker threads. When the last seed
+ * of a configuration finishes, its results are merged in seed order and written to a
+ * CSV file right away, so only the configurations being simulated are kept in memory.
+ *
+ * The CSV has one row per configuration, queue and state, with the columns:
+ * config, <one column per varied parameter>, replications, queue, state, time,
+ * probability, probability_hw, clients_lost, clients_lost_hw, total_time
+ * where the _hw columns are confidence interval half-widths (see SimulationReport). */
+class ParameterSweep {
+
+	/* One varied parameter: the values taken by a parameter of a queue. */
+	static class Dimension {
+		final String queueId;
+		final int queueIndex;
+		final String parameter;
+		final double[] values;
+
+		Dimension(String queueId, int queueIndex, String parameter, double[] values) {
+			this.queueId = queueId;
+			this.queueIndex = queueIndex;
+			this.parameter = parameter;
+			this.values = values;
+		}
+	}
+
+	private final QueueSim base;
+	private final ArrayList<Dimension> dimensions;
+	private final int configurations;
+	private BufferedWriter out;
+	//First exception thrown by a run, which stops the sweep
+	private volatile Throwable failure;
+
+	ParameterSweep(QueueSim base, ArrayList<Dimension> dimensions) {
+		this.base = base;
+		this.dimensions = dimensions;
+		configurations = configurations(dimensions);
+	}
+
+	/* Syntax: <queue>.<parameter> = <value> [, <value>]*
+	 *     or: <queue>.<parameter> = <from> .. <to> [step <step>]
+	 * where parameter is servers, capacity, arrivalMin, arrivalMax, serviceMin, serviceMax,
+	 * arrivalMean or serviceMean (see QueueStructure.setParameter).
+	 * Values may be "inf" (capacity only). The step of a range defaults to 1. */
+	static Dimension parseDimension(String str, ArrayList<QueueStructure> qs) throws Exception {
+		String[] sides = str.split("=");
+		if(sides.length != 2) {
+			throw new Exception("Varied parameter must be written as <queue>.<parameter> = <values>.");
+		}
+		String[] target = sides[0].trim().split("\\.");
+		if(target.length != 2) {
+			throw new Exception("Varied parameter must be written as <queue>.<parameter>.");
+		}
+		QueueStructure q = null;
+		for(QueueStructure candidate : qs) {
+			if(candidate.id.equals(target[0])) {
+				q = candidate;
+			}
+		}
+		if(q == null) {
+			throw new Exception(String.format(
+					"Queue \"%s\" does not exist or wasn't previously defined in input file.", target[0]));
+		}
+		q.copy().setParameter(target[1], 1); //Validates the parameter name
+
+		String values = sides[1].trim();
+		double[] parsed;
+		if(values.contains("..")) {
+			String[] range = values.split("\\.\\.|step");
+			double from = parseValue(range[0]);
+			double to = parseValue(range[1]);
+			double step = range.length > 2 ? parseValue(range[2]) : 1;
+			if(step <= 0 || to < from) {
+				throw new Exception("Range must go up from <from> to <to> with a positive step.");
+			}
+			int n = (int) Math.floor((to - from) / step + 1e-9) + 1;
+			parsed = new double[n];
+			for(int i=0; i<n; i++) {
+				parsed[i] = from + i*step;
+			}
+		} else {
+			String[] list = values.split(",");
+			parsed = new double[list.length];
+			for(int i=0; i<list.length; i++) {
+				parsed[i] = parseValue(list[i]);
+			}
+		}
+		for(double v : parsed) {
+			q.copy().setParameter(target[1], v); //Validates the values
+		}
+		return new Dimension(q.id, q.index, target[1], parsed);
+	}
+
+	private static double parseValue(String s) {
+		s = s.trim();
+		return s.equals("inf") ? Double.POSITIVE_INFINITY : Double.parseDouble(s);
+	}
+
+	/* Number of combinations of the values of the dimensions. */
+	static int configurations(ArrayList<Dimension> dimensions) {
+		long n = 1;
+		for(Dimension d : dimensions) {
+			n *= d.values.length;
+		}
+		if(n > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Too many configurations in the sweep.");
+		}
+		return (int) n;
+	}
+	
+	/* Copy of base with the given configuration of the dimensions, whose values are put in values.
+	 * The configuration number is read as a mixed radix number, one digit per dimension. */
+	static QueueSim configuration(QueueSim base, ArrayList<Dimension> dimensions, int number, double[] values) {
+		ArrayList<QueueStructure> queues = new ArrayList<>();
+		for(QueueStructure q : base.getQueues()) {
+			queues.add(q.copy());
+		}
+		int rest = number;
+		for(int d=dimensions.size()-1; d>=0; d--) {
+			Dimension dim = dimensions.get(d);
+			values[d] = dim.values[rest % dim.values.length];
+			rest /= dim.values.length;
+			queues.get(dim.queueIndex).setParameter(dim.parameter, values[d]);
+		}
+		return base.withQueues(queues);
+	}
+
+	/* Runs the whole sweep, writing the results to the given file. */
+	void run(String output) throws IOException, InterruptedException, ExecutionException {
+		ArrayList<Long> seeds = base.getSeeds();
+		if(seeds.isEmpty()) {
+			throw new IllegalStateException("At least one seed must be defined.");
+		}
+		int threads = base.getThreads();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		//Limits the configurations being simulated at once, and so the memory they use
+		Semaphore inFlight = new Semaphore(2*threads);
+		ArrayDeque<Future<?>> runs = new ArrayDeque<>();
+		try(BufferedWriter w = Files.newBufferedWriter(Paths.get(output), StandardCharsets.UTF_8)) {
+			out = w;
+			writeHeader();
+			for(int c=0; c<configurations && failure == null; c++) {
+				inFlight.acquire();
+				Configuration config = new Configuration(c, inFlight);
+				for(int k=0; k<seeds.size(); k++) {
+					final int seedIndex = k;
+					final long seed = seeds.get(k);
+					runs.add(pool.submit(() -> {
+						try {
+							config.finished(seedIndex, config.sim.runReplication(seed));
+						} catch(Throwable t) {
+							//Wake up the submitting thread, which would otherwise wait for this configuration
+							failure = t;
+							inFlight.release();
+							throw t;
+						}
+						return null;
+					}));
+				}
+				//Drop the finished runs, surfacing their exceptions
+				while(!runs.isEmpty() && runs.peek().isDone()) {
+					runs.poll().get();
+				}
+			}
+			for(Future<?> f : runs) {
+				f.get();
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		System.out.printf("Sweep of %d configurations with %d seeds each written to %s\n",
+				configurations, seeds.size(), output);
+	}
+
+	/* A configuration of the sweep and the reports of the seeds finished so far. */
+	private class Configuration {
+		final int number;
+		final double[] values;
+		final QueueSim sim;
+		final SimulationReport[] reports;
+		final Semaphore inFlight;
+		int finished;
+
+		Configuration(int number, Semaphore inFlight) {
+			this.number = number;
+			this.inFlight = inFlight;
+			values = new double[dimensions.size()];
+			sim = configuration(base, dimensions, number, values);
+			reports = new SimulationReport[base.getSeeds().size()];
+		}
+
+		void finished(int seedIndex, SimulationReport report) throws IOException {
+			synchronized(this) {
+				reports[seedIndex] = report;
+				finished++;
+				if(finished < reports.length) {
+					return;
+				}
+			}
+			//Last seed: merge in seed order, like the sequential mode
+			SimulationReport res = sim.emptyReport();
+			for(SimulationReport r : reports) {
+				res.sumSimulation(r);
+			}
+			res.averageResults(reports.length);
+			write(this, res);
+			inFlight.release();
+		}
+	}
+
+	private void writeHeader() throws IOException {
+		StringBuilder sb = new StringBuilder("config");
+		for(Dimension d : dimensions) {
+			sb.append(',').append(d.queueId).append('.').append(d.parameter);
+		}
+		sb.append(",replications,queue,state,time,probability,probability_hw,clients_lost,clients_lost_hw,total_time\n");
+		out.write(sb.toString());
+	}
+
+	private synchronized void write(Configuration config, SimulationReport res) throws IOException {
+		StringBuilder prefix = new StringBuilder();
+		prefix.append(config.number);
+		for(double v : config.values) {
+			prefix.append(',').append(formatValue(v));
+		}
+		prefix.append(',').append(res.replications());
+		StringBuilder sb = new StringBuilder();
+		for(int i=0; i<res.stateTimes.length; i++) {
+			StateHistogram h = res.stateTimes[i];
+			for(int j=0; j<h.size(); j++) {
+				sb.append(prefix).append(',').append(res.queueIDs[i]).append(',')
+				.append(h.isOverflowBucket(j) ? ">=" + j : String.valueOf(j)).append(',')
+				.append(h.get(j)).append(',')
+				.append(h.get(j)/res.totalSimulationTime).append(',')
+				.append(res.probabilityStats[i][j].halfWidth(SimulationReport.CONFIDENCE)).append(',')
+				.append(res.clientsLost[i]).append(',')
+				.append(res.clientsLostStats[i].halfWidth(SimulationReport.CONFIDENCE)).append(',')
+				.append(res.totalSimulationTime).append('\n');
+			}
+		}
+		out.write(sb.toString());
+		out.flush();
+	}
+
+	static String formatValue(double v) {
+		if(v == Double.POSITIVE_INFINITY) {
+			return "inf";
+		}
+		if(v == Math.rint(v) && Math.abs(v) < 1e15) {
+			return String.valueOf((long) v);
+		}
+		return String.valueOf(v);
+	}
+}
@@ -1,9 +1,19 @@
-import java.util.PriorityQueue;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import javax.management.JMException;
 
 
 public class QueueSim {
@@ -13,12 +23,154 @@ public class QueueSim {
     private ArrayList<Long> seeds;
     private int randoms;
     private ArrayList<ScheduleEntry> firstArrivals;
+    //Queues by id, so that references to queues in the input file are found without a search
+    private HashMap<String, QueueStructure> queueIndex;
+    //Option lines of the input file (everything but the model itself), kept for compile
+    private ArrayList<String> optionLines;
+    /* Number of worker threads used to run the seeds. 1 runs them one after
+     * another in the calling thread. */
+    private int threads = 1;
+    //Name of the EventCalendar implementation used by each run, see EventCalendar.create
+    private String calendar = "heap";
+    /* States at or above this number of clients share one bucket of the
+     * state time histograms, see StateHistogram. */
+    private int overflowState = StateHistogram.NO_LIMIT;
+    //Random number generator, see RandomSource.create, and the size of its blocks of prefilled numbers (0 for none)
+    private String generator = "lcg";
+    private int generatorBlock = 0;
+    //One random stream per queue and purpose instead of a single one, see RandomStreams
+    private boolean perQueueStreams = false;
+    /* Each seed is simulated twice, the second time with the antithetic variates of
+     * the first (see runReplication). */
+    private boolean antithetic = false;
+    
+    /* Sequential stopping (see runUntilPrecision): replications are run until the
+     * confidence interval half-width of every selected metric is at most precisionTarget
+     * (relative to the metric's mean if precisionRelative) or maxReplications is reached.
+     * Disabled while precisionTarget is 0. */
+    private double precisionTarget = 0;
+    private boolean precisionRelative;
+    private int maxReplications;
+    private EnumSet<MetricEnum> precisionMetrics = EnumSet.allOf(MetricEnum.class);
+    
+    /* Steady-state mode (see runSteadyState), used when batches > 0: a single long run
+     * whose warm-up is discarded (up to warmupTime, or detected with MSER-5 if it is
+     * negative) and whose remainder is split into batches. */
+    private int batches = 0;
+    private double warmupTime = -1;
+    //Number of intervals the run is split into for the warm-up detection and the batches
+    private static final int STEADY_INTERVALS = 500;
+    private static final int MAX_BATCHES = 100;
+    
+    /* Parameter sweep (see ParameterSweep), used when at least one parameter varies.
+     * Results are written to sweepOutput. */
+    private ArrayList<ParameterSweep.Dimension> sweep = new ArrayList<>();
+    private String sweepOutput = "sweep.csv";
+    //Instead of the sweep, its cheapest configuration meeting some constraints is searched if not null, see Optimizer
+    private String optimizeSpec = null;
+    
+    /* Every event processed is written to traceFile (if not null) through trace,
+     * which is open while runSimulation() runs, see EventTrace. */
+    private String traceFile = null;
+    private EventTrace trace = null;
+    //Events buffered by each run for the trace writer
+    private static final int TRACE_RING_RECORDS = 1 << 16;
+    
+    /* Snapshots of the queues are written to sampleFile every sampleInterval time units of
+     * each run if sampleInterval > 0, through sampler, open while runSimulation() runs
+     * (see TimeSeriesSampler). */
+    private double sampleInterval = 0;
+    private String sampleFile = "samples.csv";
+    private TimeSeriesSampler sampler = null;
+    
+    /* Live metrics published through JMX while runSimulation() runs, see SimulationMetrics.
+     * Off if monitorSeconds is negative; with monitorSeconds > 0 they are also printed
+     * that often. */
+    private int monitorSeconds = -1;
+    private SimulationMetrics metrics = null;
+    
+    /* Seeds are simulated by worker processes if workers >= 0: that many started by this
+     * process, plus any connecting to workerPort (see Coordinator). */
+    private int workers = -1;
+    private int workerPort = 0;
+    
+    //Number of logical processes of the parallel engine (see ParallelEngine), 0 for the sequential engine
+    private int engineProcesses = 0;
+    
+    //Waiting and response times of the clients are measured, see ClientTracker
+    private boolean trackClients = false;
+    
+    /* Exact results (see AnalyticSolver) are printed instead of simulating if solver is
+     * "analytic", or after the simulation results for comparison if it is "compare". */
+    private String solver = null;
+    
+    /* A Snapshot of each run is written to checkpointFile (if not null) every checkpointEvery
+     * randoms, and at its end. With checkpointEvery 0, only at its end. */
+    private String checkpointFile = null;
+    private int checkpointEvery = 0;
+    
+    //Rare-event mode, see RestartSplitting; off if null
+    private RestartSplitting rare = null;
+    
+    /* Derivatives of the results with respect to the parameters of gradientSpec (if not null)
+     * are written to gradientFile, through gradient, open while runSimulation() runs
+     * (see GradientEstimator). */
+    private String gradientSpec = null;
+    private String gradientFile = "gradient.csv";
+    private GradientEstimator gradient = null;
+    
+    //Replications always run before the precision is checked, so that the variance estimate is usable
+    private static final int MIN_REPLICATIONS = 5;
+    
+    //Largest difference from 1 accepted for the sum of the routing probabilities of a queue
+    private static final double PROBABILITY_TOLERANCE = 1e-9;
+    
+    //Event types as stored in the EventCalendar
+    private static final int ARRIVAL = EventEnum.ARRIVAL.ordinal();
+    private static final int PASSAGE = EventEnum.PASSAGE.ordinal();
 	
     public QueueSim(ArrayList<QueueStructure> qs, ArrayList<Long> seeds, int randoms, ArrayList<ScheduleEntry> firstArrivals) {
     	this.qs = qs;
     	this.seeds = seeds;
     	this.randoms = randoms;
     	this.firstArrivals = firstArrivals;
+    	for(int i=0; i<qs.size(); i++) {
+    		qs.get(i).index = i;
+    	}
+    	for(QueueStructure q : qs) {
+    		q.buildRoutingTable();
+    	}
+    }
+    
+    /* Copy of base simulating the queues qs instead, which must be copies of the
+     * base's queues with the same indexes (see QueueStructure.copy). */
+    private QueueSim(QueueSim base, ArrayList<QueueStructure> qs) {
+    	this.qs = qs;
+    	seeds = base.seeds;
+    	randoms = base.randoms;
+    	firstArrivals = base.firstArrivals;
+    	threads = base.threads;
+    	calendar = base.calendar;
+    	overflowState = base.overflowState;
+    	generator = base.generator;
+    	generatorBlock = base.generatorBlock;
+    	perQueueStreams = base.perQueueStreams;
+    	antithetic = base.antithetic;
+    	traceFile = base.traceFile;
+    	trace = base.trace;
+    	sampleInterval = base.sampleInterval;
+    	sampleFile = base.sampleFile;
+    	sampler = base.sampler;
+    	monitorSeconds = base.monitorSeconds;
+    	metrics = base.metrics;
+    	engineProcesses = base.engineProcesses;
+    	trackClients = base.trackClients;
+    	checkpointFile = base.checkpointFile;
+    	checkpointEvery = base.checkpointEvery;
+    	rare = base.rare;
+    	gradientSpec = base.gradientSpec;
+    	gradientFile = base.gradientFile;
+    	gradient = base.gradient;
     }
     
     /* Constructs object from file. */
@@ -26,161 +178,762 @@ public class QueueSim {
     	parseFile(fileString);
     }
     
-	public void runSimulation() {
-		/* Creates a new SimulationReport With all fields zeroed
-		 * This report will accumulate the results of every simulation.
-		 * Begin by creating the list containing, for each queue in the simulation,
-		 * the list of time spent on each state of said queue. Since a queue can have
-		 * infinite capacity, this list is created containing empty lists
-		 * (lists with no times for any state). */
-		String[] queueIDs = new String[qs.size()];
-		ArrayList<ArrayList<Double>> stateTimes = new ArrayList<>();
-		for(int i=0; i<qs.size(); i++) {
-			stateTimes.add(new ArrayList<Double>());
-			queueIDs[i] = qs.get(i).id;
+    /* Constructs object from a compiled model, see CompiledModel. */
+    QueueSim(CompiledModel model) throws Exception {
+    	queueIndex = new HashMap<>();
+    	optionLines = new ArrayList<>();
+    	loadCompiled(model);
+    }
+    
+	public void setThreads(int threads) {
+		if(threads < 1) {
+			throw new IllegalArgumentException("Number of threads must be at least 1.");
+		}
+		this.threads = threads;
+	}
+	
+	public void setCalendar(String calendar) {
+		EventCalendar.create(calendar); //Validates the name
+		this.calendar = calendar;
+	}
+	
+	public void setGenerator(String generator, int blockSize, boolean perQueueStreams) {
+		RandomSource.create(generator, 0); //Validates the name
+		if(blockSize < 0) {
+			throw new IllegalArgumentException("Block size can't be negative.");
+		}
+		this.generator = generator;
+		generatorBlock = blockSize;
+		this.perQueueStreams = perQueueStreams;
+	}
+	
+	public void setAntithetic(boolean antithetic) {
+		this.antithetic = antithetic;
+	}
+	
+	public void setOverflowState(int overflowState) {
+		if(overflowState < 1) {
+			throw new IllegalArgumentException("Histogram limit must be at least 1.");
+		}
+		this.overflowState = overflowState;
+	}
+	
+	public void setPrecision(double target, boolean relative, int maxReplications, EnumSet<MetricEnum> metrics) {
+		if(target <= 0) {
+			throw new IllegalArgumentException("Precision target must be greater than 0.");
+		}
+		if(maxReplications < 1) {
+			throw new IllegalArgumentException("Maximum number of simulations must be at least 1.");
+		}
+		precisionTarget = target;
+		precisionRelative = relative;
+		this.maxReplications = maxReplications;
+		precisionMetrics = metrics;
+	}
+	
+	/* warmupTime < 0 detects the warm-up with MSER-5. */
+	public void setSteadyState(int batches, double warmupTime) {
+		if(batches < 2 || batches > MAX_BATCHES) {
+			throw new IllegalArgumentException(String.format("Number of batches must be between 2 and %d.", MAX_BATCHES));
+		}
+		this.batches = batches;
+		this.warmupTime = warmupTime;
+	}
+	
+	public void runSimulation() throws InterruptedException, ExecutionException, IOException, JMException {
+		runSimulation(null, false);
+	}
+	
+	/* Continues the run saved in a snapshot (see Snapshot) up to the end of its randoms
+	 * and prints its results, which are the same as if the run had never stopped. */
+	static void resume(String snapshot) throws Exception {
+		Snapshot from = Snapshot.read(snapshot);
+		new QueueSim(from.model).runSimulation(from, false);
+	}
+	
+	/* Runs every variant from the state saved in the snapshot, using the randoms of the
+	 * variant, and prints the results of each one, gathered after the snapshot only. The
+	 * variants must have the queues of the snapshot's model in the same order, with at least
+	 * as many servers, and may change anything else of them. Their seeds and first arrivals
+	 * are not used: the clock, clients, pending events and random streams are the snapshot's. */
+	static void fork(String snapshot, String[] variants) throws Exception {
+		Snapshot from = Snapshot.read(snapshot);
+		ArrayList<QueueStructure> warm = from.model.queues;
+		for(String file : variants) {
+			QueueSim sim = new QueueSim(file);
+			if(sim.qs.size() != warm.size()) {
+				throw new IllegalArgumentException(String.format(
+						"%s has %d queues, the snapshot's model %d.", file, sim.qs.size(), warm.size()));
+			}
+			for(int i=0; i<warm.size(); i++) {
+				QueueStructure q = sim.qs.get(i);
+				if(!q.id.equals(warm.get(i).id)) {
+					throw new IllegalArgumentException(String.format(
+							"Queue %d of %s is %s, in the snapshot's model it is %s.", i+1, file, q.id, warm.get(i).id));
+				}
+				if(q.servers < warm.get(i).servers) {
+					throw new IllegalArgumentException(String.format(
+							"Queue %s of %s has fewer servers than in the snapshot's model.", q.id, file));
+				}
+			}
+			//The random streams go on from the snapshot
+			sim.setGenerator(from.generator, from.generatorBlock, from.perQueueStreams);
+			System.out.printf("Variant %s:\n", file);
+			sim.runSimulation(from, true);
+		}
+	}
+	
+	/* Simulates this model as its options say or, if from is not null, the single run
+	 * continued from the snapshot (or forked from it), with the outputs of the options
+	 * (trace, sampling, live metrics) open meanwhile. */
+	private void runSimulation(Snapshot from, boolean fork)
+			throws InterruptedException, ExecutionException, IOException, JMException {
+		try {
+			if(traceFile != null) {
+				trace = new EventTrace(traceFile, qs, TRACE_RING_RECORDS);
+			}
+			if(sampleInterval > 0) {
+				sampler = new TimeSeriesSampler(sampleFile, sampleInterval);
+			}
+			if(gradientSpec != null) {
+				gradient = new GradientEstimator(qs, firstArrivals, gradientSpec);
+			}
+			if(monitorSeconds >= 0) {
+				long planned = from == null ? (long) randoms * plannedRuns() : fork ? randoms : from.initialRandoms;
+				metrics = new SimulationMetrics(qs, planned);
+				metrics.start(monitorSeconds);
+			}
+			if(from == null) {
+				simulate();
+			} else {
+				simulateFrom(from, fork);
+			}
+		} finally {
+			gradient = null;
+			if(metrics != null) {
+				metrics.close();
+				metrics = null;
+			}
+			if(sampler != null) {
+				sampler.close();
+				sampler = null;
+			}
+			if(trace != null) {
+				trace.close();
+				trace = null;
+			}
+		}
+	}
+	
+	/* Number of runs simulate() will do, at most. */
+	private long plannedRuns() {
+		long runs;
+		if(!sweep.isEmpty()) {
+			runs = seeds.size();
+			for(ParameterSweep.Dimension d : sweep) {
+				runs *= d.values.length;
+			}
+		} else if(batches > 0) {
+			return 1;
+		} else if(precisionTarget > 0) {
+			runs = maxReplications;
+		} else {
+			runs = seeds.size();
+		}
+		return antithetic ? 2*runs : runs;
+	}
+	
+	private void simulate() throws InterruptedException, ExecutionException, IOException {
+		if(!sweep.isEmpty() && (batches > 0 || precisionTarget > 0)) {
+			throw new IllegalStateException("Sweeps (vary lines) simulate the seeds of the input file, "
+					+ "not batches or a precision target.");
+		}
+		if(workers >= 0 && (!sweep.isEmpty() || batches > 0 || precisionTarget > 0)) {
+			throw new IllegalStateException("Workers only run the seeds of the input file, "
+					+ "not sweeps, batches or a precision target.");
+		}
+		if(workers >= 0 && (trace != null || sampleInterval > 0 || metrics != null || checkpointFile != null)) { //Runs are in other processes
+			throw new IllegalStateException("Workers can't be used with trace, sample, monitor or checkpoint.");
+		}
+		if(checkpointFile != null && (!sweep.isEmpty() || batches > 0 || engineProcesses > 0)) {
+			throw new IllegalStateException("Checkpoints can't be written by sweeps, batches or the parallel engine.");
+		}
+		if(gradient != null && (!sweep.isEmpty() || batches > 0 || precisionTarget > 0 || workers >= 0
+				|| engineProcesses > 0 || rare != null)) {
+			throw new IllegalStateException("Derivatives can't be estimated by sweeps, batches, a precision target, "
+					+ "workers, the parallel engine or the rare event mode.");
+		}
+		if(optimizeSpec != null && sweep.isEmpty()) {
+			throw new IllegalStateException("The optimization needs the configurations to choose from (vary lines).");
+		}
+		if(solver != null && !sweep.isEmpty()) {
+			throw new IllegalStateException("The exact solution can't be used with a sweep.");
+		}
+		//Solved before simulating, so that a network that can't be solved exactly fails right away
+		StringBuilder exactText = new StringBuilder();
+		SimulationReport exact = solver != null ? solveExactly(exactText) : null;
+		if("analytic".equals(solver)) {
+			System.out.println(exactText);
+			return;
+		}
+		if(!sweep.isEmpty()) {
+			if(optimizeSpec != null) {
+				new Optimizer(this, sweep, optimizeSpec).run();
+			} else {
+				new ParameterSweep(this, sweep).run(sweepOutput);
+			}
+			return;
 		}
-		SimulationReport res = new SimulationReport(queueIDs, 0.0, stateTimes, new double[qs.size()]);
 		
+		SimulationReport res = emptyReport();
 		
-		for(long r : seeds) {
-			SimulationReport temp = runSimulation(r, randoms);
-			//System.out.println(temp.toString());
-			res.sumSimulation(temp);
+		int replications = seeds.size();
+		if(batches > 0) {
+			replications = runSteadyState(res);
+		} else if(precisionTarget > 0) {
+			replications = runUntilPrecision(res);
+		} else if(workers >= 0) {
+			new Coordinator(this, workers, workerPort).run(res);
+		} else if(threads > 1) {
+			runReplicationsParallel(res);
+		} else {
+			for(long r : seeds) {
+				SimulationReport temp = runReplication(r);
+				//System.out.println(temp.toString());
+				res.sumSimulation(temp);
+			}
 		}
 		/* Divide the accumulated results by the number of simulations run to obtain
 		 * the average of the results. */
-		res.averageResults(seeds.size());
-		System.out.printf("Printing average results of %d simulations:\n", seeds.size());
+		res.averageResults(replications);
+		System.out.printf("Printing average results of %d %s:\n", replications, batches > 0 ? "batches" : "simulations");
+		System.out.println(res.toString());
+		if(rare != null) {
+			System.out.println(rare.summary(res));
+		}
+		if(gradient != null) {
+			System.out.println(gradient.write(seeds, gradientFile));
+		}
+		if("compare".equals(solver)) {
+			System.out.println(exactText);
+			System.out.println(AnalyticSolver.compare(res, exact));
+		}
+	}
+	
+	/* Runs the run of the snapshot (see resume and fork) and prints its results. */
+	private void simulateFrom(Snapshot from, boolean fork) {
+		if(engineProcesses > 0) {
+			throw new IllegalStateException("The parallel engine can't continue a run from a snapshot.");
+		}
+		if(gradient != null) {
+			throw new IllegalStateException("Derivatives can't be estimated by a run continued from a snapshot.");
+		}
+		int budget = fork ? randoms : from.remainingRandoms;
+		SimulationReport res = emptyReport();
+		res.sumSimulation(runSimulation(from.seed, budget, from.mirror, 0, null, from, fork));
+		res.averageResults(1);
+		System.out.printf("Printing results of the simulation %s a snapshot at time %.2f:\n",
+				fork ? "forked from" : "resumed from", from.time);
 		System.out.println(res.toString());
 	}
 	
-	private SimulationReport runSimulation(long randomSeed, int totalRandoms) {
+	/* Solves the model exactly (see AnalyticSolver) and appends the results, with the method used
+	 * and the time taken, to text.
+	 * Throws IllegalStateException, with the reason, if the network can't be solved exactly. */
+	private SimulationReport solveExactly(StringBuilder text) {
+		long start = System.nanoTime();
+		AnalyticSolver s = new AnalyticSolver(qs, firstArrivals, randoms, overflowState);
+		SimulationReport exact = s.solve();
+		text.append(String.format("Exact results (%s, solved in %.1f ms):\n", s.method(), (System.nanoTime() - start) / 1e6))
+				.append(exact.toString());
+		return exact;
+	}
+	
+	/* Creates a new SimulationReport With all fields zeroed
+	 * This report will accumulate the results of every simulation.
+	 * Begin by creating, for each queue in the simulation, the histogram of
+	 * time spent on each state of said queue. Since a queue can have
+	 * infinite capacity, the histograms are created empty
+	 * (no times for any state). */
+	SimulationReport emptyReport() {
+		String[] queueIDs = new String[qs.size()];
+		StateHistogram[] stateTimes = new StateHistogram[qs.size()];
+		for(int i=0; i<qs.size(); i++) {
+			stateTimes[i] = new StateHistogram(overflowState);
+			queueIDs[i] = qs.get(i).id;
+		}
+		return new SimulationReport(queueIDs, 0.0, stateTimes, new double[qs.size()]);
+	}
+	
+	/* Copy of this simulation in which the queues are replaced by the given copies. */
+	QueueSim withQueues(ArrayList<QueueStructure> variant) {
+		return new QueueSim(this, variant);
+	}
+	
+	ArrayList<QueueStructure> getQueues() {
+		return qs;
+	}
+	
+	ArrayList<Long> getSeeds() {
+		return seeds;
+	}
+	
+	int getRandoms() {
+		return randoms;
+	}
+	
+	int getThreads() {
+		return threads;
+	}
+	
+	/* Runs every seed on a pool of worker threads. Each replication only reads
+	 * the shared topology, so they are independent of each other. Reports are
+	 * summed in seed order, regardless of which replication finishes first, so the
+	 * floating point sums (and therefore the results) are exactly the same as in
+	 * the sequential mode. */
+	private void runReplicationsParallel(SimulationReport res) throws InterruptedException, ExecutionException {
+		if(seeds.isEmpty()) {
+			throw new IllegalStateException("At least one seed must be defined.");
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, seeds.size()));
+		try {
+			ArrayList<Future<SimulationReport>> results = new ArrayList<>();
+			for(long r : seeds) {
+				results.add(pool.submit(() -> runReplication(r)));
+			}
+			for(Future<SimulationReport> f : results) {
+				res.sumSimulation(f.get());
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+	
+	/* Runs replications until the precision target is reached or maxReplications have run.
+	 * The seeds of the input file are used first; further seeds are derived from the last one.
+	 * With more than one thread, up to threads replications run ahead, but results are
+	 * merged and checked in seed order and the ones past the stopping point are discarded,
+	 * so the number of replications and the results don't depend on the number of threads.
+	 * Returns the number of replications merged into res. */
+	private int runUntilPrecision(SimulationReport res) throws InterruptedException, ExecutionException {
+		if(seeds.isEmpty()) {
+			throw new IllegalStateException("At least one seed must be defined.");
+		}
+		ExecutorService pool = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+		ArrayDeque<Future<SimulationReport>> pending = new ArrayDeque<>();
+		int submitted = 0;
+		int done = 0;
+		boolean reached = false;
+		try {
+			while(done < maxReplications && !reached) {
+				SimulationReport temp;
+				if(pool == null) {
+					temp = runReplication(seedFor(done));
+				} else {
+					while(submitted < maxReplications && pending.size() < threads) {
+						long seed = seedFor(submitted++);
+						pending.add(pool.submit(() -> runReplication(seed)));
+					}
+					temp = pending.poll().get();
+				}
+				res.sumSimulation(temp);
+				done++;
+				reached = done >= MIN_REPLICATIONS
+						&& res.precisionReached(precisionTarget, precisionRelative, precisionMetrics);
+			}
+		} finally {
+			if(pool != null) {
+				pool.shutdownNow();
+			}
+		}
+		if(reached) {
+			System.out.printf("Precision target reached after %d simulations.\n", done);
+		} else {
+			System.out.printf("Precision target not reached within the limit of %d simulations.\n", maxReplications);
+		}
+		return done;
+	}
+	
+	/* Steady-state mode: simulates a single long run with the first seed, instead of
+	 * one run per seed, each starting from an empty system. The run is split into
+	 * STEADY_INTERVALS intervals. The intervals of the warm-up are discarded and the
+	 * rest are grouped into batches (see SteadyStateAnalysis), which are merged into res
+	 * as if they were replications. Returns the number of batches. */
+	private int runSteadyState(SimulationReport res) {
+		if(seeds.isEmpty()) {
+			throw new IllegalStateException("At least one seed must be defined.");
+		}
+		ArrayList<SimulationReport> intervals = new ArrayList<>();
+		runSimulation(seeds.get(0), randoms, false, STEADY_INTERVALS, intervals, null, false);
+		
+		int warmup;
+		if(warmupTime >= 0) {
+			warmup = SteadyStateAnalysis.intervalsStartingBefore(intervals, warmupTime);
+		} else {
+			warmup = SteadyStateAnalysis.mser5(SteadyStateAnalysis.occupancy(intervals));
+		}
+		double discarded = 0;
+		for(int k=0; k<warmup; k++) {
+			discarded += intervals.get(k).totalSimulationTime;
+		}
+		System.out.printf("Steady state: discarded a warm-up of %.2f time units (%d of %d intervals, %s).\n",
+				discarded, warmup, intervals.size(), warmupTime >= 0 ? "given" : "MSER-5");
+		SteadyStateAnalysis.batchMeans(intervals, warmup, batches, res);
+		return batches;
+	}
+	
+	/* Seed of the i-th replication. Past the seeds of the input file, seeds are
+	 * derived from the last one with the SplitMix64 mixing function. */
+	long seedFor(int i) {
+		if(i < seeds.size()) {
+			return seeds.get(i);
+		}
+		return SplitMix64.mix64(seeds.get(seeds.size()-1) + (i - seeds.size() + 1) * 0x9E3779B97F4A7C15L);
+	}
+	
+	/* One replication of the simulation with the given seed. With antithetic variates
+	 * the seed is simulated twice, once with the antithetic variates of the other, and the
+	 * result is the average of both runs, counted as a single observation. The two runs
+	 * are also kept as separate observations in the report's unpaired field, from which
+	 * the variance reduction achieved is reported. */
+	SimulationReport runReplication(long seed) {
+		if(!antithetic) {
+			return runSimulation(seed, randoms);
+		}
+		SimulationReport run = runSimulation(seed, randoms, false, 0, null, null, false);
+		SimulationReport mirror = runSimulation(seed, randoms, true, 0, null, null, false);
+		SimulationReport pair = emptyReport();
+		pair.sumSimulation(run);
+		pair.sumSimulation(mirror);
+		pair.averageResults(2);
+		pair.resetReplications();
+		pair.recordReplication();
+		pair.unpaired = emptyReport();
+		pair.unpaired.sumSimulation(run);
+		pair.unpaired.sumSimulation(mirror);
+		return pair;
+	}
+	
+	public SimulationReport runSimulation(long randomSeed, int totalRandoms) {
+		return runSimulation(randomSeed, totalRandoms, false, 0, null, null, false);
+	}
+	
+	/* mirror: uses the antithetic variates of the seed's random numbers.
+	 * If intervals > 1, the run is split into that many intervals using about the same
+	 * number of random numbers each (fewer if an event uses up more than one interval),
+	 * and the report of every interval, with the results of that interval only, is added to
+	 * intervalReports. The returned report is the one of the last interval.
+	 * If from is not null, the run goes on from that snapshot instead of an empty system,
+	 * with the seed and mirror of the snapshot: with the randoms left in the snapshot and its
+	 * statistics so far to resume it, or with totalRandoms and no statistics to fork it. */
+	private SimulationReport runSimulation(long randomSeed, int totalRandoms, boolean mirror, int intervals,
+			ArrayList<SimulationReport> intervalReports, Snapshot from, boolean fork) {
+		
+		if(rare != null) { //Rare-event mode, which simulates the run as many trials
+			if(intervals > 1 || from != null || engineProcesses > 0 || trackClients
+					|| trace != null || sampler != null || metrics != null || checkpointFile != null) {
+				throw new IllegalStateException("The rare event mode can't be used with batches, snapshots, "
+						+ "the parallel engine, latency, trace, sample, monitor or checkpoint.");
+			}
+			return rare.run(qs, firstArrivals, calendar, overflowState, randomSeed,
+					seed -> new RandomStreams(generator, generatorBlock, seed, perQueueStreams, mirror, qs), totalRandoms);
+		}
+		
+		//State of every queue for this run, indexed by QueueStructure.index
+		QueueState[] states = new QueueState[qs.size()];
+		for(int i=0; i<qs.size(); i++) {
+			states[i] = new QueueState(qs.get(i), overflowState);
+		}
+		
+		if(engineProcesses > 0) { //Parallel engine, always with one random stream per queue
+			if(intervals > 1) {
+				throw new IllegalStateException("The parallel engine can't split a run into intervals (batches).");
+			}
+			if(trackClients) {
+				throw new IllegalStateException("The parallel engine can't measure waiting and response times (latency).");
+			}
+			RandomStreams streams = new RandomStreams(generator, generatorBlock, randomSeed, true, mirror, qs);
+			double end = new ParallelEngine(qs, firstArrivals, engineProcesses, calendar).run(states, streams, totalRandoms);
+			for(QueueState q : states) {
+				q.flush(end);
+			}
+			return makeReport(states, null, end, false);
+		}
 		
 		//Event schedule
-		Comparator<ScheduleEntry> schComparator = new ScheduleEntry();
-		PriorityQueue<ScheduleEntry> schedule = new PriorityQueue<>(schComparator);
-		//First arrivals are offered to the schedule
-        for(ScheduleEntry se : firstArrivals) {
-        	schedule.offer(se);
-        }
-               
-        RNG rng = new RNG(randomSeed);
+		EventCalendar schedule = EventCalendar.create(calendar);
+        RandomStreams rng = new RandomStreams(generator, generatorBlock, randomSeed, perQueueStreams, mirror, qs);
+        ClientTracker clients = trackClients ? new ClientTracker(states.length) : null;
         double time = 0;
+        int initialRandoms = totalRandoms;
+        if(from == null) {
+        	//First arrivals are offered to the schedule
+        	for(ScheduleEntry se : firstArrivals) {
+        		schedule.offer(se.time, se.event.ordinal(), -1, se.destination.index);
+        	}
+        } else {
+        	try {
+        		from.restore(states, schedule, rng, clients, fork);
+        	} catch(IOException e) {
+        		throw new UncheckedIOException(e);
+        	}
+        	time = from.time;
+        	if(fork) {
+        		totalRandoms -= startAddedServers(from, states, schedule, time, rng, clients);
+        	} else {
+        		initialRandoms = from.initialRandoms;
+        		totalRandoms = from.remainingRandoms;
+        	}
+        }
+        //Tracing costs a single null check per event when it is off
+        EventTrace.Ring ring = trace != null ? trace.ring() : null;
+        int traceFlags = mirror ? EventTrace.MIRROR : 0;
+        boolean lost = false;
+        SimulationMetrics.Run live = metrics != null ? metrics.startRun(states) : null;
+        TimeSeriesSampler.Run samples = sampler != null ? sampler.run(randomSeed, mirror, states) : null;
+        GradientEstimator.Run gradients = gradient != null ? gradient.run(randomSeed, mirror, states) : null;
+        if(samples != null && from != null) {
+        	samples.start(time);
+        }
+        
+        int interval = 0;
+        double intervalStart = fork ? time : 0;
+        //Value of totalRandoms at which the current interval ends
+        int nextBoundary = intervals > 1 ? intervalBoundary(initialRandoms, intervals, 0) : Integer.MIN_VALUE;
+        //Value of totalRandoms at which the next checkpoint is written
+        int nextCheckpoint = checkpointFile != null && checkpointEvery > 0 ? totalRandoms - checkpointEvery : Integer.MIN_VALUE;
         
         while(totalRandoms > 0) {
             
             //Process next scheduled event
-            ScheduleEntry se = schedule.poll();
-            double timeDelta = se.time-time;
-            for(QueueStructure q : qs) {
-            	q.updateQueueTimes(timeDelta);
+            schedule.poll();
+            if(samples != null) {
+            	samples.advance(schedule.time());
             }
+            int event = schedule.event();
+            double timeDelta = schedule.time()-time;
             time += timeDelta; //update simulation clock
+            lost = false;
+            if(gradients != null) {
+            	gradients.event(time, event, schedule.origin(), schedule.destination());
+            }
             
             
-            if(se.event == EventEnum.ARRIVAL) {
-                QueueStructure dest = se.destination;
+            if(event == ARRIVAL) {
+                QueueState dest = states[schedule.destination()];
             	if(!dest.isFull()) { //Queue can receive the client
-                    dest.addClient();
+                    dest.addClient(time);
+                    if(clients != null) {
+                    	clients.arrive(dest.queue.index, time, time);
+                    }
                     if(dest.canServeOnArrival()) { //Queue can serve the client
-                        totalRandoms -= scheduleDeparture(schedule, dest, time, rng);
+                        totalRandoms -= scheduleDeparture(schedule, dest.queue, time, rng, clients, gradients);
                     }
                 } else { //Queue full
                     dest.clientsLost++;
+                    lost = true;
                 }
-                scheduleArrival(schedule, dest, time, rng);
+                scheduleArrival(schedule, dest.queue, time, rng, gradients);
                 totalRandoms--;
             
             
             
-            } else if(se.event == EventEnum.PASSAGE) {
-            	QueueStructure ori = se.origin;
-            	QueueStructure dest = se.destination;
-            	ori.removeClient();
+            } else if(event == PASSAGE) {
+            	QueueState ori = states[schedule.origin()];
+            	QueueState dest = states[schedule.destination()];
+            	ori.removeClient(time);
+            	double entry = clients != null ? clients.depart(ori.queue.index, time) : 0;
                 if(ori.canServeOnDeparture()) { //Origin can serve another client.
-                	totalRandoms -= scheduleDeparture(schedule, ori, time, rng);
+                	totalRandoms -= scheduleDeparture(schedule, ori.queue, time, rng, clients, gradients);
                 }
                 if(!dest.isFull()) { //Destination can take another client.
-                	dest.addClient();
+                	dest.addClient(time);
+                	if(clients != null) {
+                		clients.arrive(dest.queue.index, time, entry);
+                	}
                 	if(dest.canServeOnArrival()) { //Destination can serve another client.
-                		totalRandoms -= scheduleDeparture(schedule, dest, time, rng);
+                		totalRandoms -= scheduleDeparture(schedule, dest.queue, time, rng, clients, gradients);
                 	}
             	} else { //Destination full. Client lost.
             		dest.clientsLost++;
+            		lost = true;
             	}
             
             
                 
             } else { //It's a departure
-            	QueueStructure ori = se.origin;
-            	ori.removeClient();
+            	QueueState ori = states[schedule.origin()];
+            	ori.removeClient(time);
+            	if(clients != null) {
+            		clients.exit(time, clients.depart(ori.queue.index, time));
+            	}
             	if(ori.canServeOnDeparture()) { //Can serve one more client
-            		totalRandoms -= scheduleDeparture(schedule, ori, time, rng);
+            		totalRandoms -= scheduleDeparture(schedule, ori.queue, time, rng, clients, gradients);
+            	}
+            }
+            
+            if(live != null && live.count(event)) {
+            	live.publish(time, initialRandoms - totalRandoms, schedule.size());
+            }
+            if(samples != null) {
+            	samples.count(schedule.origin(), schedule.destination(), lost);
+            }
+            if(ring != null) {
+            	int o = schedule.origin(), d = schedule.destination();
+            	ring.record(time, randomSeed, event, lost ? traceFlags | EventTrace.LOST : traceFlags, o, d,
+            			o >= 0 ? states[o].size() : -1, d >= 0 ? states[d].size() : -1);
+            }
+            
+            if(totalRandoms <= nextBoundary) { //End of an interval
+            	for(QueueState q : states) {
+            		q.flush(time);
+            	}
+            	intervalReports.add(makeReport(states, clients, time - intervalStart, true));
+            	for(QueueState q : states) {
+            		q.resetStatistics();
             	}
+            	if(clients != null) {
+            		clients.times.clear();
+            	}
+            	intervalStart = time;
+            	interval++;
+            	nextBoundary = interval < intervals-1 ?
+            			intervalBoundary(initialRandoms, intervals, interval) : Integer.MIN_VALUE;
+            }
+            
+            if(totalRandoms <= nextCheckpoint && totalRandoms > 0) {
+            	checkpoint(randomSeed, mirror, initialRandoms, totalRandoms, time, states, schedule, rng, clients);
+            	nextCheckpoint -= checkpointEvery;
             }
         }
         
-        //Simulation finished. Make report.
-        ArrayList<ArrayList<Double>> qTimes = new ArrayList<>();
+        if(checkpointFile != null) {
+        	checkpoint(randomSeed, mirror, initialRandoms, totalRandoms, time, states, schedule, rng, clients);
+        }
+        
+        if(ring != null) {
+        	trace.release(ring);
+        }
+        if(live != null) {
+        	metrics.finish(live, time, initialRandoms - totalRandoms, schedule.size());
+        }
+        if(samples != null) {
+        	samples.finish(time);
+        }
+        
+        //Simulation finished. Account for the time spent in the last state of each queue.
+        for(QueueState q : states) {
+        	q.flush(time);
+        }
+        if(gradients != null) {
+        	gradients.finish(time);
+        }
+        
+        SimulationReport sr = makeReport(states, clients, time - intervalStart, false);
+        if(intervalReports != null) {
+        	intervalReports.add(sr);
+        }
+        return sr;
+	}
+	
+	/* Writes a Snapshot of a run to the checkpoint file, or to the file of its seed
+	 * (<file>.<seed>, with an "a" after the seed for the antithetic run) when there are several runs. */
+	private void checkpoint(long seed, boolean mirror, int initialRandoms, int remainingRandoms, double time,
+			QueueState[] states, EventCalendar schedule, RandomStreams rng, ClientTracker clients) {
+		String file = checkpointFile;
+		if(plannedRuns() > 1) {
+			file += "." + seed + (mirror ? "a" : "");
+		}
+		try {
+			Snapshot.write(file, this, seed, mirror, generator, generatorBlock, perQueueStreams,
+					initialRandoms, remainingRandoms, time, states, schedule, rng, clients);
+		} catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+	
+	/* Queues of a fork with more servers than in the snapshot's model start serving the
+	 * clients waiting for them. Returns the randoms used. */
+	private int startAddedServers(Snapshot from, QueueState[] states, EventCalendar schedule, double time,
+			RandomStreams rng, ClientTracker clients) {
+		int randomsUsed = 0;
+		for(int i=0; i<states.length; i++) {
+			QueueState q = states[i];
+			int busy = Math.min(q.size(), from.model.queues.get(i).servers);
+			for(int k=busy; k<Math.min(q.size(), q.queue.servers); k++) {
+				randomsUsed += scheduleDeparture(schedule, q.queue, time, rng, clients, null);
+			}
+		}
+		return randomsUsed;
+	}
+	
+	/* Value of the remaining randoms at the end of the given interval. */
+	private static int intervalBoundary(int totalRandoms, int intervals, int interval) {
+		return totalRandoms - (int)((long)totalRandoms * (interval+1) / intervals);
+	}
+	
+	/* Report of one run (or interval of a run) with the current statistics of the queues,
+	 * and of the clients if they are tracked (clients is not null).
+	 * If copy is false the report uses the queues' histograms themselves. */
+	private SimulationReport makeReport(QueueState[] states, ClientTracker clients, double time, boolean copy) {
+        StateHistogram[] qTimes = new StateHistogram[qs.size()];
         double[] clientsLost = new double[qs.size()];
         String[] queueIDs = new String[qs.size()];
         for(int i=0; i<qs.size(); i++) {
         	queueIDs[i] = qs.get(i).id;
-        	qTimes.add(qs.get(i).stateTimes);
-        	clientsLost[i] = qs.get(i).clientsLost;
+        	qTimes[i] = copy ? states[i].stateTimes.copy() : states[i].stateTimes;
+        	clientsLost[i] = states[i].clientsLost;
         }
         
         SimulationReport sr = new SimulationReport(queueIDs, time, qTimes, clientsLost);
-        
-        //Reset the state of all queues.
-        for(QueueStructure q : qs) {
-        	q.resetSimulationVariables();
+        if(clients != null) {
+        	sr.responseTimes = copy ? clients.times.copy() : clients.times;
         }
-        
+        sr.recordReplication();
         return sr;
 	}
 	
-	private void scheduleArrival(PriorityQueue<ScheduleEntry> schedule, QueueStructure destination, double time, RNG rng) {
-		double randomNumber = rng.next();
-		double eventTime = time + (destination.arrivalMax-destination.arrivalMin) * randomNumber + destination.arrivalMin;
-		schedule.offer(ScheduleEntry.newArrival(eventTime, destination));
+	private void scheduleArrival(EventCalendar schedule, QueueStructure destination, double time, RandomStreams rng,
+			GradientEstimator.Run gradients) {
+		double randomNumber = rng.arrival(destination.index).next();
+		double eventTime = destination.arrival.after(time, randomNumber);
+		if(gradients != null) {
+			gradients.arrival(destination.index, randomNumber, eventTime);
+		}
+		schedule.offer(eventTime, ARRIVAL, -1, destination.index);
 	}
 	
-	private int scheduleDeparture(PriorityQueue<ScheduleEntry> schedule, QueueStructure origin, double time, RNG rng) {
+	private int scheduleDeparture(EventCalendar schedule, QueueStructure origin, double time, RandomStreams rng,
+			ClientTracker clients, GradientEstimator.Run gradients) {
 		//Define event time
-		double randomNumber = rng.next();
+		double randomNumber = rng.service(origin.index).next();
 		int randomsUsed = 1;
-		double eventTime = time + (origin.serviceMax-origin.serviceMin) * randomNumber + origin.serviceMin;
+		double eventTime = origin.service.after(time, randomNumber);
+		if(clients != null) {
+			clients.startService(origin.index, time, eventTime);
+		}
 		
-		QueueStructure dest = null;
+		int dest;
 		/* If more than one possible destination, roll the probabilities.
-		 * This consumes an extra random number. */
+		 * This consumes an extra random number. The alias table chooses the
+		 * destination in constant time, however many destinations there are. */
 		if(origin.destinations.size()>1) {
-			double randomProb = rng.next();
+			dest = origin.routing.next(rng.routing(origin.index).next());
 			randomsUsed++;
-			double prob = 0;
-			/* Probability check works like this:
-			 * Add p1 to prob. Check if random is lower. If not, add p2 to prob and check again.
-			 * If not, add p3 and check again and so on. If at any check the random is lower,
-			 * the corresponding destination is chosen.*/
-			for(int i = 0; i<origin.destinationProbs.size(); i++) {
-				prob += origin.destinationProbs.get(i);
-				if(randomProb < prob) {
-					dest = origin.destinations.get(i);
-					break;
-				}
-			}
 		
 		// Else there's only one possible destination
 		} else {
-			dest = origin.destinations.get(0);
+			dest = origin.destinations.get(0).index;
+		}
+		if(gradients != null) {
+			gradients.service(origin.index, randomNumber, eventTime, dest);
 		}
 		
 		//Generate schedule events accordingly
-		if(dest == QueueStructure.EXIT) {//Departure from the system
-			schedule.offer(ScheduleEntry.newDeparture(eventTime, origin));
+		if(dest == QueueStructure.EXIT.index) {//Departure from the system
+			schedule.offer(eventTime, EventEnum.DEPARTURE.ordinal(), origin.index, QueueStructure.EXIT.index);
 		} else { //Passage from one queue to another
-			schedule.offer(ScheduleEntry.newPassage(eventTime, origin, dest));
+			schedule.offer(eventTime, PASSAGE, origin.index, dest);
 		}
 		
 		return randomsUsed;
@@ -195,45 +948,31 @@ public class QueueSim {
 	// File parsing methods
     //===========================================================
 	
+	/* Reads the file one line at a time. Files written by compile are recognized by
+	 * their header and loaded by CompiledModel instead. */
 	private void parseFile(String fileString) throws Exception {
 		try {
 			qs = new ArrayList<>();
+			queueIndex = new HashMap<>();
 			seeds = new ArrayList<>();
 			firstArrivals = new ArrayList<>();
-			String data = new String(Files.readAllBytes(Paths.get(fileString)));
-			String[] lines = data.split("(\r\n)|\n");
-			for(int i=0; i<lines.length; i++) {
-				try {
-					String s = lines[i];
-					if(s.length()==0 || s.charAt(0)=='#') { //Empty or comment line
-						continue;
-						
-					} else if(s.charAt(0)=='q') { //Line defines a queue
-						qs.add(createQueue(s));
-						
-					} else if(s.charAt(0)=='d'){ //Line defines a destination
-						int beginning = s.indexOf(':');
-						defineDestination(qs, s.substring(beginning+1));
-						
-					} else if(s.charAt(0)=='s') { //Line defines seeds for the rng
-						int beginning = s.indexOf(':');
-						defineSeeds(s.substring(beginning+1));
-					
-					} else if(s.charAt(0)=='r') { //Line defines the amount of randoms to be used
-						int beginning = s.indexOf(':');
-						randoms = Integer.parseInt(s.substring(beginning+1).trim());
-						
-					} else if(s.charAt(0)=='f') { //Line defines the first arrivals for the queues
-						int beginning = s.indexOf(':');
-						defineFirstArrivals(s.substring(beginning+1));
-						
-					} else { //Sintax error
-						throw new Exception(
-								"Non empty line contains invalid syntax.");
+			optionLines = new ArrayList<>();
+			if(CompiledModel.isCompiled(fileString)) {
+				loadCompiled(CompiledModel.read(fileString));
+				return;
+			}
+			try(BufferedReader reader = new BufferedReader(
+					new InputStreamReader(Files.newInputStream(Paths.get(fileString))), 1 << 16)) {
+				String s;
+				int i = 0;
+				while((s = reader.readLine()) != null) {
+					i++;
+					try {
+						parseLine(s);
+					} catch(Exception e) {
+						throw new Exception(String.format(
+								"Exception thrown during file parsing (file line: %d): %s", i, e.toString()));
 					}
-				} catch(Exception e) {
-					throw new Exception(String.format(
-							"Exception thrown during file parsing (file line: %d): %s", i+1, e.toString()));
 				}
 			}
 			
@@ -246,18 +985,191 @@ public class QueueSim {
 		}
 	}
 	
+	private void parseLine(String s) throws Exception {
+		if(s.length()==0 || s.charAt(0)=='#') { //Empty or comment line
+			return;
+			
+		} else if(s.charAt(0)=='q') { //Line defines a queue
+			QueueStructure q = createQueue(s);
+			q.index = qs.size();
+			qs.add(q);
+			queueIndex.putIfAbsent(q.id, q);
+			return;
+			
+		} else if(s.charAt(0)=='d'){ //Line defines a destination
+			int beginning = s.indexOf(':');
+			defineDestination(qs, s.substring(beginning+1));
+			return;
+			
+		} else if(s.startsWith("sample")) { //Line defines the sampling of the queues during the runs
+			int beginning = s.indexOf(':');
+			defineSampling(s.substring(beginning+1));
+			
+		} else if(s.startsWith("solver")) { //Line asks for the exact results
+			int beginning = s.indexOf(':');
+			defineSolver(s.substring(beginning+1).trim());
+			
+		} else if(s.charAt(0)=='s') { //Line defines seeds for the rng
+			int beginning = s.indexOf(':');
+			defineSeeds(s.substring(beginning+1));
+			return;
+		
+		} else if(s.startsWith("rare")) { //Line enables the rare-event mode
+			int beginning = s.indexOf(':');
+			defineRare(s.substring(beginning+1));
+			
+		} else if(s.charAt(0)=='r') { //Line defines the amount of randoms to be used
+			int beginning = s.indexOf(':');
+			randoms = Integer.parseInt(s.substring(beginning+1).trim());
+			return;
+			
+		} else if(s.charAt(0)=='e') { //Line defines the simulation engine
+			int beginning = s.indexOf(':');
+			defineEngine(s.substring(beginning+1));
+			
+		} else if(s.charAt(0)=='f') { //Line defines the first arrivals for the queues
+			int beginning = s.indexOf(':');
+			defineFirstArrivals(s.substring(beginning+1));
+			return;
+			
+		} else if(s.charAt(0)=='a') { //Line enables antithetic variates
+			int beginning = s.indexOf(':');
+			setAntithetic(parseYesNo(s.substring(beginning+1).trim()));
+			
+		} else if(s.charAt(0)=='b') { //Line defines the batches of the steady-state mode
+			int beginning = s.indexOf(':');
+			String[] params = stripWhitespace(s.substring(beginning+1)).split("/");
+			double warmup = params.length < 2 || params[1].equals("mser") ? -1 : Double.parseDouble(params[1]);
+			setSteadyState(Integer.parseInt(params[0]), warmup);
+			
+		} else if(s.startsWith("checkpoint")) { //Line defines the snapshots written during the runs
+			int beginning = s.indexOf(':');
+			defineCheckpoint(s.substring(beginning+1));
+			
+		} else if(s.charAt(0)=='c') { //Line defines the event calendar implementation
+			int beginning = s.indexOf(':');
+			setCalendar(s.substring(beginning+1).trim());
+			
+		} else if(s.startsWith("gradient")) { //Line asks for the derivatives of the results
+			int beginning = s.indexOf(':');
+			defineGradient(s.substring(beginning+1));
+			
+		} else if(s.charAt(0)=='g') { //Line defines the random number generator
+			int beginning = s.indexOf(':');
+			defineGenerator(s.substring(beginning+1));
+			
+		} else if(s.charAt(0)=='h') { //Line defines the limit of the state time histograms
+			int beginning = s.indexOf(':');
+			setOverflowState(Integer.parseInt(s.substring(beginning+1).trim()));
+			
+		} else if(s.charAt(0)=='p') { //Line defines the precision target for sequential stopping
+			int beginning = s.indexOf(':');
+			definePrecision(s.substring(beginning+1));
+			
+		} else if(s.charAt(0)=='v') { //Line defines a parameter varied by the sweep
+			int beginning = s.indexOf(':');
+			sweep.add(ParameterSweep.parseDimension(s.substring(beginning+1), qs));
+			
+		} else if(s.charAt(0)=='l') { //Line enables the waiting and response times of the clients
+			int beginning = s.indexOf(':');
+			trackClients = parseYesNo(s.substring(beginning+1).trim());
+			
+		} else if(s.charAt(0)=='m') { //Line enables the live metrics
+			int beginning = s.indexOf(':');
+			defineMonitor(s.substring(beginning+1).trim());
+			
+		} else if(s.charAt(0)=='w') { //Line defines the worker processes running the seeds
+			int beginning = s.indexOf(':');
+			defineWorkers(s.substring(beginning+1));
+			
+		} else if(s.startsWith("optimize")) { //Line searches the cheapest configuration of the sweep
+			int beginning = s.indexOf(':');
+			optimizeSpec = s.substring(beginning+1).trim();
+			
+		} else if(s.charAt(0)=='o') { //Line defines the output file of the sweep
+			int beginning = s.indexOf(':');
+			sweepOutput = s.substring(beginning+1).trim();
+			
+		} else if(s.startsWith("trace")) { //Line defines the file the events are traced to
+			int beginning = s.indexOf(':');
+			traceFile = s.substring(beginning+1).trim();
+			
+		} else if(s.charAt(0)=='t') { //Line defines the number of threads running the seeds
+			int beginning = s.indexOf(':');
+			defineThreads(s.substring(beginning+1).trim());
+			
+		} else { //Sintax error
+			throw new Exception(
+					"Non empty line contains invalid syntax.");
+		}
+		//Simulation options are kept as written, to be stored with a compiled model
+		optionLines.add(s);
+	}
+	
+	/* Same as s.replaceAll("\\s", ""), without the regular expression. */
+	private static String stripWhitespace(String s) {
+		StringBuilder sb = null;
+		for(int i=0; i<s.length(); i++) {
+			char c = s.charAt(i);
+			boolean space = c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == '\u000B';
+			if(space && sb == null) {
+				sb = new StringBuilder(s.length());
+				sb.append(s, 0, i);
+			} else if(!space && sb != null) {
+				sb.append(c);
+			}
+		}
+		return sb == null ? s : sb.toString();
+	}
+	
+	/* Writes the parsed model (queues, routing, seeds, randoms, first arrivals and the
+	 * simulation options) to a binary file that loads much faster than the text, see CompiledModel. */
+	public void compile(String output) throws IOException {
+		CompiledModel.write(output, qs, seeds, randoms, firstArrivals, optionLines);
+	}
+	
+	void compile(OutputStream out) throws IOException {
+		CompiledModel.write(out, qs, seeds, randoms, firstArrivals, optionLines);
+	}
+	
+	private void loadCompiled(CompiledModel model) throws Exception {
+		qs = model.queues;
+		for(QueueStructure q : qs) {
+			queueIndex.putIfAbsent(q.id, q);
+		}
+		seeds = model.seeds;
+		randoms = model.randoms;
+		firstArrivals = model.firstArrivals;
+		for(String s : model.options) {
+			parseLine(s);
+		}
+	}
+	
+	/* Syntax: <id>: <servers>/<capacity>/<arrivalMin>/<arrivalMax>/<serviceMin>/<serviceMax>
+	 *     or: <id>: <servers>/<capacity>/<arrival distribution>/<service distribution>
+	 * with distributions as in Distribution.parse. */
 	private QueueStructure createQueue(String s) throws Exception {
 		
-			String[] splitOnColon = s.replaceAll("\\s", "").split(":");
-			String[] params = splitOnColon[1].split("/");
+			s = stripWhitespace(s);
+			int colon = s.indexOf(':');
+			String[] params = splitOutsideParentheses(s.substring(colon+1), '/');
 			int capacity;
 			if(params[1].equals("inf")) {
 				capacity = Integer.MAX_VALUE;
 			} else {
 				capacity = Integer.parseInt(params[1]);
 			}
+			if(params.length == 4) {
+				return new QueueStructure(
+						s.substring(0, colon), //id
+						Integer.parseInt(params[0]), //servers
+						capacity,
+						Distribution.parse(params[2]), //arrival
+						Distribution.parse(params[3]), //service
+						null); //destinations
+			}
 			return new QueueStructure(
-					splitOnColon[0], //id
+					s.substring(0, colon), //id
 					Integer.parseInt(params[0]), //servers
 					capacity,
 					Double.parseDouble(params[2]), //arrivalMin
@@ -267,15 +1179,38 @@ public class QueueSim {
 					null); //destinations
 	}
 	
+	/* Splits s at every separator that is not inside parentheses, so that the arguments
+	 * of a distribution (a file name, for instance) may contain it. */
+	private static String[] splitOutsideParentheses(String s, char separator) {
+		ArrayList<String> parts = new ArrayList<>();
+		int depth = 0, start = 0;
+		for(int i=0; i<s.length(); i++) {
+			char c = s.charAt(i);
+			if(c == '(') {
+				depth++;
+			} else if(c == ')') {
+				depth--;
+			} else if(c == separator && depth == 0) {
+				parts.add(s.substring(start, i));
+				start = i+1;
+			}
+		}
+		parts.add(s.substring(start));
+		return parts.toArray(new String[0]);
+	}
+	
 	private void defineDestination(ArrayList<QueueStructure> qs, String s) throws Exception {
-		String[] connectedQs = s.split("(->)");
+		int arrow = s.indexOf("->");
+		if(arrow < 0) {
+			throw new Exception("Destinations must be written as <queue> -> <destination>/<probability> [, ...].");
+		}
 		
 		//Defines the origin queue whose destinations are being parsed
-		String originName = connectedQs[0].trim();
+		String originName = s.substring(0, arrow).trim();
 		QueueStructure origin = findQueue(qs, originName);
 		
 		//Parse destinations
-		String[] destinations = connectedQs[1].split(",");
+		String[] destinations = s.substring(arrow+2).split(",");
 		//Add each destination with it's corresponding routing probability to the origin object
 		for(String d : destinations) {
 			QueueStructure dest = null;
@@ -291,31 +1226,201 @@ public class QueueSim {
 		}
 		double sum = 0.0;
 		for(double p : origin.destinationProbs) {
+			if(p < 0) {
+				throw new Exception("Routing probabilities can't be negative.");
+			}
 			sum += p;
 		}
-		if(sum != 1.0) {
+		/* Probabilities written with a few decimal places rarely add up to exactly 1
+		 * in floating point, especially with many destinations, so allow for rounding. */
+		if(Math.abs(sum - 1.0) > PROBABILITY_TOLERANCE) {
 			throw new Exception("The sum of all routing probabilities in a queue must equal 1.");
 		}
+		origin.buildRoutingTable();
 	}
 	
 	private QueueStructure findQueue(ArrayList<QueueStructure> qs, String name) throws Exception{
-		for(QueueStructure q : qs) {
-			if(q.id.equals(name)) return q;
-		}
+		QueueStructure q = queueIndex.get(name);
+		if(q != null) return q;
 		throw new Exception(String.format(
 				"Queue \"%s\" does not exist or wasn't previously defined in input file.", name));
 		
 	}
 	
 	private void defineSeeds(String str) {
-		String[] longsString = str.replaceAll("\\s", "").split(",");
+		String[] longsString = stripWhitespace(str).split(",");
 		for(String s : longsString) {
 			seeds.add(Long.parseLong(s));
 		}
 	}
 	
+	/* Syntax: <generator> [/ <block size>] [/ perqueue] */
+	private void defineGenerator(String str) throws Exception {
+		String[] params = stripWhitespace(str).split("/");
+		int blockSize = 0;
+		boolean perQueue = false;
+		for(int i=1; i<params.length; i++) {
+			if(params[i].equals("perqueue")) {
+				perQueue = true;
+			} else {
+				blockSize = Integer.parseInt(params[i]);
+			}
+		}
+		setGenerator(params[0], blockSize, perQueue);
+	}
+	
+	/* Accepts "jmx" (JMX only) or the number of seconds between console lines. */
+	private void defineMonitor(String str) {
+		if(str.equals("jmx")) {
+			monitorSeconds = 0;
+		} else {
+			monitorSeconds = Integer.parseInt(str);
+			if(monitorSeconds < 1) {
+				throw new IllegalArgumentException("Seconds between metrics lines must be at least 1.");
+			}
+		}
+	}
+	
+	/* Syntax: <interval> [/ <file>] */
+	private void defineSampling(String str) {
+		String[] params = str.split("/", 2);
+		sampleInterval = Double.parseDouble(params[0].trim());
+		if(!(sampleInterval > 0)) {
+			throw new IllegalArgumentException("Sampling interval must be greater than 0.");
+		}
+		if(params.length > 1) {
+			sampleFile = params[1].trim();
+		}
+	}
+	
+	/* Syntax: <queue> / <retrials> / <level> [, <level>]* */
+	private void defineRare(String str) throws Exception {
+		String[] params = stripWhitespace(str).split("/");
+		if(params.length != 3) {
+			throw new Exception("Rare-event mode must be written as <queue> / <retrials> / <levels>.");
+		}
+		QueueStructure q = queueIndex.get(params[0]);
+		if(q == null) {
+			throw new Exception(String.format(
+					"Queue \"%s\" does not exist or wasn't previously defined in input file.", params[0]));
+		}
+		String[] list = params[2].split(",");
+		int[] levels = new int[list.length];
+		for(int i=0; i<list.length; i++) {
+			levels[i] = Integer.parseInt(list[i]);
+		}
+		rare = new RestartSplitting(q, Integer.parseInt(params[1]), levels);
+	}
+	
+	/* Syntax: <parameter> [, <parameter>]* [/ <file>], see GradientEstimator */
+	private void defineGradient(String str) {
+		String[] params = str.split("/", 2);
+		gradientSpec = params[0].trim();
+		if(gradientSpec.isEmpty()) {
+			throw new IllegalArgumentException("At least one parameter must be given for the derivatives.");
+		}
+		if(params.length > 1) {
+			gradientFile = params[1].trim();
+		}
+	}
+	
+	/* Syntax: <randoms> [/ <file>] */
+	private void defineCheckpoint(String str) {
+		String[] params = str.split("/", 2);
+		checkpointEvery = Integer.parseInt(params[0].trim());
+		if(checkpointEvery < 0) {
+			throw new IllegalArgumentException("Randoms between checkpoints can't be negative.");
+		}
+		checkpointFile = params.length > 1 ? params[1].trim() : "checkpoint.qsc";
+	}
+	
+	private void defineSolver(String str) {
+		if(!str.equals("analytic") && !str.equals("compare")) {
+			throw new IllegalArgumentException("Solver must be analytic or compare.");
+		}
+		solver = str;
+	}
+	
+	/* Syntax: sequential | parallel / <logical processes> */
+	private void defineEngine(String str) {
+		String[] params = stripWhitespace(str).split("/");
+		if(params[0].equals("sequential")) {
+			engineProcesses = 0;
+		} else if(params[0].equals("parallel") && params.length > 1) {
+			engineProcesses = Integer.parseInt(params[1]);
+			if(engineProcesses < 1) {
+				throw new IllegalArgumentException("Number of logical processes must be at least 1.");
+			}
+		} else {
+			throw new IllegalArgumentException("Engine must be sequential or parallel / <logical processes>.");
+		}
+	}
+	
+	/* Syntax: <number of workers started> [/ <port>] */
+	private void defineWorkers(String str) {
+		String[] params = stripWhitespace(str).split("/");
+		int n = Integer.parseInt(params[0]);
+		int port = params.length > 1 ? Integer.parseInt(params[1]) : 0;
+		if(n < 0 || port < 0 || port > 65535) {
+			throw new IllegalArgumentException("Number of workers and port can't be negative.");
+		}
+		if(n == 0 && port == 0) {
+			throw new IllegalArgumentException("Without workers started by the simulator a port must be given.");
+		}
+		workers = n;
+		workerPort = port;
+	}
+	
+	private static boolean parseYesNo(String str) throws Exception {
+		if(str.equals("yes")) {
+			return true;
+		} else if(str.equals("no")) {
+			return false;
+		}
+		throw new Exception("Expected yes or no.");
+	}
+	
+	/* Accepts a positive number or "auto", meaning one thread per available processor. */
+	private void defineThreads(String str) {
+		if(str.equals("auto")) {
+			setThreads(Runtime.getRuntime().availableProcessors());
+		} else {
+			setThreads(Integer.parseInt(str));
+		}
+	}
+	
+	/* Syntax: <rel|abs> / <half-width> / <max simulations> [/ <metric> [, <metric>]*]
+	 * where metrics are probability, lost and time (all of them if omitted). */
+	private void definePrecision(String str) throws Exception {
+		String[] params = stripWhitespace(str).split("/");
+		boolean relative;
+		if(params[0].equals("rel")) {
+			relative = true;
+		} else if(params[0].equals("abs")) {
+			relative = false;
+		} else {
+			throw new Exception("Precision must be rel or abs.");
+		}
+		EnumSet<MetricEnum> metrics = EnumSet.allOf(MetricEnum.class);
+		if(params.length > 3) {
+			metrics = EnumSet.noneOf(MetricEnum.class);
+			for(String m : params[3].split(",")) {
+				if(m.equals("probability")) {
+					metrics.add(MetricEnum.PROBABILITY);
+				} else if(m.equals("lost")) {
+					metrics.add(MetricEnum.CLIENTS_LOST);
+				} else if(m.equals("time")) {
+					metrics.add(MetricEnum.TIME);
+				} else {
+					throw new Exception(String.format("Unknown metric \"%s\".", m));
+				}
+			}
+		}
+		setPrecision(Double.parseDouble(params[1]), relative, Integer.parseInt(params[2]), metrics);
+	}
+	
 	private void defineFirstArrivals(String str) throws Exception{
-		for(String s1 : str.replaceAll("\\s", "").split(",")) {
+		for(String s1 : stripWhitespace(str).split(",")) {
 			String[] queueAndArr = s1.split("/");
 			double time = Double.parseDouble(queueAndArr[1]);
 			QueueStructure q = findQueue(qs, queueAndArr[0]);
@@ -0,0 +1,103 @@
+/* Mutable state of one queue during one simulation run.
+ * The queue's specification (QueueStructure) is shared and read-only; every run
+ * creates its own QueueState objects, so several runs may execute at the same time. */
+public class QueueState {
+
+	public final QueueStructure queue;
+
+    /* Because the capacity of the queue can be infinite, the histogram containing
+     * the time spent on each state cannot be defined before runtime. It might grow
+     * with each client arrival. Therefore I've decided to keep currentQueueSize private
+     * and provide methods to modify it.*/
+    private int currentQueueSize;
+    // Histogram that keeps track of the amount of time the queue spent in each given state:
+    public StateHistogram stateTimes;
+    public int clientsLost;
+    /* Simulation time of the last change of state. The time spent in the current state
+     * is only added to stateTimes when the state changes (or the run ends, see flush),
+     * so events that don't touch this queue cost nothing here. */
+    private double lastChangeTime;
+
+    /* States at or above overflowState share one bucket of stateTimes,
+     * see StateHistogram. */
+    public QueueState(QueueStructure queue, int overflowState) {
+    	this.queue = queue;
+    	currentQueueSize = 0;
+		stateTimes = new StateHistogram(overflowState);
+		stateTimes.addState(0); //Add time for the beginning state 0.
+		clientsLost = 0;
+		lastChangeTime = 0;
+    }
+
+	public boolean isFull() {
+		return currentQueueSize>=queue.capacity;
+	}
+
+	public boolean canServeOnArrival() {
+		return currentQueueSize <= queue.servers;
+	}
+
+	public boolean canServeOnDeparture() {
+		return currentQueueSize >= queue.servers;
+	}
+
+	/* Increments currentQueueSize and adds another state to stateTimes if necessary.
+	 * Callers must check isFull() first. */
+	public void addClient(double time) {
+		flush(time);
+		currentQueueSize++;
+		/* If this is the first time the queue has entered this state, add the
+		 * state to the histogram of state times. */
+		stateTimes.addState(currentQueueSize);
+	}
+
+	public void removeClient(double time) {
+		flush(time);
+		currentQueueSize--;
+	}
+
+	/* Adds the time spent in the current state since the last change to stateTimes. */
+	public void flush(double time) {
+		stateTimes.add(currentQueueSize, time - lastChangeTime);
+		lastChangeTime = time;
+	}
+
+	/* Discards the statistics gathered so far (state times and clients lost),
+	 * keeping the current state. Must be called right after flush. */
+	public void resetStatistics() {
+		stateTimes.clear();
+		clientsLost = 0;
+	}
+
+	public int size() {
+		return currentQueueSize;
+	}
+	
+	double getLastChangeTime() {
+		return lastChangeTime;
+	}
+	
+	/* Puts the queue back in a state saved right before a client arrived or left (see
+	 * ParallelEngine): its size, the time of its last change, clients lost, number of
+	 * histogram buckets and the time of the bucket of that size, the only bucket an
+	 * arrival or departure changes. */
+	void restore(int size, double lastChangeTime, int clientsLost, int buckets, double bucketTime) {
+		currentQueueSize = size;
+		this.lastChangeTime = lastChangeTime;
+		this.clientsLost = clientsLost;
+		stateTimes.truncate(buckets);
+		stateTimes.setState(size, bucketTime);
+	}
+	
+	/* Puts the queue in a state saved in a Snapshot. Without stateTimes (a fork of the
+	 * snapshot) the queue keeps its own histogram, whose statistics start at lastChangeTime. */
+	void restore(int size, double lastChangeTime, int clientsLost, StateHistogram stateTimes) {
+		currentQueueSize = size;
+		this.lastChangeTime = lastChangeTime;
+		this.clientsLost = clientsLost;
+		if(stateTimes != null) {
+			this.stateTimes = stateTimes;
+		}
+		this.stateTimes.addState(size);
+	}
+}
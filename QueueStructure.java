@@ -16,85 +16,139 @@ public class QueueStructure {
     public double arrivalMax;
     public double serviceMin;
     public double serviceMax;
+    /* Distributions of the times between arrivals from outside the system and of the
+     * service times (see Distribution). The four fields above are their bounds, kept up to
+     * date by setArrival and setService (the max may be infinite). */
+    public Distribution arrival;
+    public Distribution service;
     
     // A queue may have one or more destinations for departure
     public ArrayList<QueueStructure> destinations;
     // Each destination has it's corresponding routing probability
     public ArrayList<Double> destinationProbs;
+    /* Table used to choose a destination during simulation, built from the two lists
+     * above by buildRoutingTable once all destinations are known. Chooses the index
+     * of the destination queue (EXIT.index for the system exit). */
+    public AliasTable routing;
     
-    //------------------------------------------------------------
-    // Simulation state variables
-    //------------------------------------------------------------
-    /* Because the capacity of the queue can be infinite, the list containing
-     * the time spent on each state cannot be defined before runtime. It might grow
-     * with each client arrival. Therefore I've decided to keep currentQueueSize private
-     * and provide methods to modify it.*/
-    private int currentQueueSize;
-    // List that keeps track of the amount of time the queue spent in each given state:
-    public ArrayList<Double> stateTimes;
-    public int clientsLost;
+    /* Position of this queue in the simulator's queue list. Per-run state
+     * (see QueueState) is kept in arrays indexed by this value, so that the
+     * topology itself is never modified during a simulation and can be
+     * shared by replications running at the same time. */
+    public int index = -1;
     
 	public QueueStructure(String id, int servers, int capacity, double arrivalMin, double arrivalMax, double serviceMin,
 			double serviceMax, ArrayList<QueueStructure> destinations) {
+		this(id, servers, capacity, new UniformDistribution(arrivalMin, arrivalMax),
+				new UniformDistribution(serviceMin, serviceMax), destinations);
+	}
+	
+	public QueueStructure(String id, int servers, int capacity, Distribution arrival, Distribution service,
+			ArrayList<QueueStructure> destinations) {
 		this.id = id;
 		this.servers = servers;
 		this.capacity = capacity;
-		this.arrivalMin = arrivalMin;
-		this.arrivalMax = arrivalMax;
-		this.serviceMin = serviceMin;
-		this.serviceMax = serviceMax;
+		setArrival(arrival);
+		setService(service);
 		if(destinations==null) {
 			this.destinations = new ArrayList<>();
 		} else {
 			this.destinations = destinations;
 		}
 		this.destinationProbs = new ArrayList<>();
-		resetSimulationVariables();
 	}
 	
-	public boolean isFull() {
-		return currentQueueSize>=capacity;
+	/* Copy with the same specification, index and routing (the destination lists and
+	 * the routing table are shared), whose parameters can then be changed with setParameter. */
+	public QueueStructure copy() {
+		QueueStructure q = new QueueStructure(id, servers, capacity, arrival, service, destinations);
+		q.destinationProbs = destinationProbs;
+		q.routing = routing;
+		q.index = index;
+		return q;
+	}
+	
+	public void setArrival(Distribution d) {
+		arrival = d;
+		arrivalMin = d.min();
+		arrivalMax = d.max();
 	}
 	
-	public boolean canServeOnArrival() {
-		return currentQueueSize <= servers;
+	public void setService(Distribution d) {
+		service = d;
+		serviceMin = d.min();
+		serviceMax = d.max();
 	}
 	
-	public boolean canServeOnDeparture() {
-		return currentQueueSize >= servers;
+	/* Sets a parameter by the name of its field. Capacity accepts infinity as "inf".
+	 * The bounds of the times (arrivalMin...) can only be set for uniform times; the means
+	 * (arrivalMean, serviceMean) scale any distribution. */
+	public void setParameter(String name, double value) {
+		switch(name) {
+		case "servers":
+			servers = toInt(name, value);
+			break;
+		case "capacity":
+			capacity = value == Double.POSITIVE_INFINITY ? Integer.MAX_VALUE : toInt(name, value);
+			break;
+		case "arrivalMin":
+			setArrival(new UniformDistribution(value, uniform(name, arrival).max()));
+			break;
+		case "arrivalMax":
+			setArrival(new UniformDistribution(uniform(name, arrival).min(), value));
+			break;
+		case "serviceMin":
+			setService(new UniformDistribution(value, uniform(name, service).max()));
+			break;
+		case "serviceMax":
+			setService(new UniformDistribution(uniform(name, service).min(), value));
+			break;
+		case "arrivalMean":
+			setArrival(withMean(name, arrival, value));
+			break;
+		case "serviceMean":
+			setService(withMean(name, service, value));
+			break;
+		default:
+			throw new IllegalArgumentException(String.format("Unknown queue parameter \"%s\".", name));
+		}
 	}
 	
-	/* If client can enter the queue: increments currentQueueSize, adds another state to stateTime if necessary
-	 * and returns true.
-	 * Otherwise: increments clientsLost and returns false. */
-	public void addClient() {
-		currentQueueSize++;
-		/* If this is the first time the queue has entered this state, add the
-		 * state to the list of state times. */
-		if(stateTimes.size()<currentQueueSize+1) {
-			stateTimes.add(0.0);
+	private static Distribution uniform(String name, Distribution d) {
+		if(!(d instanceof UniformDistribution)) {
+			throw new IllegalArgumentException(String.format("Parameter %s only applies to uniform times.", name));
 		}
+		return d;
 	}
 	
-	public void removeClient() {
-		currentQueueSize--;
+	private static Distribution withMean(String name, Distribution d, double mean) {
+		if(!(d.mean() > 0) || !(mean > 0)) {
+			throw new IllegalArgumentException(String.format("Parameter %s needs times with a mean greater than 0.", name));
+		}
+		return d.scaled(mean / d.mean());
 	}
 	
-	public void updateQueueTimes(double timeDelta) {
-		stateTimes.set(currentQueueSize, stateTimes.get(currentQueueSize) + timeDelta);
+	private static int toInt(String name, double value) {
+		if(value != Math.rint(value) || value < 0 || value >= Integer.MAX_VALUE) {
+			throw new IllegalArgumentException(String.format("Parameter %s must be a whole number.", name));
+		}
+		return (int) value;
 	}
 	
-	public void resetSimulationVariables() {
-		currentQueueSize = 0;
-		stateTimes = new ArrayList<>();
-		stateTimes.add(0.0); //Add time for the beginning state 0.
-		clientsLost = 0;
+	public void buildRoutingTable() {
+		int[] outcomes = new int[destinations.size()];
+		double[] weights = new double[destinations.size()];
+		for(int i=0; i<outcomes.length; i++) {
+			outcomes[i] = destinations.get(i).index;
+			weights[i] = destinationProbs.get(i);
+		}
+		routing = new AliasTable(outcomes, weights);
 	}
 	
 	public String toString() {
 		return String.format(
-				"Servers:%d\nCapacity:%d\nArrivals:%.1f to %.1f\nService:%.1f to %.1f\nTransfers clients to another queue:%b\n",
-				servers, capacity, arrivalMin, arrivalMax, serviceMin, serviceMax, (destinations!=null));
+				"Servers:%d\nCapacity:%d\nArrivals:%s\nService:%s\nTransfers clients to another queue:%b\n",
+				servers, capacity, arrival, service, (destinations!=null));
 	}
 	
 	
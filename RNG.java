@@ -1,27 +1,74 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 public class RNG {
-    private long a;
-    private long c;
-    private long m;
-    private long seed;
+    private final RandomSource source;
     
-    private long x;
+    /* Optional block of prefilled numbers: instead of calling the source on every draw,
+     * numbers are generated a block at a time with RandomSource.fill. The sequence of
+     * numbers is the same either way. */
+    private final double[] block;
+    private int position;
     
-    //Parameters based on java implementation according to wikipedia.
+    //Original generator (Lcg48), same numbers as always for a given seed.
     public RNG(long seed) {
-        a = Long.parseUnsignedLong("25214903917");
-        c = 11L;
-        m = 1L<<48;
-        this.seed = seed;
-        x = seed;
+        this(new Lcg48(seed), 0);
+    }
+    
+    /* blockSize 0 draws every number directly from the source. */
+    public RNG(RandomSource source, int blockSize) {
+        if(blockSize < 0) {
+            throw new IllegalArgumentException("Block size can't be negative.");
+        }
+        this.source = source;
+        block = blockSize > 0 ? new double[blockSize] : null;
+        position = blockSize;
     }
     
     //Return range: [0, 1)
     public double next() {
-        x = Long.remainderUnsigned(a*x+c , m);
-        //System.out.println(x);
-        double res = x/(double)m;
-        //System.out.println(res);
-        //System.out.println();
-        return res;
+        if(block == null) {
+            return source.nextDouble();
+        }
+        if(position == block.length) {
+            source.fill(block, 0, block.length);
+            position = 0;
+        }
+        return block[position++];
+    }
+    
+    public RandomSource getSource() {
+        return source;
+    }
+    
+    /* Writes the state of the source and the numbers of the block not used yet (see Snapshot). */
+    void write(DataOutput out) throws IOException {
+        long[] state = source.getState();
+        out.writeInt(state.length);
+        for(long s : state) {
+            out.writeLong(s);
+        }
+        if(block != null) {
+            out.writeInt(position);
+            for(int i=position; i<block.length; i++) {
+                out.writeDouble(block[i]);
+            }
+        }
+    }
+    
+    /* Puts back a state written by write by an RNG with the same kind of source and block size. */
+    void read(DataInput in) throws IOException {
+        long[] state = new long[in.readInt()];
+        for(int i=0; i<state.length; i++) {
+            state[i] = in.readLong();
+        }
+        source.setState(state);
+        if(block != null) {
+            position = in.readInt();
+            for(int i=position; i<block.length; i++) {
+                block[i] = in.readDouble();
+            }
+        }
     }
 }
\ No newline at end of file
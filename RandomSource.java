@@ -0,0 +1,45 @@
+/* Generator of uniform random numbers used by RNG.
+ * Implementations: Lcg48 (the original generator, same numbers as before),
+ * Xoshiro256PlusPlus and SplitMix64. */
+public interface RandomSource {
+
+	//Return range: [0, 1)
+	double nextDouble();
+
+	/* Fills buffer[from..to) with the next numbers of the sequence, in order. */
+	default void fill(double[] buffer, int from, int to) {
+		for(int i=from; i<to; i++) {
+			buffer[i] = nextDouble();
+		}
+	}
+
+	/* Number of streams given by stream(k). Limited by the period of Lcg48, whose 2^48
+	 * numbers make 2^16 streams of 2^32. */
+	int STREAMS = 1<<16;
+
+	/* Returns a new generator at the start of stream k (0 <= k < STREAMS) of this one's
+	 * sequence, k stream lengths after this one's current position, which doesn't change.
+	 * Streams don't overlap as long as none of them uses more numbers than a stream length:
+	 * 2^32 for Lcg48 and SplitMix64, 2^128 for Xoshiro256PlusPlus. */
+	RandomSource stream(int k);
+
+	/* Current state of the generator, which setState puts back (see Snapshot). */
+	long[] getState();
+
+	void setState(long[] state);
+
+	/* Creates a generator by the name used in the input file ("generator:" line). */
+	static RandomSource create(String name, long seed) {
+		switch(name) {
+		case "lcg":
+			return new Lcg48(seed);
+		case "xoshiro":
+			return new Xoshiro256PlusPlus(seed);
+		case "splitmix":
+			return new SplitMix64(seed);
+		default:
+			throw new IllegalArgumentException(String.format(
+					"Unknown random generator \"%s\". Use lcg, xoshiro or splitmix.", name));
+		}
+	}
+}
\ No newline at end of file
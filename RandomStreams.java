@@ -0,0 +1,101 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
+
+/* Random numbers of one simulation run.
+ * By default a single RNG is shared by every arrival, service and routing draw. With
+ * one stream per queue, each queue draws its interarrival times, service times and
+ * routing decisions from three dedicated streams of the run's generator (see
+ * RandomSource.stream), which don't overlap. The streams are picked by the queue's id, not
+ * its position, so two variants of a network simulated with the same seed use the same
+ * numbers for the same purpose in the queues they have in common (common random numbers),
+ * even if the variants consume numbers at different rates, which makes their results
+ * positively correlated and their difference much less noisy. */
+class RandomStreams {
+	private static final int ARRIVAL = 0;
+	private static final int SERVICE = 1;
+	private static final int ROUTING = 2;
+	private static final int PURPOSES = 3;
+
+	private final RNG shared;
+	private final RNG[] streams; //PURPOSES streams per queue index
+
+	/* mirror: uses the antithetic variates of the streams (see AntitheticSource). */
+	RandomStreams(String generator, int blockSize, long seed, boolean perQueue, boolean mirror, List<QueueStructure> qs) {
+		if(!perQueue) {
+			shared = new RNG(source(generator, seed, mirror), blockSize);
+			streams = null;
+			return;
+		}
+		shared = null;
+		streams = new RNG[PURPOSES * qs.size()];
+		RandomSource root = source(generator, seed, mirror);
+		int[] slots = slots(qs);
+		for(QueueStructure q : qs) {
+			for(int p=0; p<PURPOSES; p++) {
+				streams[PURPOSES*q.index + p] = new RNG(root.stream(PURPOSES*slots[q.index] + p), blockSize);
+			}
+		}
+	}
+
+	/* Group of PURPOSES streams of each queue, by queue index: a hash of the id, or the next
+	 * free group if an earlier queue has it already. */
+	private static int[] slots(List<QueueStructure> qs) {
+		int groups = RandomSource.STREAMS / PURPOSES;
+		if(qs.size() > groups) {
+			throw new IllegalArgumentException(String.format(
+					"One stream per queue supports up to %d queues.", groups));
+		}
+		int[] slots = new int[qs.size()];
+		boolean[] taken = new boolean[groups];
+		for(QueueStructure q : qs) {
+			int slot = (int) Long.remainderUnsigned(SplitMix64.mix64(q.id.hashCode()), groups);
+			while(taken[slot]) {
+				slot = (slot + 1) % groups;
+			}
+			taken[slot] = true;
+			slots[q.index] = slot;
+		}
+		return slots;
+	}
+
+	private static RandomSource source(String generator, long seed, boolean mirror) {
+		RandomSource s = RandomSource.create(generator, seed);
+		return mirror ? new AntitheticSource(s) : s;
+	}
+
+	RNG arrival(int queue) {
+		return shared != null ? shared : streams[PURPOSES*queue + ARRIVAL];
+	}
+
+	RNG service(int queue) {
+		return shared != null ? shared : streams[PURPOSES*queue + SERVICE];
+	}
+
+	RNG routing(int queue) {
+		return shared != null ? shared : streams[PURPOSES*queue + ROUTING];
+	}
+
+	/* Writes the state of every stream (see Snapshot). */
+	void write(DataOutput out) throws IOException {
+		if(shared != null) {
+			shared.write(out);
+			return;
+		}
+		for(RNG r : streams) {
+			r.write(out);
+		}
+	}
+
+	/* Puts back the states written by write by streams created with the same arguments. */
+	void read(DataInput in) throws IOException {
+		if(shared != null) {
+			shared.read(in);
+			return;
+		}
+		for(RNG r : streams) {
+			r.read(in);
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,97 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/* Waiting and response times of the clients of a simulation ("latency" line of the input
+ * file), kept by SimulationReport: for each queue, the time from a client's arrival to the
+ * start of its service (waiting) and to its departure (response), and the time from a
+ * client's arrival in the network to its exit (network). Gathered by ClientTracker. */
+class ResponseTimes {
+
+	//Percentiles shown in the report
+	private static final double[] PERCENTILES = {0.5, 0.99, 0.999};
+
+	final LatencyHistogram[] waiting;
+	final LatencyHistogram[] response;
+	final LatencyHistogram network;
+
+	ResponseTimes(int queues) {
+		waiting = new LatencyHistogram[queues];
+		response = new LatencyHistogram[queues];
+		for(int i=0; i<queues; i++) {
+			waiting[i] = new LatencyHistogram();
+			response[i] = new LatencyHistogram();
+		}
+		network = new LatencyHistogram();
+	}
+
+	private ResponseTimes(LatencyHistogram[] waiting, LatencyHistogram[] response, LatencyHistogram network) {
+		this.waiting = waiting;
+		this.response = response;
+		this.network = network;
+	}
+
+	/* Sums the times of the second report on this one. */
+	void merge(ResponseTimes r) {
+		for(int i=0; i<waiting.length; i++) {
+			waiting[i].merge(r.waiting[i]);
+			response[i].merge(r.response[i]);
+		}
+		network.merge(r.network);
+	}
+
+	void clear() {
+		for(int i=0; i<waiting.length; i++) {
+			waiting[i].clear();
+			response[i].clear();
+		}
+		network.clear();
+	}
+
+	ResponseTimes copy() {
+		ResponseTimes r = new ResponseTimes(waiting.length);
+		r.merge(this);
+		return r;
+	}
+
+	/* Lines of the report of queue i. */
+	void appendQueue(StringBuilder res, int i) {
+		append(res, "Waiting time", waiting[i]);
+		append(res, "Response time", response[i]);
+	}
+
+	void appendNetwork(StringBuilder res) {
+		append(res, "Response time in the network", network);
+	}
+
+	private static void append(StringBuilder res, String name, LatencyHistogram h) {
+		res.append(String.format("%s: mean %.2f", name, h.mean()));
+		for(double p : PERCENTILES) {
+			res.append(String.format("  p%s %.2f", formatPercentile(p), h.percentile(p)));
+		}
+		res.append(String.format("  max %.2f  (%d clients)\n", h.max(), h.count()));
+	}
+
+	private static String formatPercentile(double p) {
+		String s = String.valueOf(p * 100);
+		return s.endsWith(".0") ? s.substring(0, s.length()-2) : s;
+	}
+
+	void write(DataOutput out) throws IOException {
+		for(int i=0; i<waiting.length; i++) {
+			waiting[i].write(out);
+			response[i].write(out);
+		}
+		network.write(out);
+	}
+
+	static ResponseTimes read(DataInput in, int queues) throws IOException {
+		LatencyHistogram[] waiting = new LatencyHistogram[queues];
+		LatencyHistogram[] response = new LatencyHistogram[queues];
+		for(int i=0; i<queues; i++) {
+			waiting[i] = LatencyHistogram.read(in);
+			response[i] = LatencyHistogram.read(in);
+		}
+		return new ResponseTimes(waiting, response, LatencyHistogram.read(in));
+	}
+}
\ No newline at end of file
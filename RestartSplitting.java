@@ -0,0 +1,318 @@
+import java.util.List;
+import java.util.function.LongFunction;
+
+/* Rare-event mode (see the "rare" line of the input file): the RESTART splitting method
+ * (Villen-Altamirano), for networks in which one queue, the target, seldom fills up, so
+ * that its losses and the probabilities of its highest states are too rare to estimate
+ * by plain simulation.
+ * The number of clients of the target is split by increasing levels T1 < T2 < ... < TM
+ * into zones: zone k holds the states from Tk up to the next level (zone 0 the ones below T1).
+ * The run starts as a single trial, the main one. Whenever a trial enters zone k from below,
+ * retrials-1 copies of it (retrials of level k) are simulated from that moment, with their
+ * own random numbers, and each copy ends as soon as the target drops below Tk again. So the
+ * high zones, where the rare events happen, are simulated retrials^k times as often, from
+ * states the trials reached on their own, and everything that happens in zone k (the time
+ * every queue spends in each state, and the clients lost by every queue) is counted with
+ * weight 1/retrials^k. The estimates are unbiased like the ones of a plain simulation as
+ * long as the main trial, whose time is the run's time.
+ *
+ * The randoms of the run are shared by all its trials, so the effort is about the same as a
+ * plain run's: the main trial stops when they run out, but the retrials in progress are
+ * finished, since cutting them short would bias the estimates. Good levels make the target
+ * reach the next level about once for every retrials times it reaches the level before. If
+ * the target seldom drops below the levels (the event isn't rare), the retrials multiply
+ * without end, and the run stops with an error. */
+class RestartSplitting {
+
+	private static final int ARRIVAL = EventEnum.ARRIVAL.ordinal();
+	private static final int DEPARTURE = EventEnum.DEPARTURE.ordinal();
+	private static final int PASSAGE = EventEnum.PASSAGE.ordinal();
+	//Retrials finishing after the randoms of a run ran out may use this many times its randoms
+	private static final int MAX_OVERRUN = 10;
+
+	final int target; //Index of the target queue
+	private final int capacity; //Of the target queue
+	final int retrials;
+	final int[] levels;
+	private final int[] zoneBySize; //Zone of each number of clients below the last level
+
+	RestartSplitting(QueueStructure target, int retrials, int[] levels) {
+		if(retrials < 1) {
+			throw new IllegalArgumentException("Number of retrials must be at least 1.");
+		}
+		if(levels.length == 0) {
+			throw new IllegalArgumentException("At least one level must be given.");
+		}
+		for(int k=0; k<levels.length; k++) {
+			if(levels[k] < 1 || (k > 0 && levels[k] <= levels[k-1])) {
+				throw new IllegalArgumentException("Levels must be positive and increasing.");
+			}
+		}
+		if(levels[levels.length-1] > target.capacity) {
+			throw new IllegalArgumentException(String.format(
+					"Levels can't be above the capacity of queue %s.", target.id));
+		}
+		this.target = target.index;
+		capacity = target.capacity;
+		this.retrials = retrials;
+		this.levels = levels;
+		zoneBySize = new int[levels[levels.length-1]];
+		for(int s=0, k=0; s<zoneBySize.length; s++) {
+			while(s >= levels[k]) {
+				k++;
+			}
+			zoneBySize[s] = k;
+		}
+	}
+
+	/* Simulates one run of the network with the given queues, seed and randoms, drawing the
+	 * random numbers of every trial from streams created by the given function from a seed.
+	 * Returns the report of the run, with the weighted statistics. */
+	SimulationReport run(List<QueueStructure> qs, List<ScheduleEntry> firstArrivals, String calendar,
+			int overflowState, long seed, LongFunction<RandomStreams> streams, int totalRandoms) {
+		Run run = new Run(qs.size(), calendar, overflowState, seed, streams, totalRandoms);
+		QueueState[] states = new QueueState[qs.size()];
+		for(int i=0; i<states.length; i++) {
+			states[i] = new QueueState(qs.get(i), overflowState);
+			states[i].stateTimes = run.zoneTimes[0][i];
+			states[i].stateTimes.addState(0);
+		}
+		EventCalendar schedule = EventCalendar.create(calendar);
+		for(ScheduleEntry se : firstArrivals) {
+			schedule.offer(se.time, se.event.ordinal(), -1, se.destination.index);
+		}
+		double end = run.simulate(new Trial(states, schedule, streams.apply(seed), 0, 0, 0));
+
+		//Zone k is simulated retrials^k times as often
+		String[] queueIDs = new String[qs.size()];
+		StateHistogram[] stateTimes = new StateHistogram[qs.size()];
+		double[] clientsLost = new double[qs.size()];
+		for(int i=0; i<qs.size(); i++) {
+			queueIDs[i] = qs.get(i).id;
+			stateTimes[i] = new StateHistogram(overflowState);
+			double weight = 1;
+			for(int k=0; k<=levels.length; k++) {
+				StateHistogram h = run.zoneTimes[k][i].copy();
+				h.scale(weight);
+				stateTimes[i].sum(h);
+				clientsLost[i] += run.zoneLost[k][i] * weight;
+				weight /= retrials;
+			}
+		}
+		SimulationReport sr = new SimulationReport(queueIDs, end, stateTimes, clientsLost);
+		sr.recordReplication();
+		return sr;
+	}
+
+	private int zone(int size) {
+		return size < zoneBySize.length ? zoneBySize[size] : levels.length;
+	}
+
+	/* Rare-event estimates of the target queue, with their relative errors: the clients
+	 * lost per time unit and the probability of its highest state, the full queue or,
+	 * with infinite capacity, the last level. */
+	String summary(SimulationReport res) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("Rare events of queue %s (RESTART, %d retrials at", res.queueIDs[target], retrials));
+		for(int k=0; k<levels.length; k++) {
+			sb.append(k == 0 ? " " : ", ").append(levels[k]);
+		}
+		sb.append(" clients):\n");
+		StateHistogram h = res.stateTimes[target];
+		int state = Math.min(capacity == Integer.MAX_VALUE ? levels[levels.length-1] : capacity, h.getOverflowState());
+		sb.append(String.format("Clients lost per time unit: %.4e%s\n", res.clientsLost[target] / res.totalSimulationTime,
+				relativeError(res.clientsLostStats[target])));
+		double probability = state < h.size() ? h.get(state) / res.totalSimulationTime : 0;
+		RunningStat stat = state < res.probabilityStats[target].length ? res.probabilityStats[target][state] : null;
+		sb.append(String.format(h.isOverflowBucket(state) ? "Probability of state >=%d: %.4e%s" : "Probability of state %d: %.4e%s",
+				state, probability, stat != null ? relativeError(stat) : ""));
+		return sb.toString();
+	}
+
+	private static String relativeError(RunningStat s) {
+		if(s.count() < 2) {
+			return "  (relative error needs at least 2 seeds)";
+		}
+		if(s.mean() == 0) {
+			return "  (never observed)";
+		}
+		return String.format("  relative error %.2f%%", 100 * s.halfWidth(SimulationReport.CONFIDENCE) / s.mean());
+	}
+
+	/* One trial: its own copy of the queues, pending events and random numbers. */
+	private static final class Trial {
+		final QueueState[] states;
+		final EventCalendar calendar;
+		final RandomStreams rng;
+		final int level; //The trial ends when the target drops below levels[level-1] (never for 0)
+		final double start;
+		int zone; //Zone of the target, whose statistics the queues are adding to
+
+		Trial(QueueState[] states, EventCalendar calendar, RandomStreams rng, int level, double start, int zone) {
+			this.states = states;
+			this.calendar = calendar;
+			this.rng = rng;
+			this.level = level;
+			this.start = start;
+			this.zone = zone;
+		}
+	}
+
+	/* Statistics and budget of one run, shared by its trials. */
+	private final class Run {
+		//Times of the states of every queue and clients lost by it while the target was in each zone
+		final StateHistogram[][] zoneTimes;
+		final long[][] zoneLost;
+		final String calendar;
+		final long seed;
+		final LongFunction<RandomStreams> streams;
+		long remaining; //Randoms left
+		final long overrun; //Limit of the randoms used past the end, see MAX_OVERRUN
+		long retrialsStarted;
+
+		Run(int queues, String calendar, int overflowState, long seed, LongFunction<RandomStreams> streams, int randoms) {
+			zoneTimes = new StateHistogram[levels.length+1][queues];
+			zoneLost = new long[levels.length+1][queues];
+			for(StateHistogram[] zone : zoneTimes) {
+				for(int i=0; i<queues; i++) {
+					zone[i] = new StateHistogram(overflowState);
+				}
+			}
+			this.calendar = calendar;
+			this.seed = seed;
+			this.streams = streams;
+			remaining = randoms;
+			overrun = -(long) MAX_OVERRUN * randoms;
+		}
+
+		/* Simulates the main trial until the randoms run out or a retrial until the target drops
+		 * below its level, running the retrials it starts on the way. Returns the time it ended. */
+		double simulate(Trial t) {
+			QueueState[] states = t.states;
+			EventCalendar calendar = t.calendar;
+			double time = t.start;
+			while(remaining > 0 || t.level > 0) {
+				if(remaining < overrun) {
+					throw new IllegalStateException("The retrials go on long after the end of the randoms: "
+							+ "the queue doesn't drop below the levels often enough for the rare-event mode.");
+				}
+				calendar.poll();
+				time = calendar.time();
+				int event = calendar.event();
+
+				if(event == ARRIVAL) {
+					QueueState dest = states[calendar.destination()];
+					if(!dest.isFull()) {
+						dest.addClient(time);
+						if(dest.canServeOnArrival()) {
+							remaining -= scheduleDeparture(t, dest.queue, time);
+						}
+					} else {
+						dest.clientsLost++;
+					}
+					scheduleArrival(t, dest.queue, time);
+					remaining--;
+
+				} else if(event == PASSAGE) {
+					QueueState ori = states[calendar.origin()];
+					QueueState dest = states[calendar.destination()];
+					ori.removeClient(time);
+					if(ori.canServeOnDeparture()) {
+						remaining -= scheduleDeparture(t, ori.queue, time);
+					}
+					if(!dest.isFull()) {
+						dest.addClient(time);
+						if(dest.canServeOnArrival()) {
+							remaining -= scheduleDeparture(t, dest.queue, time);
+						}
+					} else {
+						dest.clientsLost++;
+					}
+
+				} else { //Departure
+					QueueState ori = states[calendar.origin()];
+					ori.removeClient(time);
+					if(ori.canServeOnDeparture()) {
+						remaining -= scheduleDeparture(t, ori.queue, time);
+					}
+				}
+
+				//Events change the target by one client at most, so zones change one at a time
+				int zone = zone(states[target].size());
+				if(zone != t.zone) {
+					boolean up = zone > t.zone;
+					enter(t, zone, time);
+					if(zone < t.level) {
+						return time;
+					}
+					if(up) {
+						for(int r=1; r<retrials; r++) {
+							simulate(retrial(t, zone, time));
+						}
+					}
+				}
+			}
+			enter(t, t.zone, time);
+			return time;
+		}
+
+		/* Adds the statistics of the trial so far to its zone's and moves it to the given zone. */
+		private void enter(Trial t, int zone, double time) {
+			for(int i=0; i<t.states.length; i++) {
+				QueueState q = t.states[i];
+				q.flush(time);
+				zoneLost[t.zone][i] += q.clientsLost;
+				q.clientsLost = 0;
+				q.stateTimes = zoneTimes[zone][i];
+				q.stateTimes.addState(q.size());
+			}
+			t.zone = zone;
+		}
+
+		/* Copy of a trial that has just entered the given zone, as a retrial of that level
+		 * with random numbers of its own. */
+		private Trial retrial(Trial t, int level, double time) {
+			QueueState[] states = new QueueState[t.states.length];
+			for(int i=0; i<states.length; i++) {
+				QueueState q = t.states[i];
+				states[i] = new QueueState(q.queue, q.stateTimes.getOverflowState());
+				states[i].restore(q.size(), q.getLastChangeTime(), 0, q.stateTimes);
+			}
+			int n = t.calendar.size();
+			double[] times = new double[n];
+			int[] events = new int[n], origins = new int[n], destinations = new int[n];
+			t.calendar.copyPending(times, events, origins, destinations);
+			EventCalendar schedule = EventCalendar.create(calendar);
+			for(int i=0; i<n; i++) {
+				schedule.offer(times[i], events[i], origins[i], destinations[i]);
+			}
+			retrialsStarted++;
+			RandomStreams rng = streams.apply(SplitMix64.mix64(seed + retrialsStarted * 0x9E3779B97F4A7C15L));
+			return new Trial(states, schedule, rng, level, time, t.zone);
+		}
+	}
+
+	private static void scheduleArrival(Trial t, QueueStructure destination, double time) {
+		double eventTime = destination.arrival.after(time, t.rng.arrival(destination.index).next());
+		t.calendar.offer(eventTime, ARRIVAL, -1, destination.index);
+	}
+
+	/* Same as QueueSim.scheduleDeparture. Returns the randoms used. */
+	private static int scheduleDeparture(Trial t, QueueStructure origin, double time) {
+		double eventTime = origin.service.after(time, t.rng.service(origin.index).next());
+		int randomsUsed = 1;
+		int dest;
+		if(origin.destinations.size()>1) {
+			dest = origin.routing.next(t.rng.routing(origin.index).next());
+			randomsUsed++;
+		} else {
+			dest = origin.destinations.get(0).index;
+		}
+		if(dest == QueueStructure.EXIT.index) {
+			t.calendar.offer(eventTime, DEPARTURE, origin.index, QueueStructure.EXIT.index);
+		} else {
+			t.calendar.offer(eventTime, PASSAGE, origin.index, dest);
+		}
+		return randomsUsed;
+	}
+}
\ No newline at end of file
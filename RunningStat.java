@@ -0,0 +1,216 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/* Streaming mean and variance of a metric over replications (Welford's algorithm).
+ * Two accumulators can be merged (Chan et al.), so results of replications can be
+ * combined in any grouping and still give the same statistics. */
+public class RunningStat {
+
+	private long n;
+	private double mean;
+	private double m2; //Sum of squared differences from the mean
+
+	public RunningStat() {
+	}
+
+	/* Accumulator that has seen n observations equal to zero. */
+	public static RunningStat zeros(long n) {
+		RunningStat s = new RunningStat();
+		s.n = n;
+		return s;
+	}
+
+	public void add(double x) {
+		n++;
+		double delta = x - mean;
+		mean += delta / n;
+		m2 += delta * (x - mean);
+	}
+
+	public void merge(RunningStat s) {
+		if(s.n == 0) {
+			return;
+		}
+		if(n == 0) {
+			n = s.n;
+			mean = s.mean;
+			m2 = s.m2;
+			return;
+		}
+		long total = n + s.n;
+		double delta = s.mean - mean;
+		mean += delta * s.n / total;
+		m2 += s.m2 + delta * delta * ((double)n * s.n / total);
+		n = total;
+	}
+
+	public long count() {
+		return n;
+	}
+	
+	public void write(DataOutput out) throws IOException {
+		out.writeLong(n);
+		out.writeDouble(mean);
+		out.writeDouble(m2);
+	}
+	
+	public static RunningStat read(DataInput in) throws IOException {
+		RunningStat s = new RunningStat();
+		s.n = in.readLong();
+		s.mean = in.readDouble();
+		s.m2 = in.readDouble();
+		return s;
+	}
+
+	public double mean() {
+		return mean;
+	}
+
+	/* Sample variance. */
+	public double variance() {
+		return n > 1 ? m2 / (n-1) : 0.0;
+	}
+
+	/* Half-width of the confidence interval of the mean at the given level (e.g. 0.95),
+	 * using Student's t distribution. Infinite with less than two observations. */
+	public double halfWidth(double confidence) {
+		if(n < 2) {
+			return Double.POSITIVE_INFINITY;
+		}
+		return tQuantile(1 - (1-confidence)/2, n-1) * Math.sqrt(variance() / n);
+	}
+
+	/* Quantile of Student's t distribution with df degrees of freedom. Closed forms for one
+	 * and two degrees of freedom. Otherwise the Cornish-Fisher expansion of the normal quantile
+	 * (Abramowitz & Stegun 26.7.5) is a first guess, which falls short far in the tails with
+	 * few degrees of freedom (12.6 instead of 13.0 for p = 0.9999 and df = 4), refined by
+	 * Newton's method on the exact upper tail (see tTail) up to 300 degrees of freedom. */
+	static double tQuantile(double p, long df) {
+		if(df == 1) {
+			return Math.tan(Math.PI * (p - 0.5));
+		}
+		if(df == 2) {
+			return (2*p - 1) / Math.sqrt(2*p*(1-p));
+		}
+		if(p < 0.5) {
+			return -tQuantile(1 - p, df);
+		}
+		double z = normalQuantile(p);
+		double z2 = z*z;
+		double g1 = (z2 + 1) * z / 4;
+		double g2 = ((5*z2 + 16) * z2 + 3) * z / 96;
+		double g3 = (((3*z2 + 19) * z2 + 17) * z2 - 15) * z / 384;
+		double g4 = ((((79*z2 + 776) * z2 + 1482) * z2 - 1920) * z2 - 945) * z / 92160;
+		double d = df;
+		double t = z + g1/d + g2/(d*d) + g3/(d*d*d) + g4/(d*d*d*d);
+		if(df > 300) { //As accurate as the normal quantile (about 1e-9) from here on
+			return t;
+		}
+		double q = 1 - p;
+		//Density at t is density0 * (1 + t^2/d)^(-(d+1)/2)
+		double density0 = Math.exp(logGamma((d+1)/2) - logGamma(d/2)) / Math.sqrt(d * Math.PI);
+		for(int i=0; i<50 && t > 0; i++) {
+			double step = (tTail(t, d) - q) / (density0 * Math.pow(1 + t*t/d, -(d+1)/2));
+			//The tail is convex: from above the root a step can overshoot below 0
+			double next = t + step > 0 ? t + step : t / 2;
+			if(Math.abs(next - t) <= 1e-12 * t) {
+				return next;
+			}
+			t = next;
+		}
+		return t;
+	}
+
+	/* P(T > t) for t >= 0 and T with Student's t distribution with d degrees of freedom:
+	 * half the regularized incomplete beta function I_x(d/2, 1/2) at x = d/(d+t^2). */
+	private static double tTail(double t, double d) {
+		return incompleteBeta(d / (d + t*t), d/2, 0.5) / 2;
+	}
+
+	/* Regularized incomplete beta function I_x(a, b), by its continued fraction (modified
+	 * Lentz's method, as in Numerical Recipes), on the side of x where it converges fast. */
+	private static double incompleteBeta(double x, double a, double b) {
+		if(x <= 0) {
+			return 0.0;
+		}
+		if(x >= 1) {
+			return 1.0;
+		}
+		double front = Math.exp(logGamma(a+b) - logGamma(a) - logGamma(b) + a*Math.log(x) + b*Math.log1p(-x));
+		if(x < (a+1) / (a+b+2)) {
+			return front * betaFraction(x, a, b) / a;
+		}
+		return 1 - front * betaFraction(1-x, b, a) / b;
+	}
+
+	private static double betaFraction(double x, double a, double b) {
+		final double tiny = 1e-300;
+		double c = 1, d = 1 - (a+b) * x / (a+1);
+		d = 1 / (Math.abs(d) < tiny ? tiny : d);
+		double result = d;
+		for(int m=1; m<10000; m++) {
+			//Even term, then odd term of the fraction
+			double numerator = m * (b-m) * x / ((a+2*m-1) * (a+2*m));
+			d = 1 + numerator * d;
+			d = 1 / (Math.abs(d) < tiny ? tiny : d);
+			c = 1 + numerator / c;
+			c = Math.abs(c) < tiny ? tiny : c;
+			result *= d * c;
+			numerator = -(a+m) * (a+b+m) * x / ((a+2*m) * (a+2*m+1));
+			d = 1 + numerator * d;
+			d = 1 / (Math.abs(d) < tiny ? tiny : d);
+			c = 1 + numerator / c;
+			c = Math.abs(c) < tiny ? tiny : c;
+			double delta = d * c;
+			result *= delta;
+			if(Math.abs(delta - 1) < 1e-15) {
+				break;
+			}
+		}
+		return result;
+	}
+
+	/* Logarithm of the gamma function for x > 0 (Lanczos approximation, g = 7). */
+	private static double logGamma(double x) {
+		if(x < 0.5) { //Reflection formula
+			return Math.log(Math.PI / Math.abs(Math.sin(Math.PI * x))) - logGamma(1 - x);
+		}
+		final double[] c = {0.99999999999980993, 676.5203681218851, -1259.1392167224028,
+				771.32342877765313, -176.61502916214059, 12.507343278686905,
+				-0.13857109526572012, 9.9843695780195716e-6, 1.5056327351493116e-7};
+		x -= 1;
+		double sum = c[0];
+		for(int i=1; i<c.length; i++) {
+			sum += c[i] / (x + i);
+		}
+		double t = x + 7.5;
+		return 0.5 * Math.log(2 * Math.PI) + (x + 0.5) * Math.log(t) - t + Math.log(sum);
+	}
+
+	/* Quantile of the standard normal distribution (P. J. Acklam's rational approximation). */
+	static double normalQuantile(double p) {
+		if(p <= 0 || p >= 1) {
+			throw new IllegalArgumentException("Probability must be in (0, 1).");
+		}
+		final double[] a = {-3.969683028665376e+01, 2.209460984245205e+02, -2.759285104469687e+02,
+				1.383577518672690e+02, -3.066479806614716e+01, 2.506628277459239e+00};
+		final double[] b = {-5.447609879822406e+01, 1.615858368580409e+02, -1.556989798598866e+02,
+				6.680131188771972e+01, -1.328068155288572e+01};
+		final double[] c = {-7.784894002430293e-03, -3.223964580411365e-01, -2.400758277161838e+00,
+				-2.549732539343734e+00, 4.374664141464968e+00, 2.938163982698783e+00};
+		final double[] d = {7.784695709041462e-03, 3.224671290700398e-01, 2.445134137142996e+00,
+				3.754408661907416e+00};
+		double low = 0.02425;
+		if(p < low) {
+			double q = Math.sqrt(-2*Math.log(p));
+			return (((((c[0]*q+c[1])*q+c[2])*q+c[3])*q+c[4])*q+c[5]) / ((((d[0]*q+d[1])*q+d[2])*q+d[3])*q+1);
+		} else if(p > 1-low) {
+			double q = Math.sqrt(-2*Math.log(1-p));
+			return -(((((c[0]*q+c[1])*q+c[2])*q+c[3])*q+c[4])*q+c[5]) / ((((d[0]*q+d[1])*q+d[2])*q+d[3])*q+1);
+		}
+		double q = p - 0.5;
+		double r = q*q;
+		return (((((a[0]*r+a[1])*r+a[2])*r+a[3])*r+a[4])*r+a[5])*q / (((((b[0]*r+b[1])*r+b[2])*r+b[3])*r+b[4])*r+1);
+	}
+}
@@ -0,0 +1,271 @@
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/* Live metrics of the simulation runs (see the "monitor" line of the input file),
+ * registered as the MXBean QueueSim:type=SimulationMetrics and optionally printed to
+ * the standard error every few seconds.
+ * Each run counts its own events in a Run object owned by its thread, without any
+ * synchronization, and publishes them (with its clock, randoms and calendar size)
+ * every PUBLISH_EVENTS events. A finishing run moves its counts from the active runs to
+ * the totals of the finished runs holding this object's lock, once per run, and readers
+ * of totals hold it too, so that they never see a run twice or miss it. Readers see the
+ * state of the active runs as of their last publication, and the sizes of their queues
+ * as read at that moment, which is good enough for monitoring but not exact. */
+class SimulationMetrics implements SimulationMetricsMXBean, AutoCloseable {
+
+	static final String NAME = "QueueSim:type=SimulationMetrics";
+	private static final int PUBLISH_EVENTS = 1 << 14;
+	private static final EventEnum[] EVENTS = EventEnum.values();
+
+	private final String[] queueIds;
+	private final long randomsPlanned;
+	private final long start = System.nanoTime();
+	private final Set<Run> active = ConcurrentHashMap.newKeySet();
+	//Totals of the finished runs, guarded by this object's lock
+	private final long[] finishedEvents = new long[EVENTS.length];
+	private long finishedRandoms;
+	private long completedRuns;
+	private final long[] finishedLost;
+	private ObjectName name;
+	private ScheduledExecutorService console;
+
+	SimulationMetrics(List<QueueStructure> qs, long randomsPlanned) {
+		queueIds = new String[qs.size()];
+		for(int i=0; i<queueIds.length; i++) {
+			queueIds[i] = qs.get(i).id;
+		}
+		this.randomsPlanned = randomsPlanned;
+		finishedLost = new long[queueIds.length];
+	}
+
+	/* Registers the MXBean and, if consoleSeconds > 0, prints a progress line that often. */
+	void start(int consoleSeconds) throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		name = new ObjectName(NAME);
+		if(server.isRegistered(name)) {
+			server.unregisterMBean(name);
+		}
+		server.registerMBean(this, name);
+		if(consoleSeconds > 0) {
+			console = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread t = new Thread(r, "simulation metrics console");
+				t.setDaemon(true);
+				return t;
+			});
+			long[] previous = new long[1];
+			console.scheduleAtFixedRate(() -> {
+				long events = sum(getEventCounts());
+				System.err.println(consoleLine((events - previous[0]) / (double) consoleSeconds));
+				previous[0] = events;
+			}, consoleSeconds, consoleSeconds, TimeUnit.SECONDS);
+		}
+	}
+
+	@Override
+	public void close() throws JMException {
+		if(console != null) {
+			console.shutdownNow();
+		}
+		if(name != null) {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+		}
+	}
+
+	/* Metrics of a run starting with the given queue states, to be passed to finish at its end. */
+	Run startRun(QueueState[] states) {
+		Run run = new Run(states);
+		active.add(run);
+		return run;
+	}
+
+	synchronized void finish(Run run, double time, long randomsUsed, int calendarSize) {
+		run.publish(time, randomsUsed, calendarSize);
+		active.remove(run);
+		for(int e=0; e<EVENTS.length; e++) {
+			finishedEvents[e] += run.counts[e];
+		}
+		finishedRandoms += randomsUsed;
+		for(int i=0; i<finishedLost.length; i++) {
+			finishedLost[i] += run.states[i].clientsLost;
+		}
+		completedRuns++;
+	}
+
+	/* Metrics of one run, written by the thread running it. */
+	static final class Run {
+		final QueueState[] states;
+		final long[] counts = new long[EVENTS.length];
+		private int untilPublish = PUBLISH_EVENTS;
+		volatile long[] publishedCounts = new long[EVENTS.length];
+		volatile long randomsUsed;
+		volatile int calendarSize;
+		volatile double time;
+
+		private Run(QueueState[] states) {
+			this.states = states;
+		}
+
+		/* Counts an event. Returns true when the run should publish its state. */
+		boolean count(int event) {
+			counts[event]++;
+			if(--untilPublish == 0) {
+				untilPublish = PUBLISH_EVENTS;
+				return true;
+			}
+			return false;
+		}
+
+		void publish(double time, long randomsUsed, int calendarSize) {
+			this.randomsUsed = randomsUsed;
+			this.calendarSize = calendarSize;
+			publishedCounts = counts.clone();
+			this.time = time;
+		}
+	}
+
+	@Override
+	public String[] getEventTypes() {
+		String[] names = new String[EVENTS.length];
+		for(int e=0; e<EVENTS.length; e++) {
+			names[e] = EVENTS[e].name();
+		}
+		return names;
+	}
+
+	@Override
+	public synchronized long[] getEventCounts() {
+		long[] counts = new long[EVENTS.length];
+		for(Run run : active) {
+			long[] published = run.publishedCounts;
+			for(int e=0; e<counts.length; e++) {
+				counts[e] += published[e];
+			}
+		}
+		for(int e=0; e<counts.length; e++) {
+			counts[e] += finishedEvents[e];
+		}
+		return counts;
+	}
+
+	@Override
+	public double[] getEventsPerSecond() {
+		long[] counts = getEventCounts();
+		double seconds = getElapsedSeconds();
+		double[] rates = new double[counts.length];
+		for(int e=0; e<counts.length; e++) {
+			rates[e] = counts[e] / seconds;
+		}
+		return rates;
+	}
+
+	@Override
+	public synchronized long getRandomsConsumed() {
+		long randoms = finishedRandoms;
+		for(Run run : active) {
+			randoms += run.randomsUsed;
+		}
+		return randoms;
+	}
+
+	@Override
+	public long getRandomsPlanned() {
+		return randomsPlanned;
+	}
+
+	@Override
+	public double getProgress() {
+		return randomsPlanned > 0 ? Math.min(1.0, getRandomsConsumed() / (double) randomsPlanned) : 0;
+	}
+
+	@Override
+	public synchronized long getCompletedRuns() {
+		return completedRuns;
+	}
+
+	@Override
+	public int getActiveRuns() {
+		return active.size();
+	}
+
+	@Override
+	public int getCalendarSize() {
+		int size = 0;
+		for(Run run : active) {
+			size += run.calendarSize;
+		}
+		return size;
+	}
+
+	@Override
+	public double getSimulatedTime() {
+		double time = 0;
+		for(Run run : active) {
+			time = Math.max(time, run.time);
+		}
+		return time;
+	}
+
+	@Override
+	public double getElapsedSeconds() {
+		return (System.nanoTime() - start) / 1e9;
+	}
+
+	@Override
+	public String[] getQueueIds() {
+		return queueIds.clone();
+	}
+
+	@Override
+	public int[] getQueueClients() {
+		int[] clients = new int[queueIds.length];
+		for(Run run : active) {
+			if(run.time >= 0) { //Volatile read: the queue sizes are at least as recent as the last publication
+				for(int i=0; i<clients.length; i++) {
+					clients[i] += run.states[i].size();
+				}
+			}
+		}
+		return clients;
+	}
+
+	@Override
+	public synchronized long[] getQueueClientsLost() {
+		long[] lost = finishedLost.clone();
+		for(Run run : active) {
+			if(run.time >= 0) {
+				for(int i=0; i<lost.length; i++) {
+					lost[i] += run.states[i].clientsLost;
+				}
+			}
+		}
+		return lost;
+	}
+
+	private String consoleLine(double eventsPerSecond) {
+		long[] counts = getEventCounts();
+		StringBuilder sb = new StringBuilder(160);
+		sb.append(String.format("[%.0fs] %d runs done, %d running, %.1f%% of randoms, %.3g events/s (",
+				getElapsedSeconds(), getCompletedRuns(), getActiveRuns(), 100*getProgress(), eventsPerSecond));
+		for(int e=0; e<counts.length; e++) {
+			sb.append(e > 0 ? ", " : "").append(EVENTS[e].name().toLowerCase()).append(' ').append(counts[e]);
+		}
+		sb.append(String.format("), calendar %d, time %.2f", getCalendarSize(), getSimulatedTime()));
+		return sb.toString();
+	}
+
+	private static long sum(long[] values) {
+		long sum = 0;
+		for(long v : values) {
+			sum += v;
+		}
+		return sum;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,41 @@
+/* Live metrics of the simulation runs, published through JMX by SimulationMetrics
+ * (see the "monitor" line of the input file). Arrays indexed by event type follow
+ * getEventTypes, arrays indexed by queue follow getQueueIds. */
+public interface SimulationMetricsMXBean {
+
+	String[] getEventTypes();
+
+	//Events processed so far, by type
+	long[] getEventCounts();
+
+	//Average events per second since the start, by type
+	double[] getEventsPerSecond();
+
+	long getRandomsConsumed();
+
+	//Randoms of all the runs planned (an upper bound with a precision target)
+	long getRandomsPlanned();
+
+	//Fraction of the planned randoms consumed
+	double getProgress();
+
+	long getCompletedRuns();
+
+	int getActiveRuns();
+
+	//Events scheduled in the calendars of the active runs
+	int getCalendarSize();
+
+	//Largest simulation clock among the active runs
+	double getSimulatedTime();
+
+	double getElapsedSeconds();
+
+	String[] getQueueIds();
+
+	//Clients in each queue, summed over the active runs
+	int[] getQueueClients();
+
+	//Clients lost by each queue, in every run so far
+	long[] getQueueClientsLost();
+}
\ No newline at end of file
@@ -1,82 +1,297 @@
-import java.util.ArrayList;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Set;
 
 /* Records results of one simulation. These results can be combined into average results. */
 class SimulationReport {
     
 	String[] queueIDs;
 	double totalSimulationTime;
-    /* This list holds, for each queue in the simulation, a list of
+    /* This array holds, for each queue in the simulation, a histogram of
      * the times it spent on each of it's respective states. */
-    ArrayList<ArrayList<Double>> stateTimes;
+    StateHistogram[] stateTimes;
     
     //Used a double for cases where the report is an average of different results:
     double[] clientsLost;
+    
+    /* Statistics of the results over replications, used for confidence intervals.
+     * A report of a single run holds one observation of each metric (see recordReplication)
+     * and summing reports merges them. State probabilities are kept per histogram bucket. */
+    static final double CONFIDENCE = 0.95;
+    RunningStat totalTimeStat;
+    RunningStat[] clientsLostStats;
+    RunningStat[][] probabilityStats;
+    
+    /* With antithetic variates, each observation is the average of a pair of runs.
+     * This report then also holds every run of the pairs as a separate observation,
+     * to compare the variance of the pairs with the variance of independent runs. */
+    SimulationReport unpaired;
+    
+    //Waiting and response times of the clients, null unless they were tracked (see ClientTracker)
+    ResponseTimes responseTimes;
                        
-    public SimulationReport(String[] queueIDs, double t, ArrayList<ArrayList<Double>> st, double[] cl) {
+    public SimulationReport(String[] queueIDs, double t, StateHistogram[] st, double[] cl) {
         this.queueIDs = queueIDs;
     	totalSimulationTime = t;
         stateTimes = st;
         clientsLost = cl;
+        totalTimeStat = new RunningStat();
+        clientsLostStats = new RunningStat[cl.length];
+        probabilityStats = new RunningStat[st.length][];
+        for(int i=0; i<cl.length; i++) {
+        	clientsLostStats[i] = new RunningStat();
+        	probabilityStats[i] = new RunningStat[0];
+        }
+    }
+    
+    /* Records the results of this report as one observation of each metric.
+     * Must be called once on the report of a single simulation run. */
+    public void recordReplication() {
+    	totalTimeStat.add(totalSimulationTime);
+    	for(int i=0; i<stateTimes.length; i++) {
+    		clientsLostStats[i].add(clientsLost[i]);
+    		probabilityStats[i] = new RunningStat[stateTimes[i].size()];
+    		for(int j=0; j<stateTimes[i].size(); j++) {
+    			probabilityStats[i][j] = new RunningStat();
+    			probabilityStats[i][j].add(stateTimes[i].get(j)/totalSimulationTime);
+    		}
+    	}
+    }
+    
+    /* Forgets every observation of the metrics, keeping the results. */
+    public void resetReplications() {
+    	totalTimeStat = new RunningStat();
+    	for(int i=0; i<stateTimes.length; i++) {
+    		clientsLostStats[i] = new RunningStat();
+    		probabilityStats[i] = new RunningStat[0];
+    	}
+    }
+    
+    public long replications() {
+    	return totalTimeStat.count();
     }
     
     public String toString() {
         StringBuilder res = new StringBuilder(500);
-        for(int i=0; i<stateTimes.size(); i++) {
-        	ArrayList<Double> qTimes = stateTimes.get(i);
+        boolean intervals = replications() > 1;
+        for(int i=0; i<stateTimes.length; i++) {
+        	StateHistogram qTimes = stateTimes[i];
             res.append("Queue "+queueIDs[i]+":\n");
         	for(int j=0; j<qTimes.size(); j++) {
         		res.append(String.format(
-                           "State: %d  time: %.2f  probability: %.2f%%\n",
+                           qTimes.isOverflowBucket(j) ?
+                        		   "State: >=%d  time: %.2f  probability: %.2f%%" :
+                        		   "State: %d  time: %.2f  probability: %.2f%%",
                            j, qTimes.get(j), 100*qTimes.get(j)/totalSimulationTime));
+        		if(intervals) {
+        			res.append(String.format(" +- %.2f%%", 100*probabilityStats[i][j].halfWidth(CONFIDENCE)));
+        		}
+        		res.append('\n');
+        	}
+        	res.append(String.format("Clients Lost: %.2f", clientsLost[i]));
+        	if(intervals) {
+        		res.append(String.format(" +- %.2f", clientsLostStats[i].halfWidth(CONFIDENCE)));
         	}
-        	res.append(String.format("Clients Lost: %.2f\n---------------------------\n", clientsLost[i]));
+        	res.append('\n');
+        	if(responseTimes != null) {
+        		responseTimes.appendQueue(res, i);
+        	}
+        	res.append("---------------------------\n");
         }
         
+        if(responseTimes != null) {
+        	responseTimes.appendNetwork(res);
+        }
         res.append(String.format("Total simulation time: %.2f", totalSimulationTime));
+        if(intervals) {
+        	res.append(String.format(" +- %.2f", totalTimeStat.halfWidth(CONFIDENCE)));
+        	res.append(String.format("\n(+- : half-width of the %.0f%% confidence interval over %d observations)",
+        			100*CONFIDENCE, replications()));
+        }
+        if(intervals && unpaired != null) {
+        	appendVarianceReduction(res);
+        }
         return res.toString();
     }
     
+    /* Variance of the mean of two independent runs divided by the variance of the mean
+     * of an antithetic pair, for each metric: how many times more independent runs would
+     * be needed for the same precision. State probabilities are summarized by the sum of
+     * their variances. */
+    private void appendVarianceReduction(StringBuilder res) {
+    	res.append("\n---------------------------\nVariance reduction of antithetic pairs over independent runs:\n");
+    	for(int i=0; i<stateTimes.length; i++) {
+    		double independent = 0, paired = 0;
+    		RunningStat[] runs = unpaired.probabilityStats[i];
+    		for(int j=0; j<probabilityStats[i].length; j++) {
+    			paired += probabilityStats[i][j].variance();
+    			independent += j < runs.length ? runs[j].variance()/2 : 0;
+    		}
+    		res.append(String.format("Queue %s: state probabilities %s, clients lost %s\n", queueIDs[i],
+    				reductionFactor(independent, paired),
+    				reductionFactor(unpaired.clientsLostStats[i].variance()/2, clientsLostStats[i].variance())));
+    	}
+    	res.append("Total simulation time: ").append(reductionFactor(
+    			unpaired.totalTimeStat.variance()/2, totalTimeStat.variance()));
+    }
+    
+    private static String reductionFactor(double independent, double paired) {
+    	if(paired == 0) {
+    		return "n/a";
+    	}
+    	return String.format("%.2fx", independent / paired);
+    }
+    
+    /* Report with the same queues and no results. */
+    private SimulationReport emptyCopy() {
+    	StateHistogram[] st = new StateHistogram[stateTimes.length];
+    	for(int i=0; i<st.length; i++) {
+    		st[i] = new StateHistogram(stateTimes[i].getOverflowState());
+    	}
+    	return new SimulationReport(queueIDs, 0.0, st, new double[clientsLost.length]);
+    }
+    
     /* Sums the results of the second report on the first report. */
     public void sumSimulation(SimulationReport r) {
     	totalSimulationTime += r.totalSimulationTime;
+    	long n1 = totalTimeStat.count();
+    	long n2 = r.totalTimeStat.count();
+    	totalTimeStat.merge(r.totalTimeStat);
+    	
+    	if(r.unpaired != null) {
+    		if(unpaired == null) {
+    			unpaired = emptyCopy();
+    		}
+    		unpaired.sumSimulation(r.unpaired);
+    	}
+    	if(r.responseTimes != null) {
+    		if(responseTimes == null) {
+    			responseTimes = new ResponseTimes(stateTimes.length);
+    		}
+    		responseTimes.merge(r.responseTimes);
+    	}
     	
     	// For each queue simulated...
-    	for(int i=0; i<stateTimes.size(); i++) {
+    	for(int i=0; i<stateTimes.length; i++) {
     		// sum the number of clients lost
     		clientsLost[i] += r.clientsLost[i];
+    		clientsLostStats[i].merge(r.clientsLostStats[i]);
+    		probabilityStats[i] = mergeStates(probabilityStats[i], n1, r.probabilityStats[i], n2);
     		
     		/* and for each state of that queue, sum the time spent in both simulations.
     		 * Since queues can have infinite capacity, states may differ.
-    		 * This must taken into account: */
-    		ArrayList<Double> qTimes1 = stateTimes.get(i);
-    		ArrayList<Double> qTimes2 = r.stateTimes.get(i);
-    		matchArraySizes(qTimes1, qTimes2); //Make list sizes equal
-    		for(int j=0; j<qTimes1.size(); j++) {
-    			qTimes1.set(j, qTimes1.get(j) + qTimes2.get(j));
+    		 * The histogram grows to fit the states of both. */
+    		stateTimes[i].sum(r.stateTimes[i]);
+    	}
+    }
+    
+    /* Merges the state probability statistics of two reports with n1 and n2 replications.
+     * A state missing from one of them was never reached there, so it counts as n zeros. */
+    private static RunningStat[] mergeStates(RunningStat[] s1, long n1, RunningStat[] s2, long n2) {
+    	RunningStat[] res = s1.length >= s2.length ? s1 : Arrays.copyOf(s1, s2.length);
+    	for(int j=0; j<res.length; j++) {
+    		if(j >= s1.length) {
+    			res[j] = RunningStat.zeros(n1);
+    		}
+    		res[j].merge(j < s2.length ? s2[j] : RunningStat.zeros(n2));
+    	}
+    	return res;
+    }
+    
+    /* True if the confidence interval half-width of every selected metric is at most target,
+     * or at most target times the absolute mean of the metric if relative is true. */
+    public boolean precisionReached(double target, boolean relative, Set<MetricEnum> metrics) {
+    	if(metrics.contains(MetricEnum.TIME) && !precise(totalTimeStat, target, relative)) {
+    		return false;
+    	}
+    	for(int i=0; i<stateTimes.length; i++) {
+    		if(metrics.contains(MetricEnum.CLIENTS_LOST) && !precise(clientsLostStats[i], target, relative)) {
+    			return false;
+    		}
+    		if(metrics.contains(MetricEnum.PROBABILITY)) {
+    			for(RunningStat s : probabilityStats[i]) {
+    				if(!precise(s, target, relative)) {
+    					return false;
+    				}
+    			}
+    		}
+    	}
+    	return true;
+    }
+    
+    private static boolean precise(RunningStat s, double target, boolean relative) {
+    	double limit = relative ? target*Math.abs(s.mean()) : target;
+    	return s.halfWidth(CONFIDENCE) <= limit;
+    }
+    
+    /* Writes the report in binary form, to be merged by another process (see Coordinator).
+     * The queue ids are left out, as both sides know them. */
+    public void write(DataOutput out) throws IOException {
+    	out.writeDouble(totalSimulationTime);
+    	totalTimeStat.write(out);
+    	out.writeInt(stateTimes.length);
+    	for(int i=0; i<stateTimes.length; i++) {
+    		stateTimes[i].write(out);
+    		out.writeDouble(clientsLost[i]);
+    		clientsLostStats[i].write(out);
+    		out.writeInt(probabilityStats[i].length);
+    		for(RunningStat s : probabilityStats[i]) {
+    			s.write(out);
     		}
     	}
+    	out.writeBoolean(responseTimes != null);
+    	if(responseTimes != null) {
+    		responseTimes.write(out);
+    	}
+    	out.writeBoolean(unpaired != null);
+    	if(unpaired != null) {
+    		unpaired.write(out);
+    	}
+    }
+    
+    /* Reads a report written by write, of a simulation of the given queues. */
+    public static SimulationReport read(DataInput in, String[] queueIDs) throws IOException {
+    	double time = in.readDouble();
+    	RunningStat timeStat = RunningStat.read(in);
+    	if(in.readInt() != queueIDs.length) {
+    		throw new IOException("Report has a different number of queues.");
+    	}
+    	StateHistogram[] st = new StateHistogram[queueIDs.length];
+    	double[] cl = new double[queueIDs.length];
+    	RunningStat[] lostStats = new RunningStat[queueIDs.length];
+    	RunningStat[][] probStats = new RunningStat[queueIDs.length][];
+    	for(int i=0; i<queueIDs.length; i++) {
+    		st[i] = StateHistogram.read(in);
+    		cl[i] = in.readDouble();
+    		lostStats[i] = RunningStat.read(in);
+    		probStats[i] = new RunningStat[in.readInt()];
+    		for(int j=0; j<probStats[i].length; j++) {
+    			probStats[i][j] = RunningStat.read(in);
+    		}
+    	}
+    	SimulationReport r = new SimulationReport(queueIDs, time, st, cl);
+    	r.totalTimeStat = timeStat;
+    	r.clientsLostStats = lostStats;
+    	r.probabilityStats = probStats;
+    	if(in.readBoolean()) {
+    		r.responseTimes = ResponseTimes.read(in, queueIDs.length);
+    	}
+    	if(in.readBoolean()) {
+    		r.unpaired = read(in, queueIDs);
+    	}
+    	return r;
     }
     
     /* Divides the fields of the report by n. */
     public void averageResults(int n) {
     	totalSimulationTime /= n;
-    	for(int i=0; i<stateTimes.size(); i++) {
+    	for(int i=0; i<stateTimes.length; i++) {
     		clientsLost[i] /= n;
-    		ArrayList<Double> stateTime = stateTimes.get(i);
-    		for(int j=0; j<stateTime.size(); j++) {
-    			stateTime.set(j, stateTime.get(j)/n);
-    		}
+    		stateTimes[i].divide(n);
     	}
     }
-    
-    /* Equalizes the size of two arrays by filling the smaller array with zeroes. */
-    private void matchArraySizes(ArrayList<Double> arr1, ArrayList<Double> arr2) {
-    	while(arr1.size()<arr2.size())
-			arr1.add(0.0);
-    	while(arr2.size()<arr1.size())
-			arr2.add(0.0);
-    	
-    }
 }
 
 
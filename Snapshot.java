@@ -0,0 +1,157 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/* Saved state of a simulation run in the middle (see the "checkpoint" line of the input
+ * file): the model it simulates (see CompiledModel), the clock, the randoms left, the state
+ * and statistics of every queue, the pending events, the state of the random streams and,
+ * if they are tracked, the clients (see ClientTracker). A run continued from a snapshot
+ * gives the same results as if it had never stopped (java App -resume <snapshot>). Runs of
+ * variants of the model can also be started from it (java App -fork <snapshot> <variant>...),
+ * so that a warm-up is simulated once for all of them.
+ *
+ * Layout (big-endian, see DataOutputStream):
+ *   int MAGIC, int VERSION, int model length, compiled model
+ *   long seed, boolean antithetic, string generator, int generator block, boolean per queue streams,
+ *   int randoms of the run, int randoms left, double clock
+ *   per queue: int clients, double time of the last change, int clients lost, state times (see StateHistogram)
+ *   int pending events, then per event: double time, int event, int origin, int destination
+ *   random streams (see RandomStreams.write)
+ *   boolean clients tracked, then the clients (see ClientTracker.write) */
+class Snapshot {
+
+	static final int MAGIC = 0x51534350; //"QSCP"
+	static final int VERSION = 1;
+
+	final CompiledModel model;
+	final long seed;
+	final boolean mirror;
+	final String generator;
+	final int generatorBlock;
+	final boolean perQueueStreams;
+	final int initialRandoms;
+	final int remainingRandoms;
+	final double time;
+	//Everything after the clock, read again by every run restored from the snapshot
+	private final byte[] state;
+
+	private Snapshot(byte[] bytes, String file) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+		if(bytes.length < 12 || in.readInt() != MAGIC) {
+			throw new IOException(file + " is not a snapshot.");
+		}
+		int version = in.readInt();
+		if(version != VERSION) {
+			throw new IOException(String.format("%s: unsupported snapshot version %d.", file, version));
+		}
+		int modelLength = in.readInt();
+		model = CompiledModel.read(ByteBuffer.wrap(bytes, 12, modelLength).slice(), file);
+		in.skipNBytes(modelLength);
+		seed = in.readLong();
+		mirror = in.readBoolean();
+		generator = in.readUTF();
+		generatorBlock = in.readInt();
+		perQueueStreams = in.readBoolean();
+		initialRandoms = in.readInt();
+		remainingRandoms = in.readInt();
+		time = in.readDouble();
+		state = Arrays.copyOfRange(bytes, bytes.length - in.available(), bytes.length);
+	}
+
+	static Snapshot read(String file) throws IOException {
+		return new Snapshot(Files.readAllBytes(Paths.get(file)), file);
+	}
+
+	/* Writes a snapshot of a run of sim. The file is replaced at once, so a crash while it is
+	 * written leaves the previous snapshot. */
+	static void write(String file, QueueSim sim, long seed, boolean mirror, String generator, int generatorBlock,
+			boolean perQueueStreams, int initialRandoms, int remainingRandoms, double time, QueueState[] states,
+			EventCalendar schedule, RandomStreams rng, ClientTracker clients) throws IOException {
+		ByteArrayOutputStream model = new ByteArrayOutputStream();
+		sim.compile(model);
+		Path target = Paths.get(file);
+		Path temporary = Paths.get(file + ".tmp");
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary), 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(model.size());
+			model.writeTo(out);
+			out.writeLong(seed);
+			out.writeBoolean(mirror);
+			out.writeUTF(generator);
+			out.writeInt(generatorBlock);
+			out.writeBoolean(perQueueStreams);
+			out.writeInt(initialRandoms);
+			out.writeInt(remainingRandoms);
+			out.writeDouble(time);
+			for(QueueState q : states) {
+				out.writeInt(q.size());
+				out.writeDouble(q.getLastChangeTime());
+				out.writeInt(q.clientsLost);
+				q.stateTimes.write(out);
+			}
+			int n = schedule.size();
+			double[] times = new double[n];
+			int[] events = new int[n], origins = new int[n], destinations = new int[n];
+			schedule.copyPending(times, events, origins, destinations);
+			out.writeInt(n);
+			for(int i=0; i<n; i++) {
+				out.writeDouble(times[i]);
+				out.writeInt(events[i]);
+				out.writeInt(origins[i]);
+				out.writeInt(destinations[i]);
+			}
+			rng.write(out);
+			out.writeBoolean(clients != null);
+			if(clients != null) {
+				clients.write(out);
+			}
+		}
+		Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/* Puts the saved state into the new objects of a run: the states of the queues, an empty
+	 * calendar, streams created with this snapshot's generator settings and seed, and a new
+	 * client tracker (null if clients aren't tracked). A fork keeps the state but not the
+	 * statistics, which start over at the time of the snapshot. */
+	void restore(QueueState[] states, EventCalendar schedule, RandomStreams rng, ClientTracker clients,
+			boolean fork) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(state));
+		for(QueueState q : states) {
+			int size = in.readInt();
+			double lastChangeTime = in.readDouble();
+			int clientsLost = in.readInt();
+			StateHistogram stateTimes = StateHistogram.read(in);
+			if(fork) {
+				q.restore(size, time, 0, null);
+			} else {
+				q.restore(size, lastChangeTime, clientsLost, stateTimes);
+			}
+		}
+		int n = in.readInt();
+		for(int i=0; i<n; i++) {
+			schedule.offer(in.readDouble(), in.readInt(), in.readInt(), in.readInt());
+		}
+		rng.read(in);
+		boolean tracked = in.readBoolean();
+		if(clients != null) {
+			if(!tracked) {
+				throw new IllegalStateException(
+						"The snapshot doesn't know the clients in the queues: they must be tracked (latency) before it.");
+			}
+			clients.read(in);
+			if(fork) {
+				clients.times.clear();
+			}
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,48 @@
+/* SplitMix64 generator (Steele, Lea and Flood, "Fast splittable pseudorandom number
+ * generators"), the algorithm of java.util.SplittableRandom. Very fast; its state only
+ * adds a constant (gamma) at every number, so stream(k) jumps ahead in one step. */
+public class SplitMix64 implements RandomSource {
+	private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+	private long seed;
+	private long gamma;
+
+	public SplitMix64(long seed) {
+		this(seed, GOLDEN_GAMMA);
+	}
+
+	private SplitMix64(long seed, long gamma) {
+		this.seed = seed;
+		this.gamma = gamma;
+	}
+
+	public long nextLong() {
+		seed += gamma;
+		return mix64(seed);
+	}
+
+	public double nextDouble() {
+		return (nextLong() >>> 11) * 0x1.0p-53;
+	}
+
+	/* The sequence adds gamma to the seed at every number, so jumping n numbers adds n*gamma. */
+	public RandomSource stream(int k) {
+		return new SplitMix64(seed + ((long)k << 32) * gamma, gamma);
+	}
+
+	public long[] getState() {
+		return new long[] {seed, gamma};
+	}
+
+	public void setState(long[] state) {
+		seed = state[0];
+		gamma = state[1];
+	}
+
+	/* SplitMix64 output function, also useful to derive well mixed seeds from counters. */
+	public static long mix64(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+}
\ No newline at end of file
@@ -0,0 +1,149 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/* Time spent by a queue in each of its states (number of clients in the queue),
+ * kept in a growable primitive array.
+ * Queues with infinite capacity can reach any number of clients, so a limit can be
+ * given: every state at or above overflowState is accumulated in one last bucket,
+ * which keeps memory bounded for unstable queues. */
+public class StateHistogram {
+
+	//No overflow bucket: every state is kept separately
+	public static final int NO_LIMIT = Integer.MAX_VALUE;
+
+	private double[] times;
+	private int size; //Number of buckets in use
+	private final int overflowState;
+
+	public StateHistogram(int overflowState) {
+		if(overflowState < 1) {
+			throw new IllegalArgumentException("Overflow state must be at least 1.");
+		}
+		this.overflowState = overflowState;
+		times = new double[8];
+		size = 0;
+	}
+
+	public StateHistogram() {
+		this(NO_LIMIT);
+	}
+
+	/* Makes sure the bucket of the given state exists. */
+	public void addState(int state) {
+		int b = bucket(state);
+		if(b >= size) {
+			if(b >= times.length) {
+				times = Arrays.copyOf(times, Math.max(times.length*2, b+1));
+			}
+			size = b+1;
+		}
+	}
+
+	/* Adds time to the bucket of the given state. The bucket must exist (see addState). */
+	public void add(int state, double time) {
+		times[bucket(state)] += time;
+	}
+
+	/* Time of bucket i. */
+	public double get(int i) {
+		return times[i];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int getOverflowState() {
+		return overflowState;
+	}
+
+	/* True if bucket i accumulates every state from i upwards. */
+	public boolean isOverflowBucket(int i) {
+		return i == overflowState;
+	}
+
+	/* Sums the times of the second histogram on this one. */
+	public void sum(StateHistogram h) {
+		if(h.overflowState != overflowState) {
+			throw new IllegalArgumentException("Histograms have different overflow states.");
+		}
+		if(h.size > 0) {
+			addState(h.size-1);
+		}
+		for(int i=0; i<h.size; i++) {
+			times[i] += h.times[i];
+		}
+	}
+
+	/* Time of the bucket of the given state. */
+	public double getState(int state) {
+		int b = bucket(state);
+		return b < size ? times[b] : 0.0;
+	}
+	
+	/* Sets the time of the bucket of the given state, which must exist. */
+	public void setState(int state, double time) {
+		times[bucket(state)] = time;
+	}
+	
+	/* Drops the buckets from the given size on (see ParallelEngine). */
+	public void truncate(int size) {
+		if(size < this.size) {
+			Arrays.fill(times, size, this.size, 0.0);
+			this.size = size;
+		}
+	}
+	
+	/* Sets the time of every bucket to 0, keeping the buckets. */
+	public void clear() {
+		Arrays.fill(times, 0, size, 0.0);
+	}
+
+	public StateHistogram copy() {
+		StateHistogram h = new StateHistogram(overflowState);
+		h.times = Arrays.copyOf(times, Math.max(size, 1));
+		h.size = size;
+		return h;
+	}
+
+	/* Writes the overflow state, the number of buckets and their times. */
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(overflowState);
+		out.writeInt(size);
+		for(int i=0; i<size; i++) {
+			out.writeDouble(times[i]);
+		}
+	}
+	
+	public static StateHistogram read(DataInput in) throws IOException {
+		StateHistogram h = new StateHistogram(in.readInt());
+		int size = in.readInt();
+		if(size > 0) {
+			h.addState(size-1);
+		}
+		for(int i=0; i<size; i++) {
+			h.times[i] = in.readDouble();
+		}
+		return h;
+	}
+	
+	/* Multiplies every bucket by factor. */
+	public void scale(double factor) {
+		for(int i=0; i<size; i++) {
+			times[i] *= factor;
+		}
+	}
+	
+	/* Divides every bucket by n. */
+	public void divide(int n) {
+		for(int i=0; i<size; i++) {
+			times[i] /= n;
+		}
+	}
+
+	private int bucket(int state) {
+		return state < overflowState ? state : overflowState;
+	}
+}
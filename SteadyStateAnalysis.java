@@ -0,0 +1,100 @@
+import java.util.List;
+
+/* Steady-state estimates from a single long run, split into intervals
+ * (see QueueSim.runSteadyState).
+ * The initial transient (warm-up) is removed with the MSER-5 rule, or up to a given
+ * time, and the rest of the run is grouped into batches whose results are treated
+ * as (approximately) independent observations, the method of batch means. */
+class SteadyStateAnalysis {
+
+	/* Time-average total number of clients in the network during each interval,
+	 * the series used to detect the warm-up. Clients of an overflow bucket count as
+	 * the bucket's lowest state. */
+	static double[] occupancy(List<SimulationReport> intervals) {
+		double[] series = new double[intervals.size()];
+		for(int k=0; k<series.length; k++) {
+			SimulationReport r = intervals.get(k);
+			double sum = 0;
+			for(StateHistogram h : r.stateTimes) {
+				for(int s=0; s<h.size(); s++) {
+					sum += s * h.get(s);
+				}
+			}
+			series[k] = r.totalSimulationTime > 0 ? sum / r.totalSimulationTime : 0;
+		}
+		return series;
+	}
+
+	/* MSER-5 (White, Cobb and Spratt): the series is grouped into batches of five
+	 * observations and the number of batches d deleted from the start is the one that
+	 * minimizes the squared standard error of the remaining batch means,
+	 * sum((Z_j - mean(Z_d..))^2) / (m-d)^2, for d up to half of the m batches.
+	 * Returns the number of observations to delete. */
+	static int mser5(double[] series) {
+		int m = series.length / 5;
+		if(m < 2) {
+			return 0;
+		}
+		double[] z = new double[m];
+		for(int j=0; j<m; j++) {
+			for(int i=0; i<5; i++) {
+				z[j] += series[5*j+i];
+			}
+			z[j] /= 5;
+		}
+		//Suffix sums give the mean and squared deviations of Z_d..Z_m-1 in O(1) for each d
+		double sum = 0, sumSquares = 0;
+		int best = 0;
+		double bestValue = Double.POSITIVE_INFINITY;
+		double[] values = new double[m];
+		for(int d=m-1; d>=0; d--) {
+			sum += z[d];
+			sumSquares += z[d]*z[d];
+			int n = m-d;
+			values[d] = (sumSquares - sum*sum/n) / ((double)n*n);
+		}
+		for(int d=0; d<=m/2; d++) {
+			if(values[d] < bestValue) {
+				bestValue = values[d];
+				best = d;
+			}
+		}
+		return 5*best;
+	}
+
+	/* Number of intervals that start before the given time. */
+	static int intervalsStartingBefore(List<SimulationReport> intervals, double time) {
+		double start = 0;
+		int k = 0;
+		for(SimulationReport r : intervals) {
+			if(start >= time) {
+				break;
+			}
+			start += r.totalSimulationTime;
+			k++;
+		}
+		return k;
+	}
+
+	/* Groups intervals [first, size) into the given number of batches and merges them into
+	 * one report in which each batch is one observation of every metric. Intervals that
+	 * don't fill a whole batch are dropped from the start, next to the warm-up. */
+	static SimulationReport batchMeans(List<SimulationReport> intervals, int first, int batches,
+			SimulationReport res) {
+		int perBatch = (intervals.size() - first) / batches;
+		if(perBatch < 1) {
+			throw new IllegalStateException("Not enough of the run left after the warm-up for the batches.");
+		}
+		first = intervals.size() - perBatch*batches;
+		for(int b=0; b<batches; b++) {
+			SimulationReport batch = intervals.get(first + b*perBatch);
+			for(int k=1; k<perBatch; k++) {
+				batch.sumSimulation(intervals.get(first + b*perBatch + k));
+			}
+			batch.resetReplications();
+			batch.recordReplication();
+			res.sumSimulation(batch);
+		}
+		return res;
+	}
+}
@@ -0,0 +1,117 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/* Snapshots of every queue taken every interval time units of each run (see the "sample"
+ * line of the input file), written to a CSV file as the runs go.
+ * Each run writes its rows to its own small buffer, which is appended to the file whenever
+ * it fills up, so memory use doesn't depend on the length of the run.
+ *
+ * The CSV has one row per run, sample time and queue, with the columns:
+ * seed, antithetic, time, queue, clients, busy_servers, clients_lost, events
+ * where clients_lost and events (arrivals and departures of clients at the queue,
+ * including lost ones) count from the start of the run. A sample at time t shows the
+ * queues after every event up to t. */
+class TimeSeriesSampler implements AutoCloseable {
+
+	//Characters buffered by a run before they are written to the file
+	private static final int RUN_BUFFER = 1 << 16;
+
+	private final BufferedWriter out;
+	private final double interval;
+
+	TimeSeriesSampler(String file, double interval) throws IOException {
+		if(!(interval > 0)) {
+			throw new IllegalArgumentException("Sampling interval must be greater than 0.");
+		}
+		this.interval = interval;
+		out = Files.newBufferedWriter(Paths.get(file), StandardCharsets.UTF_8);
+		out.write("seed,antithetic,time,queue,clients,busy_servers,clients_lost,events\n");
+	}
+
+	Run run(long seed, boolean mirror, QueueState[] states) {
+		return new Run(seed, mirror, states);
+	}
+
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+
+	private synchronized void write(StringBuilder rows) {
+		try {
+			out.append(rows);
+		} catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/* Sampling of one run, used by the thread running it. */
+	final class Run {
+		private final String prefix;
+		private final QueueState[] states;
+		private final long[] lost;
+		private final long[] events;
+		private final StringBuilder rows = new StringBuilder(RUN_BUFFER + 256);
+		private long samples; //Samples taken so far; the next one is at samples*interval
+
+		private Run(long seed, boolean mirror, QueueState[] states) {
+			prefix = seed + (mirror ? ",1," : ",0,");
+			this.states = states;
+			lost = new long[states.length];
+			events = new long[states.length];
+		}
+
+		/* Takes the samples due before an event at the given time. */
+		void advance(double time) {
+			while(samples*interval < time) {
+				sample(samples*interval);
+				samples++;
+			}
+		}
+
+		/* Skips the samples before the given time, at which a run continued from a Snapshot starts. */
+		void start(double time) {
+			samples = (long) Math.ceil(time / interval);
+		}
+
+		/* Counts an event between the given queues (-1 for outside), lost if its client was. */
+		void count(int origin, int destination, boolean clientLost) {
+			if(origin >= 0) {
+				events[origin]++;
+			}
+			if(destination >= 0) {
+				events[destination]++;
+				if(clientLost) {
+					lost[destination]++;
+				}
+			}
+		}
+
+		/* Takes the samples up to the end of the run and writes what is left of them. */
+		void finish(double time) {
+			while(samples*interval <= time) {
+				sample(samples*interval);
+				samples++;
+			}
+			write(rows);
+			rows.setLength(0);
+		}
+
+		private void sample(double time) {
+			for(int i=0; i<states.length; i++) {
+				QueueState q = states[i];
+				rows.append(prefix).append(time).append(',').append(q.queue.id).append(',')
+				.append(q.size()).append(',').append(Math.min(q.size(), q.queue.servers)).append(',')
+				.append(lost[i]).append(',').append(events[i]).append('\n');
+				if(rows.length() >= RUN_BUFFER) {
+					write(rows);
+					rows.setLength(0);
+				}
+			}
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,116 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/* Prints the events of a trace file written by EventTrace, one per line, optionally
+ * only those of a queue (as origin or destination), of a time window or of a seed.
+ *
+ * Usage: java TraceReader <trace file> [queue <id>] [from <time>] [to <time>] [seed <seed>] */
+public class TraceReader {
+
+	//Records mapped at a time
+	private static final int CHUNK_RECORDS = 1 << 20;
+
+	public static void main(String[] args) throws IOException {
+		if(args.length < 1 || args.length % 2 == 0) {
+			System.out.println("Usage: TraceReader <trace file> [queue <id>] [from <time>] [to <time>] [seed <seed>]");
+			System.exit(1);
+		}
+		String queue = null;
+		double from = Double.NEGATIVE_INFINITY, to = Double.POSITIVE_INFINITY;
+		Long seed = null;
+		for(int i=1; i<args.length; i+=2) {
+			switch(args[i]) {
+			case "queue":
+				queue = args[i+1];
+				break;
+			case "from":
+				from = Double.parseDouble(args[i+1]);
+				break;
+			case "to":
+				to = Double.parseDouble(args[i+1]);
+				break;
+			case "seed":
+				seed = Long.parseLong(args[i+1]);
+				break;
+			default:
+				throw new IllegalArgumentException(String.format("Unknown filter \"%s\".", args[i]));
+			}
+		}
+
+		try(FileChannel channel = FileChannel.open(Paths.get(args[0]), StandardOpenOption.READ);
+				BufferedWriter out = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16)) {
+			MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), 32));
+			if(header.limit() < 32 || header.getInt(0) != EventTrace.MAGIC) {
+				throw new IOException(args[0] + " is not an event trace.");
+			}
+			if(header.getInt(4) != EventTrace.VERSION || header.getInt(8) != EventTrace.RECORD_SIZE) {
+				throw new IOException(String.format("%s: unsupported trace version %d.", args[0], header.getInt(4)));
+			}
+			long records = header.getLong(EventTrace.HEADER_RECORDS);
+			long dataOffset = header.getLong(24);
+			String[] ids = EventTrace.readQueueIds(channel.map(FileChannel.MapMode.READ_ONLY, 0, dataOffset));
+
+			int queueFilter = -2; //No queue has this index, not even the outside of the system
+			if(queue != null) {
+				for(int i=0; i<ids.length && queueFilter == -2; i++) {
+					if(ids[i].equals(queue)) {
+						queueFilter = i;
+					}
+				}
+				if(queueFilter == -2) {
+					throw new IllegalArgumentException(String.format("Queue \"%s\" is not in the trace.", queue));
+				}
+			}
+
+			EventEnum[] events = EventEnum.values();
+			StringBuilder sb = new StringBuilder(128);
+			for(long first=0; first<records; first+=CHUNK_RECORDS) {
+				int n = (int) Math.min(CHUNK_RECORDS, records - first);
+				ByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY,
+						dataOffset + first*EventTrace.RECORD_SIZE, (long) n*EventTrace.RECORD_SIZE);
+				for(int r=0; r<n; r++) {
+					double time = chunk.getDouble();
+					long recordSeed = chunk.getLong();
+					int event = chunk.getInt();
+					int flags = chunk.getInt();
+					int origin = chunk.getInt();
+					int destination = chunk.getInt();
+					int originSize = chunk.getInt();
+					int destinationSize = chunk.getInt();
+					if(time < from || time > to || (seed != null && seed != recordSeed)
+							|| (queue != null && origin != queueFilter && destination != queueFilter)) {
+						continue;
+					}
+					sb.setLength(0);
+					sb.append(recordSeed);
+					if((flags & EventTrace.MIRROR) != 0) {
+						sb.append(" (antithetic)");
+					}
+					sb.append(' ').append(time).append(' ').append(events[event]).append(' ');
+					appendQueue(sb, ids, origin, originSize);
+					sb.append(" -> ");
+					appendQueue(sb, ids, destination, destinationSize);
+					if((flags & EventTrace.LOST) != 0) {
+						sb.append(" lost");
+					}
+					out.write(sb.append('\n').toString());
+				}
+			}
+		}
+	}
+
+	/* Queue id with its number of clients after the event, or "outside". */
+	private static void appendQueue(StringBuilder sb, String[] ids, int queue, int size) {
+		if(queue < 0) {
+			sb.append("outside");
+		} else {
+			sb.append(ids[queue]).append('[').append(size).append(']');
+		}
+	}
+}
\ No newline at end of file
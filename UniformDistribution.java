@@ -0,0 +1,50 @@
+import java.io.DataOutput;
+import java.io.IOException;
+
+/* Times between min and max with equal probability, the only distribution of the
+ * original simulator, whose results it reproduces exactly. */
+public class UniformDistribution implements Distribution {
+
+	private final double min;
+	private final double max;
+
+	public UniformDistribution(double min, double max) {
+		this.min = min;
+		this.max = max;
+	}
+
+	public double sample(double u) {
+		return (max-min) * u + min;
+	}
+
+	/* In the order of operations of the original simulator, which rounds differently from time + sample(u). */
+	public double after(double time, double u) {
+		return time + (max-min) * u + min;
+	}
+
+	public double min() {
+		return min;
+	}
+
+	public double max() {
+		return max;
+	}
+
+	public double mean() {
+		return (min+max) / 2;
+	}
+
+	public Distribution scaled(double factor) {
+		return new UniformDistribution(min*factor, max*factor);
+	}
+
+	public void write(DataOutput out) throws IOException {
+		out.writeByte(UNIFORM);
+		out.writeDouble(min);
+		out.writeDouble(max);
+	}
+
+	public String toString() {
+		return String.format("uniform(%s,%s)", min, max);
+	}
+}
\ No newline at end of file
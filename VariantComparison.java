@@ -0,0 +1,86 @@
+import java.util.ArrayList;
+
+/* Compares two variants of a network (e.g. "java App queues queues2") by simulating
+ * both with the same seeds and reporting, for every queue they have in common, the
+ * difference of their mean number of clients and of their clients lost.
+ * Each difference comes with its confidence interval over the seeds and with the
+ * variance reduction achieved by pairing the runs, Var(A)+Var(B) over Var(A-B): how many
+ * times more seeds independent runs would need for the same precision. Pairing only
+ * pays off with common random numbers, that is, with "generator: ... / perqueue" in
+ * both files (see RandomStreams). */
+class VariantComparison {
+
+	private final QueueSim a;
+	private final QueueSim b;
+
+	VariantComparison(QueueSim a, QueueSim b) {
+		this.a = a;
+		this.b = b;
+	}
+
+	/* Uses the seeds of the first variant. */
+	void run() {
+		ArrayList<QueueStructure> qa = a.getQueues();
+		ArrayList<QueueStructure> qb = b.getQueues();
+		//Queues of both variants, matched by id
+		ArrayList<int[]> common = new ArrayList<>();
+		for(QueueStructure q : qa) {
+			for(QueueStructure r : qb) {
+				if(q.id.equals(r.id)) {
+					common.add(new int[] {q.index, r.index});
+				}
+			}
+		}
+		//Per common queue: mean clients and clients lost, of A, of B and of A-B
+		RunningStat[][] stats = new RunningStat[common.size()][6];
+		for(RunningStat[] row : stats) {
+			for(int k=0; k<row.length; k++) {
+				row[k] = new RunningStat();
+			}
+		}
+		ArrayList<Long> seeds = a.getSeeds();
+		for(long seed : seeds) {
+			SimulationReport ra = a.runReplication(seed);
+			SimulationReport rb = b.runReplication(seed);
+			for(int c=0; c<common.size(); c++) {
+				int i = common.get(c)[0], j = common.get(c)[1];
+				double clientsA = meanClients(ra, i), clientsB = meanClients(rb, j);
+				stats[c][0].add(clientsA);
+				stats[c][1].add(clientsB);
+				stats[c][2].add(clientsA - clientsB);
+				stats[c][3].add(ra.clientsLost[i]);
+				stats[c][4].add(rb.clientsLost[j]);
+				stats[c][5].add(ra.clientsLost[i] - rb.clientsLost[j]);
+			}
+		}
+
+		StringBuilder res = new StringBuilder(500);
+		res.append(String.format("Comparison of two variants over %d seeds (A - B):\n", seeds.size()));
+		for(int c=0; c<common.size(); c++) {
+			res.append("Queue ").append(qa.get(common.get(c)[0]).id).append(":\n");
+			append(res, "Mean clients", stats[c][0], stats[c][1], stats[c][2]);
+			append(res, "Clients lost", stats[c][3], stats[c][4], stats[c][5]);
+			res.append("---------------------------\n");
+		}
+		res.append(String.format("(+- : half-width of the %.0f%% confidence interval; "
+				+ "reduction: Var(A)+Var(B) / Var(A-B))", 100*SimulationReport.CONFIDENCE));
+		System.out.println(res.toString());
+	}
+
+	/* Time-average number of clients in queue i. */
+	private static double meanClients(SimulationReport r, int i) {
+		StateHistogram h = r.stateTimes[i];
+		double sum = 0;
+		for(int s=0; s<h.size(); s++) {
+			sum += s * h.get(s);
+		}
+		return sum / r.totalSimulationTime;
+	}
+
+	private static void append(StringBuilder res, String name, RunningStat sa, RunningStat sb, RunningStat diff) {
+		String reduction = diff.variance() > 0 ?
+				String.format("%.2fx", (sa.variance() + sb.variance()) / diff.variance()) : "n/a";
+		res.append(String.format("%s: A %.4f  B %.4f  difference %.4f +- %.4f  reduction %s\n",
+				name, sa.mean(), sb.mean(), diff.mean(), diff.halfWidth(SimulationReport.CONFIDENCE), reduction));
+	}
+}
\ No newline at end of file
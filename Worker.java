@@ -0,0 +1,39 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+/* Worker process of a distributed run (see Coordinator): simulates the seeds it is
+ * given and sends back their reports, until the coordinator is done.
+ *
+ * Usage: java App -worker <port of the coordinator> */
+class Worker {
+
+	static void run(int port) throws Exception {
+		try(Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+			socket.setTcpNoDelay(true);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+			byte[] model = new byte[in.readInt()];
+			in.readFully(model);
+			QueueSim sim = new QueueSim(CompiledModel.read(ByteBuffer.wrap(model), "model from the coordinator"));
+
+			int first;
+			while((first = in.readInt()) != Coordinator.DONE) {
+				long[] seeds = new long[in.readInt()];
+				for(int i=0; i<seeds.length; i++) {
+					seeds[i] = in.readLong();
+				}
+				for(int i=0; i<seeds.length; i++) {
+					SimulationReport r = sim.runReplication(seeds[i]);
+					out.writeInt(first + i);
+					r.write(out);
+					out.flush();
+				}
+			}
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,124 @@
+/* xoshiro256++ generator (Blackman and Vigna). Period 2^256-1, passes the usual
+ * statistical test batteries, and its streams (see stream) are 2^128 numbers apart,
+ * so they can't overlap in practice. */
+public class Xoshiro256PlusPlus implements RandomSource {
+	private static final long[] JUMP = {
+			0x180EC6D33CFD0ABAL, 0xD5A61266F0C9392CL, 0xA9582618E03FC9AAL, 0x39ABDC4529B1661CL };
+
+	private long s0, s1, s2, s3;
+
+	/* The state is initialized from the seed with SplitMix64, as recommended by the authors. */
+	public Xoshiro256PlusPlus(long seed) {
+		SplitMix64 sm = new SplitMix64(seed);
+		s0 = sm.nextLong();
+		s1 = sm.nextLong();
+		s2 = sm.nextLong();
+		s3 = sm.nextLong();
+	}
+
+	private Xoshiro256PlusPlus(long s0, long s1, long s2, long s3) {
+		this.s0 = s0;
+		this.s1 = s1;
+		this.s2 = s2;
+		this.s3 = s3;
+	}
+
+	public long nextLong() {
+		long result = Long.rotateLeft(s0 + s3, 23) + s0;
+		long t = s1 << 17;
+		s2 ^= s0;
+		s3 ^= s1;
+		s1 ^= s2;
+		s0 ^= s3;
+		s2 ^= t;
+		s3 = Long.rotateLeft(s3, 45);
+		return result;
+	}
+
+	public double nextDouble() {
+		return (nextLong() >>> 11) * 0x1.0p-53;
+	}
+
+	/* Stream k is k jumps of 2^128 numbers ahead. Jumps are linear maps of the 256 bit state,
+	 * so instead of k calls to jump() the matrices of 1, 2, 4, ... jumps (see JumpPowers)
+	 * are applied for the bits of k. */
+	public RandomSource stream(int k) {
+		long[] state = getState();
+		for(int b=0; k>>>b != 0; b++) {
+			if((k >>> b & 1) != 0) {
+				state = JumpPowers.apply(JumpPowers.POWERS[b], state);
+			}
+		}
+		return new Xoshiro256PlusPlus(state[0], state[1], state[2], state[3]);
+	}
+
+	public long[] getState() {
+		return new long[] {s0, s1, s2, s3};
+	}
+
+	public void setState(long[] state) {
+		s0 = state[0];
+		s1 = state[1];
+		s2 = state[2];
+		s3 = state[3];
+	}
+
+	/* Advances the generator by 2^128 numbers. */
+	public void jump() {
+		long j0 = 0, j1 = 0, j2 = 0, j3 = 0;
+		for(long jump : JUMP) {
+			for(int b=0; b<64; b++) {
+				if((jump & (1L << b)) != 0) {
+					j0 ^= s0;
+					j1 ^= s1;
+					j2 ^= s2;
+					j3 ^= s3;
+				}
+				nextLong();
+			}
+		}
+		s0 = j0;
+		s1 = j1;
+		s2 = j2;
+		s3 = j3;
+	}
+
+	/* Matrices over GF(2) of 2^b jumps, for the bits b of a stream number, computed on first use.
+	 * Column j of a matrix is the state reached from the state with only bit j set (bit j%64
+	 * of word j/64); a state is mapped by adding (xor) the columns of its set bits. */
+	private static final class JumpPowers {
+		static final long[][][] POWERS = new long[Integer.numberOfTrailingZeros(STREAMS)][][];
+
+		static {
+			long[][] m = new long[256][];
+			for(int j=0; j<256; j++) {
+				long[] unit = new long[4];
+				unit[j >>> 6] = 1L << j;
+				Xoshiro256PlusPlus g = new Xoshiro256PlusPlus(unit[0], unit[1], unit[2], unit[3]);
+				g.jump();
+				m[j] = g.getState();
+			}
+			POWERS[0] = m;
+			for(int b=1; b<POWERS.length; b++) { //Squares the previous matrix
+				long[][] square = new long[256][];
+				for(int j=0; j<256; j++) {
+					square[j] = apply(m, m[j]);
+				}
+				POWERS[b] = m = square;
+			}
+		}
+
+		static long[] apply(long[][] matrix, long[] state) {
+			long[] result = new long[4];
+			for(int j=0; j<256; j++) {
+				if((state[j >>> 6] >>> j & 1) != 0) {
+					long[] column = matrix[j];
+					for(int w=0; w<4; w++) {
+						result[w] ^= column[w];
+					}
+				}
+			}
+			return result;
+		}
+	}
+}
\ No newline at end of file
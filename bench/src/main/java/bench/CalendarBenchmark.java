@@ -0,0 +1,61 @@
+package bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/* Classic "hold" benchmark of the event calendars: the calendar is kept at a fixed
+ * number of pending events and every operation polls the earliest event and offers
+ * a new one at its time plus an exponential increment, like a simulation does. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CalendarBenchmark {
+
+	//Power of two, precomputed so that the benchmark doesn't measure the random generator
+	private static final int INCREMENTS = 1 << 16;
+
+	@Param({"heap", "calendarqueue"})
+	public String calendar;
+
+	@Param({"16", "1024", "65536"})
+	public int pending;
+
+	private Object schedule;
+	private double[] increments;
+	private int next;
+
+	@Setup
+	public void setup() throws Throwable {
+		Random random = new Random(1);
+		increments = new double[INCREMENTS];
+		for(int i=0; i<INCREMENTS; i++) {
+			increments[i] = -Math.log(1 - random.nextDouble());
+		}
+		schedule = Simulator.newCalendar(calendar);
+		for(int i=0; i<pending; i++) {
+			Simulator.offer(schedule, increments[i & (INCREMENTS-1)], 0, i, -1);
+		}
+	}
+
+	@Benchmark
+	public void hold() throws Throwable {
+		Simulator.poll(schedule);
+		double time = Simulator.time(schedule) + increments[next++ & (INCREMENTS-1)];
+		Simulator.offer(schedule, time, 0, 0, -1);
+	}
+}
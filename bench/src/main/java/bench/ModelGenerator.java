@@ -0,0 +1,200 @@
+package bench;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/* Generates queue network models in the syntax of the "queues" file.
+ *
+ * TANDEM: q1 -> q2 -> ... -> qN -> exit, clients arrive at q1.
+ * MESH:   every queue routes to up to four random queues or leaves the system,
+ *         clients arrive at one queue in ten.
+ * FANOUT: q1 is a load balancer routing to every other queue, which then leave the system.
+ *
+ * Service times are chosen so that every queue has the requested utilization
+ * (arrival rate * mean service time / servers), given the arrival rates obtained
+ * from the traffic equations of the network. Routing probabilities are multiples of
+ * 2^-20, so they sum to exactly 1 when the simulator parses them.
+ *
+ * Usage: java -cp benchmarks.jar bench.ModelGenerator <tandem|mesh|fanout> <queues> <load> [seed] [output file] */
+public final class ModelGenerator {
+
+	public enum Topology {
+		TANDEM, MESH, FANOUT
+	}
+
+	private static final double PROB_UNIT = 1.0 / (1 << 20);
+	private static final double MEAN_INTERARRIVAL = 1.0;
+
+	public static void main(String[] args) throws IOException {
+		if(args.length < 3) {
+			System.out.println("Usage: ModelGenerator <tandem|mesh|fanout> <queues> <load> [seed] [output file]");
+			System.exit(1);
+		}
+		Topology topology = Topology.valueOf(args[0].toUpperCase());
+		int queues = Integer.parseInt(args[1]);
+		double load = Double.parseDouble(args[2]);
+		long seed = args.length > 3 ? Long.parseLong(args[3]) : 1;
+		String model = generate(topology, queues, load, seed, 100000);
+		if(args.length > 4) {
+			Files.write(Paths.get(args[4]), model.getBytes(StandardCharsets.ISO_8859_1));
+		} else {
+			System.out.print(model);
+		}
+	}
+
+	/* Writes a generated model to a temporary file and returns its path. */
+	public static Path generateFile(Topology topology, int queues, double load, long seed, int randoms) throws IOException {
+		Path file = Files.createTempFile("model-" + topology.name().toLowerCase() + "-" + queues, ".txt");
+		file.toFile().deleteOnExit();
+		Files.write(file, generate(topology, queues, load, seed, randoms).getBytes(StandardCharsets.ISO_8859_1));
+		return file;
+	}
+
+	public static String generate(Topology topology, int n, double load, long seed, int randoms) {
+		if(n < 1 || (topology == Topology.FANOUT && n < 2)) {
+			throw new IllegalArgumentException("Not enough queues for topology " + topology);
+		}
+		if(load <= 0) {
+			throw new IllegalArgumentException("Load must be greater than 0.");
+		}
+		Random random = new Random(seed);
+		double[][] routing = new double[n][n]; //routing[i][j]: probability of going from i to j
+		double[] exit = new double[n];
+		boolean[] external = new boolean[n];
+		int[] servers = new int[n];
+
+		switch(topology) {
+		case TANDEM:
+			for(int i=0; i<n-1; i++) {
+				routing[i][i+1] = 1.0;
+			}
+			exit[n-1] = 1.0;
+			external[0] = true;
+			for(int i=0; i<n; i++) {
+				servers[i] = 1;
+			}
+			break;
+		case MESH:
+			for(int i=0; i<n; i++) {
+				int fanOut = Math.min(4, n-1);
+				double[] probs = split(fanOut + 1, 1.0);
+				exit[i] = probs[fanOut];
+				for(int k=0; k<fanOut; k++) {
+					int j;
+					do {
+						j = random.nextInt(n);
+					} while(j == i || routing[i][j] != 0);
+					routing[i][j] = probs[k];
+				}
+				external[i] = i % 10 == 0;
+				servers[i] = 1 + random.nextInt(4);
+			}
+			break;
+		case FANOUT:
+			double[] probs = split(n-1, 1.0);
+			for(int j=1; j<n; j++) {
+				routing[0][j] = probs[j-1];
+				exit[j] = 1.0;
+				servers[j] = 1 + random.nextInt(2);
+			}
+			external[0] = true;
+			servers[0] = 1;
+			break;
+		}
+
+		double[] arrivalRates = trafficEquations(routing, external);
+		return format(topology, n, load, seed, randoms, routing, exit, external, servers, arrivalRates);
+	}
+
+	/* Splits total into n parts that are multiples of PROB_UNIT. The last part takes the remainder. */
+	private static double[] split(int n, double total) {
+		double[] parts = new double[n];
+		long units = Math.round(total / PROB_UNIT);
+		long each = units / n;
+		for(int i=0; i<n-1; i++) {
+			parts[i] = each * PROB_UNIT;
+		}
+		parts[n-1] = (units - each*(n-1)) * PROB_UNIT;
+		return parts;
+	}
+
+	/* Solves lambda = gamma + lambda * routing by fixed point iteration, where gamma is
+	 * the external arrival rate of each queue. */
+	private static double[] trafficEquations(double[][] routing, boolean[] external) {
+		int n = external.length;
+		double[] lambda = new double[n];
+		for(int iteration=0; iteration<10000; iteration++) {
+			double[] next = new double[n];
+			for(int i=0; i<n; i++) {
+				if(external[i]) {
+					next[i] += 1.0 / MEAN_INTERARRIVAL;
+				}
+				if(lambda[i] != 0) {
+					for(int j=0; j<n; j++) {
+						next[j] += lambda[i] * routing[i][j];
+					}
+				}
+			}
+			double change = 0;
+			for(int i=0; i<n; i++) {
+				change = Math.max(change, Math.abs(next[i] - lambda[i]));
+			}
+			lambda = next;
+			if(change < 1e-12) {
+				break;
+			}
+		}
+		return lambda;
+	}
+
+	private static String format(Topology topology, int n, double load, long seed, int randoms,
+			double[][] routing, double[] exit, boolean[] external, int[] servers, double[] arrivalRates) {
+		StringBuilder sb = new StringBuilder(n * 64);
+		sb.append(String.format("# Generated by bench.ModelGenerator: %s, %d queues, load %s, seed %d%n%n",
+				topology.name().toLowerCase(), n, load, seed));
+
+		for(int i=0; i<n; i++) {
+			double arrivalMin = 0, arrivalMax = 0;
+			if(external[i]) {
+				arrivalMin = 0.5 * MEAN_INTERARRIVAL;
+				arrivalMax = 1.5 * MEAN_INTERARRIVAL;
+			}
+			//Queues no client ever reaches get the service time of a queue with one arrival per time unit
+			double rate = arrivalRates[i] > 0 ? arrivalRates[i] : 1.0;
+			double meanService = load * servers[i] / rate;
+			sb.append(String.format("q%d:%d/%d/%s/%s/%s/%s%n", i+1, servers[i], servers[i] + 20,
+					arrivalMin, arrivalMax, 0.5 * meanService, 1.5 * meanService));
+		}
+		sb.append('\n');
+
+		for(int i=0; i<n; i++) {
+			sb.append("dest: q").append(i+1).append(" ->");
+			String separator = " ";
+			for(int j=0; j<n; j++) {
+				if(routing[i][j] != 0) {
+					sb.append(separator).append('q').append(j+1).append('/').append(routing[i][j]);
+					separator = " , ";
+				}
+			}
+			if(exit[i] != 0) {
+				sb.append(separator).append("S/").append(exit[i]);
+			}
+			sb.append('\n');
+		}
+
+		sb.append(String.format("%nseeds: %d%n%nrandoms: %d%n%nfirst: ", seed, randoms));
+		String separator = "";
+		for(int i=0; i<n; i++) {
+			if(external[i]) {
+				sb.append(separator).append('q').append(i+1).append("/1");
+				separator = " , ";
+			}
+		}
+		sb.append('\n');
+		return sb.toString();
+	}
+}
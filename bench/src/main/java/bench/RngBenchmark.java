@@ -0,0 +1,56 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/* Cost of one RNG.next() call, for every generator, drawing each number from the generator
+ * or from blocks filled by RandomSource.fill, and of creating a stream (RandomSource.stream),
+ * which every queue does three times per run with "generator: ... / perqueue". */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RngBenchmark {
+
+	//Stream with most bits set, the slowest for Xoshiro256PlusPlus
+	private static final int STREAM = (1<<16) - 1;
+
+	@Param({"lcg", "xoshiro", "splitmix"})
+	public String generator;
+
+	@Param({"0", "1024"})
+	public int blockSize;
+
+	private Object source;
+	private Object rng;
+
+	@Setup
+	public void setup() throws Throwable {
+		source = Simulator.newSource(generator, 123456);
+		rng = Simulator.newRng(Simulator.newSource(generator, 123456), blockSize);
+		Simulator.stream(source, STREAM); //Computes the jump matrices of Xoshiro256PlusPlus
+	}
+
+	@Benchmark
+	public double next() throws Throwable {
+		return Simulator.next(rng);
+	}
+
+	@Benchmark
+	public Object stream() throws Throwable {
+		return Simulator.stream(source, STREAM);
+	}
+}
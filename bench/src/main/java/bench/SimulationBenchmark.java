@@ -0,0 +1,56 @@
+package bench;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/* Throughput of QueueSim.runSimulation(long,int) on generated networks.
+ * Scores are in random numbers consumed per second. Every event consumes one random
+ * number, plus one for each departure from a queue with more than one destination,
+ * so the score is a close upper bound of events per second. */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SimulationBenchmark {
+
+	private static final int RANDOMS = 200_000;
+
+	@Param({"TANDEM", "MESH", "FANOUT"})
+	public ModelGenerator.Topology topology;
+
+	@Param({"10", "100", "1000"})
+	public int queues;
+
+	@Param({"0.5", "0.9"})
+	public double load;
+
+	private Object sim;
+	private long seed;
+
+	@Setup
+	public void setup() throws Throwable {
+		Path model = ModelGenerator.generateFile(topology, queues, load, 1, RANDOMS);
+		sim = Simulator.load(model.toString());
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(RANDOMS)
+	public Object runSimulation() throws Throwable {
+		return Simulator.run(sim, ++seed, RANDOMS);
+	}
+}
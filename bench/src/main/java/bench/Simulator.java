@@ -0,0 +1,106 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/* Access to the simulator classes from the benchmarks.
+ * The simulator lives in the default package, which can't be imported from a named
+ * package, and JMH doesn't accept benchmarks in the default package. The classes are
+ * loaded by name instead and called through method handles. The handles are constants,
+ * so the JIT inlines them and the benchmarks measure the same code as direct calls. */
+final class Simulator {
+
+	private static final MethodHandle NEW_SIM;
+	private static final MethodHandle RUN;
+	private static final MethodHandle NEW_SOURCE;
+	private static final MethodHandle SOURCE_STREAM;
+	private static final MethodHandle NEW_RNG;
+	private static final MethodHandle RNG_NEXT;
+	private static final MethodHandle NEW_CALENDAR;
+	private static final MethodHandle OFFER;
+	private static final MethodHandle POLL;
+	private static final MethodHandle TIME;
+
+	static {
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			Class<?> sim = Class.forName("QueueSim");
+			Class<?> report = Class.forName("SimulationReport");
+			Class<?> rng = Class.forName("RNG");
+			Class<?> source = Class.forName("RandomSource");
+			Class<?> calendar = Class.forName("EventCalendar");
+			MethodHandles.Lookup simLookup = MethodHandles.privateLookupIn(sim, lookup);
+			NEW_SIM = simLookup.findConstructor(sim, MethodType.methodType(void.class, String.class))
+					.asType(MethodType.methodType(Object.class, String.class));
+			RUN = simLookup.findVirtual(sim, "runSimulation", MethodType.methodType(report, long.class, int.class))
+					.asType(MethodType.methodType(Object.class, Object.class, long.class, int.class));
+			NEW_SOURCE = lookup.findStatic(source, "create", MethodType.methodType(source, String.class, long.class))
+					.asType(MethodType.methodType(Object.class, String.class, long.class));
+			SOURCE_STREAM = lookup.findVirtual(source, "stream", MethodType.methodType(source, int.class))
+					.asType(MethodType.methodType(Object.class, Object.class, int.class));
+			NEW_RNG = lookup.findConstructor(rng, MethodType.methodType(void.class, source, int.class))
+					.asType(MethodType.methodType(Object.class, Object.class, int.class));
+			RNG_NEXT = lookup.findVirtual(rng, "next", MethodType.methodType(double.class))
+					.asType(MethodType.methodType(double.class, Object.class));
+			NEW_CALENDAR = lookup.findStatic(calendar, "create", MethodType.methodType(calendar, String.class))
+					.asType(MethodType.methodType(Object.class, String.class));
+			OFFER = lookup.findVirtual(calendar, "offer",
+					MethodType.methodType(void.class, double.class, int.class, int.class, int.class))
+					.asType(MethodType.methodType(void.class, Object.class, double.class, int.class, int.class, int.class));
+			POLL = lookup.findVirtual(calendar, "poll", MethodType.methodType(void.class))
+					.asType(MethodType.methodType(void.class, Object.class));
+			TIME = lookup.findVirtual(calendar, "time", MethodType.methodType(double.class))
+					.asType(MethodType.methodType(double.class, Object.class));
+		} catch(ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private Simulator() {
+	}
+
+	/* Parses a model file into a QueueSim. */
+	static Object load(String file) throws Throwable {
+		return (Object) NEW_SIM.invokeExact(file);
+	}
+
+	/* Runs one replication, returns its SimulationReport. */
+	static Object run(Object sim, long seed, int randoms) throws Throwable {
+		return (Object) RUN.invokeExact(sim, seed, randoms);
+	}
+
+	/* Generator by the name of the "generator:" line (lcg, xoshiro or splitmix). */
+	static Object newSource(String name, long seed) throws Throwable {
+		return (Object) NEW_SOURCE.invokeExact(name, seed);
+	}
+
+	static Object stream(Object source, int k) throws Throwable {
+		return (Object) SOURCE_STREAM.invokeExact(source, k);
+	}
+
+	/* RNG drawing from the given source, a block of blockSize numbers at a time (0 for none). */
+	static Object newRng(Object source, int blockSize) throws Throwable {
+		return (Object) NEW_RNG.invokeExact(source, blockSize);
+	}
+
+	static double next(Object rng) throws Throwable {
+		return (double) RNG_NEXT.invokeExact(rng);
+	}
+
+	static Object newCalendar(String name) throws Throwable {
+		return (Object) NEW_CALENDAR.invokeExact(name);
+	}
+
+	static void offer(Object calendar, double time, int event, int origin, int destination) throws Throwable {
+		OFFER.invokeExact(calendar, time, event, origin, destination);
+	}
+
+	static void poll(Object calendar) throws Throwable {
+		POLL.invokeExact(calendar);
+	}
+
+	static double time(Object calendar) throws Throwable {
+		return (double) TIME.invokeExact(calendar);
+	}
+}